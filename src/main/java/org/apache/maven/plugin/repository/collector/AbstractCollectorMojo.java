@@ -19,11 +19,22 @@ package org.apache.maven.plugin.repository.collector;
 
 import org.apache.maven.artifact.Artifact;
 import org.apache.maven.artifact.factory.ArtifactFactory;
+import org.apache.maven.artifact.metadata.ArtifactMetadataSource;
+import org.apache.maven.artifact.manager.WagonManager;
 import org.apache.maven.artifact.repository.ArtifactRepository;
+import org.apache.maven.artifact.repository.ArtifactRepositoryPolicy;
+import org.apache.maven.artifact.repository.DefaultArtifactRepository;
+import org.apache.maven.artifact.resolver.ArtifactCollector;
+import org.apache.maven.artifact.resolver.ArtifactResolutionException;
+import org.apache.maven.artifact.resolver.ArtifactResolver;
+import org.apache.maven.artifact.resolver.filter.AndArtifactFilter;
+import org.apache.maven.artifact.resolver.filter.ArtifactFilter;
+import org.apache.maven.artifact.resolver.filter.ExcludesArtifactFilter;
 import org.apache.maven.artifact.versioning.InvalidVersionSpecificationException;
 import org.apache.maven.artifact.versioning.VersionRange;
 import org.apache.maven.model.Dependency;
 import org.apache.maven.model.DependencyManagement;
+import org.apache.maven.model.Exclusion;
 import org.apache.maven.model.Extension;
 import org.apache.maven.model.Model;
 import org.apache.maven.model.Plugin;
@@ -34,22 +45,31 @@ import org.apache.maven.plugin.Mojo;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.plugin.logging.Log;
-import org.apache.maven.project.DefaultMavenProjectBuilder;
 import org.apache.maven.project.MavenProject;
 import org.apache.maven.project.MavenProjectBuilder;
 import org.apache.maven.project.ProjectBuildingException;
 import org.apache.maven.project.artifact.InvalidDependencyVersionException;
 
 import java.io.File;
-import java.lang.reflect.Field;
-import java.lang.reflect.InvocationTargetException;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public abstract class AbstractCollectorMojo
     implements Mojo
@@ -92,6 +112,209 @@ public abstract class AbstractCollectorMojo
      */
     private boolean includePluginManagement;
 
+    /**
+     * Coordinate patterns (groupId:artifactId:type:classifier:version, '*' wildcards, trailing fields optional) of
+     * artifacts to collect. When empty, all artifacts are included.
+     * 
+     * @parameter
+     */
+    private List<String> includes;
+
+    /**
+     * Coordinate patterns (groupId:artifactId:type:classifier:version, '*' wildcards, trailing fields optional) of
+     * artifacts to leave out. Excluded artifacts are pruned along with their transitive subtree, so they are never
+     * fetched.
+     * 
+     * @parameter
+     */
+    private List<String> excludes;
+
+    /**
+     * Zero-based index of the shard of direct artifacts this run should handle. Only used when shardCount > 1.
+     * 
+     * @parameter expression="${collector.shardIndex}" default-value="0"
+     */
+    private int shardIndex;
+
+    /**
+     * Number of shards the direct artifacts are split into. Each artifact is assigned to exactly one shard by a
+     * consistent hash of its coordinate, so separate runs (e.g. on separate CI nodes) can each resolve one shard into
+     * their own repository. Use the merge-shards goal to combine them.
+     * <p>
+     * A shard can only mediate its own share of the graph, so a merged result would differ from an unsharded run
+     * wherever the graph is mediated as a whole. Values above 1 therefore require each direct artifact to be resolved
+     * on its own: streaming, or (for resolve) dedupe=false.
+     * 
+     * @parameter expression="${collector.shardCount}" default-value="1"
+     */
+    private int shardCount;
+
+    /**
+     * Bounded-memory mode for very large graphs: instead of building one synthetic project holding every artifact,
+     * each direct artifact is resolved (and, for collect, written to the output) on its own and released right
+     * away, keeping only compact coordinate bookkeeping. Artifacts are resolved independently, as with dedupe=false.
+     * 
+     * @parameter expression="${collector.streaming}" default-value="false"
+     */
+    private boolean streaming;
+
+    /**
+     * Collect only the POMs of the dependency graph (including plugins), with their parents and import-scoped BOMs,
+     * for audits and license scans. The graph is mediated as usual, but no jar or other payload is downloaded, so the
+     * run only transfers metadata. Takes precedence over streaming.
+     * 
+     * @parameter expression="${collector.pomOnly}" default-value="false"
+     */
+    private boolean pomOnly;
+
+    /**
+     * Backend resolving the collected artifacts (not used with streaming or pomOnly): 'maven' (Maven's own
+     * resolution, fetching one file at a time: the repository assembler for collect, Maven's dependency resolver for
+     * resolve) or 'concurrent' (see ConcurrentResolutionBackend), which fetches the graph's POMs and then its files
+     * on 'threads' threads, and mediates exactly as Maven does.
+     * 
+     * @parameter expression="${collector.backend}" default-value="maven"
+     */
+    private String backend;
+
+    /**
+     * When the concurrent backend is selected, resolve the artifacts again with the maven backend afterwards, log
+     * how long each took, and fail the build if they resolved different artifacts. collect compares the paths of
+     * the non-POM files, since the repository assembler only reports the files it wrote.
+     * 
+     * @parameter expression="${collector.verifyBackend}" default-value="false"
+     */
+    private boolean verifyBackend;
+
+    /**
+     * Number of concurrent fetches used by the plugin's own download stages, such as lockfile replay and
+     * parent/BOM discovery.
+     * 
+     * @parameter expression="${collector.threads}" default-value="5"
+     */
+    private int threads;
+
+    /**
+     * Fail the build when a parent POM or import-scoped BOM of the project cannot be fetched, instead of only
+     * reporting it.
+     * 
+     * @parameter expression="${collector.failOnMissingAncestors}" default-value="false"
+     */
+    private boolean failOnMissingAncestors;
+
+    /**
+     * Minimum number of minutes between two checks of a SNAPSHOT's remote metadata. Maven records each check by
+     * touching the per-repository metadata file (maven-metadata-&lt;repoId&gt;.xml) next to the snapshot in the
+     * local repository used for resolution, so snapshots checked within the interval are not checked again.
+     * 0 checks on every run; a negative value keeps each repository's own snapshot update policy.
+     * 
+     * @parameter expression="${collector.snapshotUpdateInterval}" default-value="-1"
+     */
+    private int snapshotUpdateInterval;
+
+    /**
+     * Check every SNAPSHOT's remote metadata on this run, regardless of snapshotUpdateInterval.
+     * 
+     * @parameter expression="${collector.forceSnapshotUpdate}" default-value="false"
+     */
+    private boolean forceSnapshotUpdate;
+
+    /**
+     * Fetch release POMs and artifacts needed by the plugin's own download stages (plugin POMs, parent/BOM
+     * discovery, lockfile replay, nearest-wins mediation) over keep-alive HTTP connections, with up to 'threads'
+     * concurrent requests per host. Anything the pooled transport cannot fetch falls back to Maven's wagons. Transfer
+     * statistics are reported at the end of the build.
+     * 
+     * @parameter expression="${collector.pooledTransport}" default-value="false"
+     */
+    private boolean pooledTransport;
+
+    /**
+     * How long, in minutes, a file that a remote repository reported missing is remembered, so it is not requested
+     * from that repository again. Misses are kept in a file in the local repository that is resolved into, and only
+     * recorded when pooledTransport is on. Keep this to a few minutes: a file deployed meanwhile stays hidden until
+     * its miss expires. -1 remembers misses for this build only, without the file; 0 disables the cache. A file is
+     * still requested when every repository is known to miss it, so Maven reports it as usual.
+     * <p>
+     * Only the plugin's own fetch stages (see pooledTransport) consult and record misses. The dependency graph itself
+     * is resolved by the backend through Maven's wagons, which still ask every repository for each missing file.
+     * 
+     * @parameter expression="${collector.negativeCacheTtl}" default-value="0"
+     */
+    private int negativeCacheTtl;
+
+    /**
+     * Ignore remembered misses for this run, asking every repository again. New misses are still recorded.
+     * 
+     * @parameter expression="${collector.bypassNegativeCache}" default-value="false"
+     */
+    private boolean bypassNegativeCache;
+
+    /**
+     * File of 'groupIdPrefix=repositoryId' lines routing groupIds straight to the repository that hosts them. These
+     * routes take precedence over the ones learned from earlier runs (see learnRoutes). Only used with
+     * pooledTransport, and only by the plugin's own fetch stages: the dependency graph itself is resolved by the
+     * backend through Maven's wagons, which scan the repositories in their declared order.
+     * 
+     * @parameter expression="${collector.routingTable}"
+     */
+    private File routingTable;
+
+    /**
+     * Remember which repository served each groupId and try it first on later runs, before scanning the remaining
+     * repositories in order. Learned routes are kept in a file in the local repository that is resolved into, which
+     * concurrent builds update under a lock.
+     * <p>
+     * Like routingTable, routes are only learned and used by the plugin's own fetch stages (see pooledTransport);
+     * files the backend resolves through Maven's wagons neither follow nor teach any route.
+     * 
+     * @parameter expression="${collector.learnRoutes}" default-value="false"
+     */
+    private boolean learnRoutes;
+
+    /**
+     * Record the files each run resolves, and on the next run start fetching them in the background (over the
+     * pooled transport) as soon as the goal starts, so the downloads overlap with model assembly.
+     * 
+     * @parameter expression="${collector.prefetch}" default-value="false"
+     */
+    private boolean prefetch;
+
+    /**
+     * Delete prefetched files that the current run turned out not to need. Only files this run created, that were
+     * not replaced since and that no other project's run manifest in the repository lists are deleted. When false,
+     * they are only reported.
+     * 
+     * @parameter expression="${collector.cleanupPrefetch}" default-value="false"
+     */
+    private boolean cleanupPrefetch;
+
+    /**
+     * Zip archives holding read-only seed repositories (default layout, optionally under one top-level directory).
+     * They are used in place, without being extracted: release files the plugin fetches itself (see pooledTransport)
+     * are looked up in the archives first, in order, and only the files that are needed are extracted into the
+     * local repository that is resolved into. Archives are used offline too.
+     * 
+     * @parameter
+     */
+    private List<File> archives;
+
+    /**
+     * Keep the dependency management of every release plugin project that had to be built in a binary cache file in
+     * the local repository, so later runs reuse it instead of building the plugin's POM again. An entry is dropped
+     * as soon as the plugin POM or one of its parent POMs changes. Plugins whose POMs (or parent POMs) import BOMs or
+     * declare profiles are always built.
+     * 
+     * @parameter expression="${collector.cacheModels}" default-value="false"
+     */
+    private boolean cacheModels;
+
+    /**
+     * @parameter default-value="${settings.offline}"
+     * @readonly
+     */
+    private boolean offline;
+
     /**
      * @parameter default-value="${localRepository}"
      * @readonly
@@ -116,82 +339,991 @@ public abstract class AbstractCollectorMojo
      */
     private MavenProjectBuilder mavenProjectBuilder;
 
+    /**
+     * @component
+     */
+    private WagonManager wagonManager;
+
+    /**
+     * @component
+     */
+    private ArtifactCollector artifactCollector;
+
     private Log log;
 
+    private CoordinatePatternFilter artifactFilter;
+
+    private List<ArtifactRepository> remoteRepositories;
+
+    private ArtifactFetcher artifactFetcher;
+
+    private SpeculativePrefetcher prefetcher;
+
+    private ModelCache modelCache;
+
+    private final Set<String> resolvedCoordinates = Collections.synchronizedSet( new HashSet<String>() );
+
     public void execute()
         throws MojoExecutionException, MojoFailureException
     {
-        Map<String, Map<String, Artifact>> pluginManagedVersions = new HashMap<String, Map<String, Artifact>>();
-        Set<Artifact> artifacts = assembleDirectArtifacts( pluginManagedVersions );
+        if ( !"maven".equals( backend ) && !"concurrent".equals( backend ) )
+        {
+            throw new MojoFailureException( "Invalid backend: '" + backend
+                + "'. Valid values are: 'maven', 'concurrent'." );
+        }
+
+        if ( shardCount > 1 && ( !streaming || pomOnly ) && isMediatingWholeGraph() )
+        {
+            throw new MojoFailureException( "shardCount > 1 requires streaming (or, for resolve, dedupe=false): each "
+                + "shard would only mediate its own share of the graph, so the merged result could differ from an "
+                + "unsharded run." );
+        }
+
+        boolean succeeded = false;
+        try
+        {
+            startPrefetch();
+
+            artifactFilter = new CoordinatePatternFilter( includes, excludes );
+
+            Map<String, Map<String, Artifact>> pluginManagedVersions = new HashMap<String, Map<String, Artifact>>();
+            Set<Artifact> artifacts = assembleDirectArtifacts( pluginManagedVersions );
+
+            if ( shardCount > 1 )
+            {
+                artifacts = selectShard( artifacts );
+            }
+
+            if ( streaming && pomOnly )
+            {
+                getLog().info( "pomOnly is set; collecting the POM graph without streaming." );
+            }
+
+            if ( streaming && !pomOnly )
+            {
+                for ( Artifact a : artifacts )
+                {
+                    applyArtifactFilter( a );
+                }
+
+                collectStreaming( artifacts, pluginManagedVersions );
+            }
+            else
+            {
+                MavenProject collectorProject = buildProject( artifacts );
 
-        MavenProject collectorProject = buildProject( artifacts );
+                collect( collectorProject, pluginManagedVersions );
+            }
 
-        collect( collectorProject, pluginManagedVersions );
+            succeeded = true;
+        }
+        finally
+        {
+            try
+            {
+                finishPrefetch( succeeded );
+            }
+            finally
+            {
+                try
+                {
+                    closeArtifactFetcher();
+                }
+                finally
+                {
+                    closeModelCache();
+                }
+            }
+        }
     }
 
-    @SuppressWarnings( "unchecked" )
-    protected void invalidateProjectBuilderCache()
+    /**
+     * Record a file (and, for non-POM artifacts, its POM) as used by this run, for the next run's prefetch.
+     */
+    protected void recordResolved( final Artifact a )
+    {
+        if ( !prefetch || Artifact.SCOPE_SYSTEM.equals( a.getScope() ) || a.getVersion() == null )
+        {
+            return;
+        }
+
+        resolvedCoordinates.add( RepositoryMetadataGenerator.coordinate( a ) );
+        if ( !"pom".equals( a.getType() ) )
+        {
+            resolvedCoordinates.add( a.getGroupId() + ":" + a.getArtifactId() + ":pom::" + a.getVersion() );
+        }
+    }
+
+    /**
+     * The coordinates recorded so far for the next run's prefetch.
+     */
+    Set<String> getResolvedCoordinates()
+    {
+        return resolvedCoordinates;
+    }
+
+    private File getRunManifest()
+        throws MojoExecutionException
+    {
+        return new File( getRepositoryDirectory(),
+                         SpeculativePrefetcher.getFileName( project.getGroupId(), project.getArtifactId() ) );
+    }
+
+    private void startPrefetch()
         throws MojoExecutionException
     {
-        Class klass = DefaultMavenProjectBuilder.class;
+        if ( !prefetch || getArtifactFetcher() == null )
+        {
+            return;
+        }
 
+        File manifest = getRunManifest();
+        if ( !manifest.isFile() )
+        {
+            return;
+        }
+
+        Set<String> coordinates;
         try
         {
-            Field field;
+            coordinates = SpeculativePrefetcher.read( manifest );
+        }
+        catch ( IOException e )
+        {
+            getLog().warn( "Failed to read previous run manifest: " + manifest + ": " + e.getMessage() );
+            return;
+        }
+
+        prefetcher =
+            new SpeculativePrefetcher( getArtifactFetcher(), artifactFactory, getTargetLocalRepository(),
+                                       getResolutionRepositories(), threads, getLog() );
+        prefetcher.start( coordinates );
+    }
+
+    /**
+     * Stop the prefetch and, if the goal succeeded, reconcile it with what was actually resolved and record this
+     * run's files for the next one.
+     */
+    private void finishPrefetch( final boolean succeeded )
+        throws MojoExecutionException
+    {
+        if ( prefetcher != null )
+        {
+            SpeculativePrefetcher done = prefetcher;
+            prefetcher = null;
+
+            Map<String, File> fetched;
             try
             {
-                field = klass.getDeclaredField( "processedProjectCache" );
-                field.setAccessible( true );
+                fetched = done.finish();
+            }
+            catch ( InterruptedException e )
+            {
+                throw new MojoExecutionException( "Interrupted while stopping prefetch.", e );
+            }
+
+            if ( succeeded )
+            {
+                List<String> unused = new ArrayList<String>();
+                for ( String coordinate : fetched.keySet() )
+                {
+                    if ( !resolvedCoordinates.contains( coordinate ) )
+                    {
+                        unused.add( coordinate );
+                    }
+                }
+
+                List<String> removed = Collections.emptyList();
+                if ( cleanupPrefetch )
+                {
+                    removed = done.remove( unused, getRunManifest() );
+                }
+                for ( String coordinate : unused )
+                {
+                    if ( !removed.contains( coordinate ) )
+                    {
+                        getLog().info( "Prefetched but not needed: " + coordinate );
+                    }
+                }
 
-                Object cache = field.get( mavenProjectBuilder );
-                cache.getClass().getDeclaredMethod( "clear", (Class<?>[]) null ).invoke( cache, (Object[]) null );
+                getLog().info( "Prefetch: " + fetched.size() + " files fetched ahead, "
+                                   + ( fetched.size() - unused.size() ) + " used, " + unused.size() + " not needed ("
+                                   + removed.size() + " removed)." );
+            }
+        }
 
-                field.setAccessible( false );
+        if ( succeeded && prefetch && !resolvedCoordinates.isEmpty() )
+        {
+            File manifest = getRunManifest();
+            try
+            {
+                SpeculativePrefetcher.write( manifest, resolvedCoordinates );
             }
-            catch ( NoSuchFieldException e )
+            catch ( IOException e )
             {
-                // fine... no field, no cache. we'll ignore it.
+                getLog().warn( "Failed to write run manifest: " + manifest + ": " + e.getMessage() );
+            }
+        }
+    }
+
+    /**
+     * Whether collect (not used when streaming without pomOnly) mediates all direct artifacts as one graph, rather
+     * than resolving each on its own.
+     */
+    protected boolean isMediatingWholeGraph()
+    {
+        return true;
+    }
+
+    protected abstract void collect( MavenProject project, Map<String, Map<String, Artifact>> pluginManagedVersions )
+        throws MojoExecutionException;
+
+    /**
+     * Streaming counterpart of {@link #collect(MavenProject, Map)}. Implementations should remove each artifact from
+     * the set (and its entry from pluginManagedVersions) as soon as they are done with it, so it can be reclaimed.
+     */
+    protected abstract void collectStreaming( Set<Artifact> artifacts,
+                                              Map<String, Map<String, Artifact>> pluginManagedVersions )
+        throws MojoExecutionException;
+
+    /**
+     * Root of the repository this goal collects artifacts into.
+     */
+    protected abstract File getRepositoryDirectory()
+        throws MojoExecutionException;
+
+    /**
+     * Collect the dependency graph of the given direct artifacts without downloading any of its files: only the POMs
+     * Maven reads to build the graph are fetched. Pass the result to
+     * {@link #resolveProjectAncestry(ArtifactResolver, ArtifactRepository, List, Collection)} to fetch the POMs, with
+     * their parents and BOMs.
+     * 
+     * @param separately collect each direct artifact's graph on its own, with its plugin's dependency management,
+     *            instead of mediating a single graph.
+     * @return the graph's artifacts that pass the include/exclude filter; their files are not resolved.
+     */
+    @SuppressWarnings( "unchecked" )
+    protected Set<Artifact> collectPomGraph( final Set<Artifact> artifacts,
+                                             final Map<String, Map<String, Artifact>> pluginManagedVersions,
+                                             final ArtifactMetadataSource metadataSource,
+                                             final ArtifactRepository localRepository,
+                                             final List<ArtifactRepository> remoteRepositories,
+                                             final boolean separately )
+        throws MojoExecutionException
+    {
+        Set<Artifact> graph = new LinkedHashSet<Artifact>();
+        try
+        {
+            if ( separately )
+            {
+                for ( Artifact artifact : artifacts )
+                {
+                    Map<String, Artifact> managed = pluginManagedVersions.get( artifact.getDependencyConflictId() );
+                    if ( managed == null )
+                    {
+                        managed = project.getManagedVersionMap();
+                    }
+
+                    graph.addAll( artifactCollector.collect( Collections.singleton( artifact ), project.getArtifact(),
+                                                             managed, localRepository, remoteRepositories,
+                                                             metadataSource, getArtifactFilter(),
+                                                             Collections.EMPTY_LIST ).getArtifacts() );
+                }
+            }
+            else
+            {
+                graph.addAll( artifactCollector.collect( artifacts, project.getArtifact(), Collections.EMPTY_MAP,
+                                                         localRepository, remoteRepositories, metadataSource, null,
+                                                         Collections.EMPTY_LIST ).getArtifacts() );
+            }
+        }
+        catch ( ArtifactResolutionException e )
+        {
+            throw new MojoExecutionException( "Failed to collect the dependency graph: " + e.getMessage(), e );
+        }
+
+        for ( Iterator<Artifact> it = graph.iterator(); it.hasNext(); )
+        {
+            Artifact a = it.next();
+            if ( Artifact.SCOPE_SYSTEM.equals( a.getScope() ) || isFiltered( a, "POM graph" ) )
+            {
+                it.remove();
+            }
+        }
+
+        getLog().info( "Collected a graph of " + graph.size() + " artifacts without downloading their files." );
+
+        return graph;
+    }
+
+    /**
+     * Resolve the synthetic project with the configured backend. With the concurrent backend and verifyBackend set,
+     * the given default backend then resolves the same artifacts, and the build fails if the results differ.
+     * 
+     * @param defaultBackend the goal's implementation of the 'maven' backend.
+     * @see ResolutionBackend#resolve(MavenProject, Map, ArtifactRepository, boolean)
+     */
+    @SuppressWarnings( "unchecked" )
+    protected Set<Artifact> resolveWithBackend( final ResolutionBackend defaultBackend,
+                                                final ArtifactResolver artifactResolver,
+                                                final ArtifactMetadataSource metadataSource,
+                                                final MavenProject project,
+                                                final Map<String, Map<String, Artifact>> pluginManagedVersions,
+                                                final ArtifactRepository localRepository, final boolean separately )
+        throws MojoExecutionException
+    {
+        if ( !"concurrent".equals( backend ) )
+        {
+            return defaultBackend.resolve( project, pluginManagedVersions, localRepository, separately );
+        }
+
+        ResolutionBackend concurrent =
+            new ConcurrentResolutionBackend( artifactFactory, artifactCollector, artifactResolver, metadataSource,
+                                             getArtifactFetcher(), getProject().getManagedVersionMap(),
+                                             getArtifactFilter(), threads, getLog() );
+
+        long start = System.currentTimeMillis();
+        Set<Artifact> result = concurrent.resolve( project, pluginManagedVersions, localRepository, separately );
+        long concurrentTime = System.currentTimeMillis() - start;
+
+        if ( verifyBackend )
+        {
+            start = System.currentTimeMillis();
+            Set<Artifact> expected =
+                defaultBackend.resolve( project, pluginManagedVersions, localRepository, separately );
+            long mavenTime = System.currentTimeMillis() - start;
+
+            compareBackends( expected, mavenTime, result, concurrentTime );
+        }
+
+        return result;
+    }
+
+    private void compareBackends( final Set<Artifact> mavenResult, final long mavenTime,
+                                  final Set<Artifact> concurrentResult, final long concurrentTime )
+        throws MojoExecutionException
+    {
+        Set<String> mavenIds = new TreeSet<String>();
+        for ( Artifact a : mavenResult )
+        {
+            String key = getBackendComparisonKey( a );
+            if ( key != null )
+            {
+                mavenIds.add( key );
+            }
+        }
+
+        Set<String> concurrentIds = new TreeSet<String>();
+        Set<String> missingFiles = new TreeSet<String>();
+        for ( Artifact a : concurrentResult )
+        {
+            String key = getBackendComparisonKey( a );
+            if ( key != null )
+            {
+                concurrentIds.add( key );
+            }
+            if ( a.getFile() == null || !a.getFile().isFile() )
+            {
+                missingFiles.add( a.getId() );
+            }
+        }
+
+        getLog().info( "Backend benchmark: maven resolved " + mavenIds.size() + " artifacts in " + mavenTime
+                           + " ms; concurrent resolved " + concurrentIds.size() + " artifacts in " + concurrentTime
+                           + " ms. concurrent ran first, so maven found every file already local." );
+
+        if ( mavenIds.equals( concurrentIds ) && missingFiles.isEmpty() )
+        {
+            getLog().info( "Backend check passed: both backends resolved identical artifacts." );
+            return;
+        }
+
+        StringBuilder sb = new StringBuilder( "Backend check FAILED: backends resolved different artifacts." );
+        for ( String id : mavenIds )
+        {
+            if ( !concurrentIds.contains( id ) )
+            {
+                sb.append( "\n- maven only:      " ).append( id );
+            }
+        }
+        for ( String id : concurrentIds )
+        {
+            if ( !mavenIds.contains( id ) )
+            {
+                sb.append( "\n- concurrent only: " ).append( id );
+            }
+        }
+        for ( String id : missingFiles )
+        {
+            sb.append( "\n- no file:         " ).append( id );
+        }
+
+        throw new MojoExecutionException( sb.toString() );
+    }
+
+    /**
+     * The key under which verifyBackend compares an artifact resolved by the two backends, or null to leave it out of
+     * the comparison.
+     */
+    protected String getBackendComparisonKey( final Artifact a )
+    {
+        return a.getId();
+    }
+
+    /**
+     * Fetch the project's complete parent chain, plus every import-scoped BOM along it, concurrently. Failures are
+     * reported (and fail the build if failOnMissingAncestors is set) rather than hidden.
+     * 
+     * @return the fetched POM artifacts, with their files set.
+     */
+    protected Set<Artifact> resolveProjectAncestry( final ArtifactResolver artifactResolver,
+                                                    final ArtifactRepository targetRepository,
+                                                    final List<ArtifactRepository> remoteRepositories )
+        throws MojoExecutionException
+    {
+        return resolveProjectAncestry( artifactResolver, targetRepository, remoteRepositories,
+                                       Collections.<Artifact> emptySet() );
+    }
+
+    /**
+     * As {@link #resolveProjectAncestry(ArtifactResolver, ArtifactRepository, List)}, but also fetches the POM of
+     * each of the given resolved artifacts, with its own parent chain and BOMs. This makes sure the target
+     * repository holds every POM even when Maven's project builder served them from its in-memory cache. Artifacts
+     * without a POM are legal in Maven 2 and are only reported.
+     */
+    @SuppressWarnings( "unchecked" )
+    protected Set<Artifact> resolveProjectAncestry( final ArtifactResolver artifactResolver,
+                                                    final ArtifactRepository targetRepository,
+                                                    final List<ArtifactRepository> remoteRepositories,
+                                                    final Collection<Artifact> resolvedArtifacts )
+        throws MojoExecutionException
+    {
+        List<Artifact> artifactPoms = createPoms( resolvedArtifacts );
+
+        List<Artifact> parentPoms = new ArrayList<Artifact>();
+        Artifact parent = project.getParentArtifact();
+        if ( parent != null )
+        {
+            parentPoms.add( artifactFactory.createProjectArtifact( parent.getGroupId(), parent.getArtifactId(),
+                                                                   parent.getVersion() ) );
+        }
+
+        // imports declared by the project or inherited from its parents, in the project's context.
+        List<Artifact> bomPoms = new ArrayList<Artifact>();
+        Properties props = AncestryResolver.readProperties( project.getModel() );
+        Set<String> visited = new HashSet<String>();
+        for ( MavenProject current = project; current != null && visited.add( current.getId() ); )
+        {
+            Model model = current.getOriginalModel();
+            DependencyManagement dm = model == null ? null : model.getDependencyManagement();
+            if ( dm != null && dm.getDependencies() != null )
+            {
+                for ( Dependency d : dm.getDependencies() )
+                {
+                    if ( "import".equals( d.getScope() ) && "pom".equals( d.getType() ) )
+                    {
+                        String groupId = AncestryResolver.interpolate( d.getGroupId(), props );
+                        String version = AncestryResolver.interpolate( d.getVersion(), props );
+                        if ( groupId == null || version == null )
+                        {
+                            getLog().warn( "Cannot determine coordinates of import-scoped BOM: "
+                                               + d.getManagementKey() );
+                            continue;
+                        }
+
+                        bomPoms.add( artifactFactory.createProjectArtifact( groupId, d.getArtifactId(), version ) );
+                    }
+                }
+            }
+
+            current = current.getParent();
+        }
+
+        if ( artifactPoms.isEmpty() && parentPoms.isEmpty() && bomPoms.isEmpty() )
+        {
+            return Collections.emptySet();
+        }
+
+        Set<Artifact> poms =
+            resolveAncestry( artifactResolver, targetRepository, remoteRepositories, artifactPoms, parentPoms,
+                             bomPoms );
+
+        if ( resolvedArtifacts.isEmpty() )
+        {
+            getLog().info( "Resolved " + poms.size() + " parent POMs and BOMs." );
+        }
+        else
+        {
+            getLog().info( "Resolved " + poms.size() + " POMs, including parent POMs and BOMs." );
+        }
+
+        return poms;
+    }
+
+    /**
+     * Fetch the POM of each of the given resolved artifacts, with its own parent chain and BOMs, but not the
+     * project's. Streaming calls this for each graph as soon as it is resolved, so the graph need not be kept.
+     * 
+     * @return the fetched POM artifacts, with their files set.
+     */
+    protected Set<Artifact> resolveArtifactPoms( final ArtifactResolver artifactResolver,
+                                                 final ArtifactRepository targetRepository,
+                                                 final List<ArtifactRepository> remoteRepositories,
+                                                 final Collection<Artifact> resolvedArtifacts )
+        throws MojoExecutionException
+    {
+        List<Artifact> artifactPoms = createPoms( resolvedArtifacts );
+        if ( artifactPoms.isEmpty() )
+        {
+            return Collections.emptySet();
+        }
+
+        return resolveAncestry( artifactResolver, targetRepository, remoteRepositories, artifactPoms,
+                                Collections.<Artifact> emptyList(), Collections.<Artifact> emptyList() );
+    }
+
+    private List<Artifact> createPoms( final Collection<Artifact> artifacts )
+    {
+        List<Artifact> poms = new ArrayList<Artifact>();
+        for ( Artifact a : artifacts )
+        {
+            if ( !Artifact.SCOPE_SYSTEM.equals( a.getScope() ) )
+            {
+                poms.add( artifactFactory.createProjectArtifact( a.getGroupId(), a.getArtifactId(), a.getVersion() ) );
+            }
+        }
+
+        return poms;
+    }
+
+    /**
+     * Run an {@link AncestryResolver} over the given POMs and report what it could not fetch.
+     */
+    private Set<Artifact> resolveAncestry( final ArtifactResolver artifactResolver,
+                                           final ArtifactRepository targetRepository,
+                                           final List<ArtifactRepository> remoteRepositories,
+                                           final List<Artifact> artifactPoms, final List<Artifact> parentPoms,
+                                           final List<Artifact> bomPoms )
+        throws MojoExecutionException
+    {
+        AncestryResolver resolver =
+            new AncestryResolver( artifactFactory, artifactResolver, getArtifactFetcher(), targetRepository,
+                                  remoteRepositories, threads, getLog() );
+
+        Set<Artifact> poms;
+        try
+        {
+            poms = resolver.resolve( artifactPoms, parentPoms, bomPoms );
+        }
+        catch ( InterruptedException e )
+        {
+            throw new MojoExecutionException( "Interrupted while resolving parent POMs and BOMs.", e );
+        }
+
+        for ( Artifact pom : poms )
+        {
+            recordResolved( pom );
+        }
+
+        List<String> failures = resolver.getFailures();
+        if ( !failures.isEmpty() )
+        {
+            StringBuilder sb = new StringBuilder();
+            sb.append( failures.size() ).append( " parent POM(s) / BOM(s) could not be resolved:" );
+            for ( String failure : failures )
+            {
+                sb.append( "\n- " ).append( failure );
+            }
+
+            if ( failOnMissingAncestors )
+            {
+                throw new MojoExecutionException( sb.toString() );
+            }
+
+            getLog().warn( sb.toString() );
+        }
+
+        List<String> missingPoms = resolver.getMissingPoms();
+        if ( !missingPoms.isEmpty() )
+        {
+            StringBuilder sb = new StringBuilder();
+            sb.append( missingPoms.size() ).append( " artifact(s) have no POM; Maven uses a stub POM for these:" );
+            for ( String missing : missingPoms )
+            {
+                sb.append( "\n- " ).append( missing );
+            }
+
+            getLog().info( sb.toString() );
+        }
+
+        return poms;
+    }
+
+    /**
+     * The plugin's own fetcher, or null when there are no archives and pooledTransport is off or Maven is offline.
+     */
+    protected synchronized ArtifactFetcher getArtifactFetcher()
+        throws MojoExecutionException
+    {
+        boolean remote = pooledTransport && !offline;
+        if ( artifactFetcher == null && ( remote || ( archives != null && !archives.isEmpty() ) ) )
+        {
+            List<ArchiveRepository> opened = new ArrayList<ArchiveRepository>();
+            if ( archives != null )
+            {
+                for ( File archive : archives )
+                {
+                    ArchiveRepository repository = new ArchiveRepository( archive, getLog() );
+                    try
+                    {
+                        repository.open();
+                    }
+                    catch ( IOException e )
+                    {
+                        for ( ArchiveRepository r : opened )
+                        {
+                            r.close();
+                        }
+                        throw new MojoExecutionException( "Failed to open repository archive: " + archive + ": "
+                            + e.getMessage(), e );
+                    }
+                    opened.add( repository );
+                }
+            }
+
+            NegativeCache negativeCache = null;
+            File cacheFile = new File( getTargetLocalRepository().getBasedir(), NegativeCache.FILE_NAME );
+            if ( negativeCacheTtl < 0 )
+            {
+                negativeCache = new NegativeCache( cacheFile, Long.MAX_VALUE, bypassNegativeCache );
+            }
+            else if ( negativeCacheTtl > 0 )
+            {
+                negativeCache = new NegativeCache( cacheFile, negativeCacheTtl * 60000L, bypassNegativeCache );
+                try
+                {
+                    negativeCache.load();
+                }
+                catch ( IOException e )
+                {
+                    getLog().warn( "Failed to read negative cache: " + cacheFile + ": " + e.getMessage() );
+                }
+            }
+
+            RoutingTable routes = null;
+            if ( learnRoutes || routingTable != null )
+            {
+                File learnedFile = new File( getTargetLocalRepository().getBasedir(), RoutingTable.FILE_NAME );
+                routes = new RoutingTable( learnedFile );
+                if ( routingTable != null )
+                {
+                    try
+                    {
+                        routes.loadExplicit( routingTable );
+                    }
+                    catch ( IOException e )
+                    {
+                        throw new MojoExecutionException( "Failed to read routing table: " + routingTable + ": "
+                            + e.getMessage(), e );
+                    }
+                }
+
+                if ( learnRoutes )
+                {
+                    try
+                    {
+                        routes.loadLearned();
+                    }
+                    catch ( IOException e )
+                    {
+                        getLog().warn( "Failed to read learned routes: " + routes.getLearnedFile() + ": "
+                                           + e.getMessage() );
+                    }
+                }
+            }
+
+            artifactFetcher =
+                new ArtifactFetcher( wagonManager, remote ? new PooledHttpTransport( threads, 60000, getLog() ) : null,
+                                     negativeCache, routes, opened, getLog() );
+        }
+
+        return artifactFetcher;
+    }
+
+    /**
+     * The repositories artifacts are resolved from, in order.
+     */
+    protected List<ArtifactRepository> getResolutionRepositories()
+    {
+        return getRemoteRepositories();
+    }
+
+    /**
+     * The local repository that artifacts are resolved into.
+     */
+    protected ArtifactRepository getTargetLocalRepository()
+        throws MojoExecutionException
+    {
+        return localRepository;
+    }
+
+    /**
+     * Release the pooled transport and close the archives, and report how well they were used.
+     */
+    protected synchronized void closeArtifactFetcher()
+    {
+        if ( artifactFetcher != null )
+        {
+            PooledHttpTransport transport = artifactFetcher.getTransport();
+            if ( transport != null )
+            {
+                transport.close();
+
+                if ( transport.getRequestCount() > 0 )
+                {
+                    getLog().info( "Pooled transport: " + transport.getStatistics() + "." );
+                }
+            }
+
+            for ( ArchiveRepository archive : artifactFetcher.getArchives() )
+            {
+                getLog().info( "Repository archive: " + archive.getStatistics() + "." );
+                archive.close();
+            }
+
+            NegativeCache negativeCache = artifactFetcher.getNegativeCache();
+            if ( negativeCache != null )
+            {
+                getLog().info( "Negative cache: " + negativeCache.getStatistics() + "." );
+                if ( negativeCacheTtl > 0 )
+                {
+                    try
+                    {
+                        negativeCache.store();
+                    }
+                    catch ( IOException e )
+                    {
+                        getLog().warn( "Failed to write negative cache: " + negativeCache.getFile() + ": "
+                                           + e.getMessage() );
+                    }
+                }
+            }
+
+            RoutingTable routes = artifactFetcher.getRoutingTable();
+            if ( routes != null )
+            {
+                getLog().info( "Routing: " + routes.getStatistics() + "." );
+                if ( learnRoutes )
+                {
+                    try
+                    {
+                        routes.store();
+                    }
+                    catch ( IOException e )
+                    {
+                        getLog().warn( "Failed to write learned routes: " + routes.getLearnedFile() + ": "
+                                           + e.getMessage() );
+                    }
+                }
+            }
+
+            artifactFetcher = null;
+        }
+    }
+
+    /**
+     * The project's remote repositories, with snapshotUpdateInterval/forceSnapshotUpdate applied.
+     */
+    @SuppressWarnings( "unchecked" )
+    protected synchronized List<ArtifactRepository> getRemoteRepositories()
+    {
+        if ( remoteRepositories == null )
+        {
+            remoteRepositories = applySnapshotUpdatePolicy( project.getRemoteArtifactRepositories() );
+        }
+
+        return remoteRepositories;
+    }
+
+    /**
+     * Snapshot update policy implied by snapshotUpdateInterval and forceSnapshotUpdate, or null to keep each
+     * repository's own policy.
+     */
+    protected String getSnapshotUpdatePolicy()
+    {
+        if ( forceSnapshotUpdate || snapshotUpdateInterval == 0 )
+        {
+            return ArtifactRepositoryPolicy.UPDATE_POLICY_ALWAYS;
+        }
+        else if ( snapshotUpdateInterval > 0 )
+        {
+            return ArtifactRepositoryPolicy.UPDATE_POLICY_INTERVAL + ":" + snapshotUpdateInterval;
+        }
+
+        return null;
+    }
+
+    /**
+     * Copies of the given repositories using the snapshot update policy from {@link #getSnapshotUpdatePolicy()}. The
+     * originals are left alone, since they belong to the current project.
+     */
+    private List<ArtifactRepository> applySnapshotUpdatePolicy( final List<ArtifactRepository> repositories )
+    {
+        String updatePolicy = getSnapshotUpdatePolicy();
+        if ( updatePolicy == null || repositories == null )
+        {
+            return repositories;
+        }
+
+        List<ArtifactRepository> result = new ArrayList<ArtifactRepository>( repositories.size() );
+        for ( ArtifactRepository r : repositories )
+        {
+            ArtifactRepositoryPolicy snapshots = r.getSnapshots();
+            if ( snapshots == null || !snapshots.isEnabled() )
+            {
+                result.add( r );
+                continue;
+            }
+
+            ArtifactRepositoryPolicy policy =
+                new ArtifactRepositoryPolicy( true, updatePolicy, snapshots.getChecksumPolicy() );
+
+            result.add( new DefaultArtifactRepository( r.getId(), r.getUrl(), r.getLayout(), policy,
+                                                       r.getReleases() ) );
+        }
+
+        getLog().debug( "Checking SNAPSHOT metadata using update policy: " + updatePolicy );
+
+        return result;
+    }
+
+    /**
+     * Run the given tasks on a pool of 'threads' threads, failing fast on the first task that fails.
+     * 
+     * @param description what the tasks do, for error messages (e.g. "replay lockfile").
+     */
+    protected void runConcurrently( final List<Callable<Object>> tasks, final String description )
+        throws MojoExecutionException
+    {
+        ExecutorService executor = Executors.newFixedThreadPool( Math.max( 1, threads ) );
+        try
+        {
+            CompletionService<Object> completion = new ExecutorCompletionService<Object>( executor );
+            for ( Callable<Object> task : tasks )
+            {
+                completion.submit( task );
+            }
+
+            for ( int i = 0; i < tasks.size(); i++ )
+            {
+                try
+                {
+                    completion.take().get();
+                }
+                catch ( ExecutionException e )
+                {
+                    Throwable cause = e.getCause();
+                    if ( cause instanceof MojoExecutionException )
+                    {
+                        throw (MojoExecutionException) cause;
+                    }
+
+                    throw new MojoExecutionException( "Failed to " + description + ": " + cause.getMessage(), cause );
+                }
+                catch ( InterruptedException e )
+                {
+                    throw new MojoExecutionException( "Interrupted while trying to " + description + ".", e );
+                }
             }
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
 
-            try
-            {
-                field = klass.getDeclaredField( "rawProjectCache" );
-                field.setAccessible( true );
+    private Set<Artifact> selectShard( final Set<Artifact> artifacts )
+        throws MojoExecutionException
+    {
+        if ( shardIndex < 0 || shardIndex >= shardCount )
+        {
+            throw new MojoExecutionException( "Invalid shardIndex: " + shardIndex + " (shardCount is: " + shardCount
+                + ")" );
+        }
 
-                Object cache = field.get( mavenProjectBuilder );
-                cache.getClass().getDeclaredMethod( "clear", (Class<?>[]) null ).invoke( cache, (Object[]) null );
+        ShardManifest manifest =
+            ShardManifest.create( project.getGroupId(), project.getArtifactId(), shardIndex, shardCount, artifacts );
 
-                field.setAccessible( false );
-            }
-            catch ( NoSuchFieldException e )
+        Set<Artifact> selected = new LinkedHashSet<Artifact>();
+        for ( Artifact a : artifacts )
+        {
+            if ( manifest.isAssigned( a ) )
             {
-                // fine... no field, no cache. we'll ignore it.
+                selected.add( a );
             }
         }
-        catch ( IllegalArgumentException e )
+
+        File repositoryDirectory = getRepositoryDirectory();
+        try
         {
-            throw new MojoExecutionException( "Failed to invalidate project-builder cache: " + e.getMessage(), e );
+            manifest.write( repositoryDirectory );
         }
-        catch ( IllegalAccessException e )
+        catch ( IOException e )
         {
-            throw new MojoExecutionException( "Failed to invalidate project-builder cache: " + e.getMessage(), e );
+            throw new MojoExecutionException( "Failed to write shard manifest to: " + repositoryDirectory + ": "
+                + e.getMessage(), e );
         }
-        catch ( SecurityException e )
+
+        getLog().info( "Shard " + shardIndex + " of " + shardCount + ": collecting " + selected.size() + " of "
+                           + artifacts.size() + " direct artifacts." );
+
+        return selected;
+    }
+
+    /**
+     * Filter built from the includes/excludes patterns, or null if none were configured.
+     */
+    protected ArtifactFilter getArtifactFilter()
+    {
+        return artifactFilter == null || artifactFilter.isEmpty() ? null : artifactFilter;
+    }
+
+    /**
+     * Attach the include/exclude filter to the artifact's dependency filter, so transitive traversal prunes
+     * excluded subtrees before their POMs or files are ever retrieved.
+     */
+    private void applyArtifactFilter( final Artifact a )
+    {
+        ArtifactFilter filter = getArtifactFilter();
+        if ( filter == null )
         {
-            throw new MojoExecutionException( "Failed to invalidate project-builder cache: " + e.getMessage(), e );
+            return;
         }
-        catch ( InvocationTargetException e )
+
+        if ( a.getDependencyFilter() == null )
         {
-            throw new MojoExecutionException( "Failed to invalidate project-builder cache: " + e.getMessage(), e );
+            a.setDependencyFilter( filter );
         }
-        catch ( NoSuchMethodException e )
+        else
         {
-            throw new MojoExecutionException( "Failed to invalidate project-builder cache: " + e.getMessage(), e );
+            AndArtifactFilter and = new AndArtifactFilter();
+            and.add( a.getDependencyFilter() );
+            and.add( filter );
+            a.setDependencyFilter( and );
         }
     }
 
-    protected abstract void collect( MavenProject project, Map<String, Map<String, Artifact>> pluginManagedVersions )
-        throws MojoExecutionException;
+    private boolean isFiltered( final Artifact a, final String location )
+    {
+        ArtifactFilter filter = getArtifactFilter();
+        if ( filter != null && !filter.include( a ) )
+        {
+            getLog().debug( "Excluding: " + a.getId() + " from " + location );
+            return true;
+        }
+
+        return false;
+    }
 
     private MavenProject buildProject( final Set<Artifact> artifacts )
     {
@@ -205,6 +1337,8 @@ public abstract class AbstractCollectorMojo
         List<Dependency> deps = new ArrayList<Dependency>( artifacts.size() );
         for ( Artifact a : artifacts )
         {
+            applyArtifactFilter( a );
+
             Dependency d = new Dependency();
 
             d.setArtifactId( a.getArtifactId() );
@@ -228,7 +1362,7 @@ public abstract class AbstractCollectorMojo
 
         tmpProject.setDependencyArtifacts( artifacts );
 
-        tmpProject.setRemoteArtifactRepositories( project.getRemoteArtifactRepositories() );
+        tmpProject.setRemoteArtifactRepositories( new ArrayList<ArtifactRepository>( getRemoteRepositories() ) );
         tmpProject.setArtifact( project.getArtifact() );
 
         return tmpProject;
@@ -275,7 +1409,10 @@ public abstract class AbstractCollectorMojo
 
                         Artifact a =
                             artifactFactory.createExtensionArtifact( ext.getGroupId(), ext.getArtifactId(), vr );
-                        artifacts.add( a );
+                        if ( !isFiltered( a, "build extensions" ) )
+                        {
+                            artifacts.add( a );
+                        }
                     }
                 }
             }
@@ -319,7 +1456,10 @@ public abstract class AbstractCollectorMojo
                         }
 
                         Artifact a = artifactFactory.createPluginArtifact( p.getGroupId(), p.getArtifactId(), vr );
-                        artifacts.add( a );
+                        if ( !isFiltered( a, "report plugins" ) )
+                        {
+                            artifacts.add( a );
+                        }
                     }
                 }
             }
@@ -341,18 +1481,25 @@ public abstract class AbstractCollectorMojo
     {
         if ( includeDependencies )
         {
+            Set<Artifact> dependencyArtifacts;
             try
             {
-                artifacts.addAll( project.createArtifacts( artifactFactory, Artifact.SCOPE_TEST, null ) );
+                dependencyArtifacts = project.createArtifacts( artifactFactory, Artifact.SCOPE_TEST, null );
             }
             catch ( InvalidDependencyVersionException e )
             {
                 throw new MojoExecutionException( "While creating project dependency artifacts: " + e.getMessage(), e );
             }
 
-            for ( Artifact a : artifacts )
+            for ( Artifact a : dependencyArtifacts )
             {
                 ids.add( a.getDependencyConflictId() );
+                if ( isFiltered( a, "dependencies" ) )
+                {
+                    continue;
+                }
+
+                artifacts.add( a );
                 if ( !Artifact.SCOPE_SYSTEM.equals( a.getScope() ) )
                 {
                     a.setFile( null );
@@ -387,11 +1534,6 @@ public abstract class AbstractCollectorMojo
             String id = getManagementKey( p );
             if ( !collectedIds.contains( id ) && !myArtifact.getDependencyConflictId().equals( id ) )
             {
-                if ( p.getDependencies() != null )
-                {
-                    addDependencies( artifacts, collectedIds, p.getDependencies(), depLocation );
-                }
-
                 collectedIds.add( id );
 
                 VersionRange vr;
@@ -406,17 +1548,55 @@ public abstract class AbstractCollectorMojo
                 }
 
                 Artifact a = artifactFactory.createPluginArtifact( p.getGroupId(), p.getArtifactId(), vr );
+                if ( isFiltered( a, location ) )
+                {
+                    continue;
+                }
+
+                if ( p.getDependencies() != null )
+                {
+                    addDependencies( artifacts, collectedIds, p.getDependencies(), depLocation );
+                }
+
                 artifacts.add( a );
 
+                String coordinate = null;
+                if ( cacheModels && a.getVersion() != null && !a.isSnapshot() )
+                {
+                    coordinate = a.getGroupId() + ":" + a.getArtifactId() + ":" + a.getVersion();
+                    List<Dependency> managed = getModelCache().getManagedDependencies( coordinate );
+                    if ( managed != null )
+                    {
+                        pluginManagedVersions.put( id, createManagedVersionMap( id, managed ) );
+                        continue;
+                    }
+                }
+
+                List<ArtifactRepository> repositories = getRemoteRepositories();
+                ArtifactFetcher fetcher = getArtifactFetcher();
+                if ( fetcher != null && a.getVersion() != null )
+                {
+                    Artifact pom =
+                        artifactFactory.createProjectArtifact( a.getGroupId(), a.getArtifactId(), a.getVersion() );
+                    repositories = fetcher.fetch( pom, repositories, localRepository );
+                }
+
                 try
                 {
                     MavenProject pluginProject =
-                        mavenProjectBuilder.buildFromRepository( a, project.getRemoteArtifactRepositories(),
-                                                                 localRepository );
+                        mavenProjectBuilder.buildFromRepository( a, repositories, localRepository );
 
-                    if ( pluginProject != null )
+                    if ( pluginProject != null && pluginProject.getManagedVersionMap() != null )
                     {
-                        pluginManagedVersions.put( id, pluginProject.getManagedVersionMap() );
+                        // the plugin project may be cached and shared with other builds; keep a private copy.
+                        Map<String, Artifact> managed =
+                            new HashMap<String, Artifact>( pluginProject.getManagedVersionMap() );
+                        pluginManagedVersions.put( id, managed );
+
+                        if ( coordinate != null )
+                        {
+                            cachePluginModel( coordinate, pluginProject );
+                        }
                     }
                 }
                 catch ( ProjectBuildingException e )
@@ -428,6 +1608,142 @@ public abstract class AbstractCollectorMojo
         }
     }
 
+    private synchronized ModelCache getModelCache()
+    {
+        if ( modelCache == null )
+        {
+            modelCache = new ModelCache( new File( localRepository.getBasedir() ) );
+            try
+            {
+                modelCache.load();
+            }
+            catch ( IOException e )
+            {
+                getLog().warn( "Failed to read model cache: " + modelCache.getFile() + ": " + e.getMessage() );
+            }
+        }
+
+        return modelCache;
+    }
+
+    private synchronized void closeModelCache()
+    {
+        if ( modelCache != null )
+        {
+            getLog().info( "Model cache: " + modelCache.getStatistics() + "." );
+            try
+            {
+                modelCache.store();
+            }
+            catch ( IOException e )
+            {
+                getLog().warn( "Failed to write model cache: " + modelCache.getFile() + ": " + e.getMessage() );
+            }
+
+            modelCache = null;
+        }
+    }
+
+    /**
+     * Record the plugin project's dependency management, keyed on its POM and all of its parent POMs. Projects with
+     * SNAPSHOT parents are not cached, nor are projects whose POMs import BOMs or declare profiles, since their
+     * dependency management also depends on the imported POMs and on the profile activation inputs.
+     */
+    @SuppressWarnings( "unchecked" )
+    private void cachePluginModel( final String coordinate, final MavenProject pluginProject )
+    {
+        List<String> paths = new ArrayList<String>();
+        for ( MavenProject p = pluginProject; p != null; p = p.getParent() )
+        {
+            Artifact pom = artifactFactory.createProjectArtifact( p.getGroupId(), p.getArtifactId(), p.getVersion() );
+            if ( pom.isSnapshot() || hasExternalModelInputs( p.getOriginalModel() ) )
+            {
+                getLog().debug( "Not caching the model of: " + coordinate + " (" + pom.getId()
+                                    + " is a SNAPSHOT, imports BOMs or declares profiles)." );
+                return;
+            }
+            paths.add( localRepository.pathOf( pom ) );
+        }
+
+        DependencyManagement dm = pluginProject.getDependencyManagement();
+        List<Dependency> managed = dm == null ? null : dm.getDependencies();
+        getModelCache().put( coordinate, paths, managed == null ? Collections.<Dependency> emptyList() : managed );
+    }
+
+    @SuppressWarnings( "unchecked" )
+    private static boolean hasExternalModelInputs( final Model model )
+    {
+        if ( model == null )
+        {
+            return true;
+        }
+
+        if ( model.getProfiles() != null && !model.getProfiles().isEmpty() )
+        {
+            return true;
+        }
+
+        DependencyManagement dm = model.getDependencyManagement();
+        if ( dm != null && dm.getDependencies() != null )
+        {
+            for ( Dependency d : dm.getDependencies() )
+            {
+                if ( "import".equals( d.getScope() ) )
+                {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Rebuild a managed-version map the way Maven builds it from a project's dependency management.
+     */
+    @SuppressWarnings( "unchecked" )
+    private Map<String, Artifact> createManagedVersionMap( final String id, final List<Dependency> managed )
+        throws MojoExecutionException
+    {
+        Map<String, Artifact> map = new HashMap<String, Artifact>();
+        for ( Dependency d : managed )
+        {
+            VersionRange vr;
+            try
+            {
+                vr = VersionRange.createFromVersionSpec( d.getVersion() );
+            }
+            catch ( InvalidVersionSpecificationException e )
+            {
+                throw new MojoExecutionException( "Invalid version in cached dependency management of plugin: " + id
+                    + ": " + e.getMessage(), e );
+            }
+
+            Artifact a =
+                artifactFactory.createDependencyArtifact( d.getGroupId(), d.getArtifactId(), vr, d.getType(),
+                                                          d.getClassifier(), d.getScope(), d.isOptional() );
+
+            if ( Artifact.SCOPE_SYSTEM.equals( d.getScope() ) && d.getSystemPath() != null )
+            {
+                a.setFile( new File( d.getSystemPath() ) );
+            }
+
+            if ( d.getExclusions() != null && !d.getExclusions().isEmpty() )
+            {
+                List<String> exclusions = new ArrayList<String>();
+                for ( Exclusion e : d.getExclusions() )
+                {
+                    exclusions.add( e.getGroupId() + ":" + e.getArtifactId() );
+                }
+                a.setDependencyFilter( new ExcludesArtifactFilter( exclusions ) );
+            }
+
+            map.put( d.getManagementKey(), a );
+        }
+
+        return map;
+    }
+
     protected String getManagementKey( final Plugin p )
     {
         return p.getGroupId() + ":" + p.getArtifactId() + ":maven-plugin";
@@ -469,6 +1785,11 @@ public abstract class AbstractCollectorMojo
                     artifactFactory.createDependencyArtifact( d.getGroupId(), d.getArtifactId(), vr, d.getType(),
                                                               d.getClassifier(), d.getScope() );
 
+                if ( isFiltered( a, location ) )
+                {
+                    continue;
+                }
+
                 if ( Artifact.SCOPE_SYSTEM.equals( d.getScope() ) )
                 {
                     a.setFile( new File( d.getSystemPath() ) );
@@ -559,6 +1880,181 @@ public abstract class AbstractCollectorMojo
         this.includePluginManagement = includePluginManagement;
     }
 
+    public List<String> getIncludes()
+    {
+        return includes;
+    }
+
+    public void setIncludes( final List<String> includes )
+    {
+        this.includes = includes;
+    }
+
+    public List<String> getExcludes()
+    {
+        return excludes;
+    }
+
+    public void setExcludes( final List<String> excludes )
+    {
+        this.excludes = excludes;
+    }
+
+    public int getShardIndex()
+    {
+        return shardIndex;
+    }
+
+    public void setShardIndex( final int shardIndex )
+    {
+        this.shardIndex = shardIndex;
+    }
+
+    public int getShardCount()
+    {
+        return shardCount;
+    }
+
+    public void setShardCount( final int shardCount )
+    {
+        this.shardCount = shardCount;
+    }
+
+    public boolean isPomOnly()
+    {
+        return pomOnly;
+    }
+
+    public void setPomOnly( final boolean pomOnly )
+    {
+        this.pomOnly = pomOnly;
+    }
+
+    public String getBackend()
+    {
+        return backend;
+    }
+
+    public void setBackend( final String backend )
+    {
+        this.backend = backend;
+    }
+
+    public boolean isVerifyBackend()
+    {
+        return verifyBackend;
+    }
+
+    public void setVerifyBackend( final boolean verifyBackend )
+    {
+        this.verifyBackend = verifyBackend;
+    }
+
+    public boolean isStreaming()
+    {
+        return streaming;
+    }
+
+    public void setStreaming( final boolean streaming )
+    {
+        this.streaming = streaming;
+    }
+
+    public int getSnapshotUpdateInterval()
+    {
+        return snapshotUpdateInterval;
+    }
+
+    public void setSnapshotUpdateInterval( final int snapshotUpdateInterval )
+    {
+        this.snapshotUpdateInterval = snapshotUpdateInterval;
+    }
+
+    public boolean isForceSnapshotUpdate()
+    {
+        return forceSnapshotUpdate;
+    }
+
+    public void setForceSnapshotUpdate( final boolean forceSnapshotUpdate )
+    {
+        this.forceSnapshotUpdate = forceSnapshotUpdate;
+    }
+
+    public boolean isPooledTransport()
+    {
+        return pooledTransport;
+    }
+
+    public void setPooledTransport( final boolean pooledTransport )
+    {
+        this.pooledTransport = pooledTransport;
+    }
+
+    public File getRoutingTable()
+    {
+        return routingTable;
+    }
+
+    public void setRoutingTable( final File routingTable )
+    {
+        this.routingTable = routingTable;
+    }
+
+    public boolean isPrefetch()
+    {
+        return prefetch;
+    }
+
+    public void setPrefetch( final boolean prefetch )
+    {
+        this.prefetch = prefetch;
+    }
+
+    public List<File> getArchives()
+    {
+        return archives;
+    }
+
+    public void setArchives( final List<File> archives )
+    {
+        this.archives = archives;
+    }
+
+    public boolean isOffline()
+    {
+        return offline;
+    }
+
+    public boolean isCacheModels()
+    {
+        return cacheModels;
+    }
+
+    public void setCacheModels( final boolean cacheModels )
+    {
+        this.cacheModels = cacheModels;
+    }
+
+    public int getThreads()
+    {
+        return threads;
+    }
+
+    public void setThreads( final int threads )
+    {
+        this.threads = threads;
+    }
+
+    public boolean isFailOnMissingAncestors()
+    {
+        return failOnMissingAncestors;
+    }
+
+    public void setFailOnMissingAncestors( final boolean failOnMissingAncestors )
+    {
+        this.failOnMissingAncestors = failOnMissingAncestors;
+    }
+
     public ArtifactFactory getArtifactFactory()
     {
         return artifactFactory;
@@ -569,6 +2065,11 @@ public abstract class AbstractCollectorMojo
         this.artifactFactory = artifactFactory;
     }
 
+    public void setArtifactCollector( final ArtifactCollector artifactCollector )
+    {
+        this.artifactCollector = artifactCollector;
+    }
+
     public Artifact getMyArtifact()
     {
         return myArtifact;
@@ -0,0 +1,518 @@
+/*
+ * Copyright (C) 2009 Sonatype, Inc.                                                                                                                          
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ */
+package org.apache.maven.plugin.repository.collector;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.factory.ArtifactFactory;
+import org.apache.maven.artifact.repository.ArtifactRepository;
+import org.apache.maven.artifact.resolver.ArtifactNotFoundException;
+import org.apache.maven.artifact.resolver.ArtifactResolutionException;
+import org.apache.maven.artifact.resolver.ArtifactResolver;
+import org.apache.maven.model.Dependency;
+import org.apache.maven.model.Model;
+import org.apache.maven.model.Parent;
+import org.apache.maven.model.io.xpp3.MavenXpp3Reader;
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.util.IOUtil;
+import org.codehaus.plexus.util.ReaderFactory;
+import org.codehaus.plexus.util.xml.pull.XmlPullParserException;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Discovers and fetches the complete ancestry of a set of POMs: every parent up the chain, plus every import-scoped
+ * BOM declared along it (and, in turn, their ancestry). POMs are fetched concurrently; each is read only once, from
+ * its raw (uninterpolated) model, so no project building is involved. As in Maven, imports are interpolated in the
+ * context of each POM that is built (artifact POMs and BOMs), including those inherited from its parents, so a child
+ * overriding the property behind an inherited BOM version gets its own BOM; parents are only read as parents.
+ * <br/>
+ * Failures are collected rather than thrown, so one missing POM does not hide the others. Artifact POMs that do not
+ * exist are legal in Maven 2 (it uses a stub instead) and are reported separately from missing ancestors.
+ */
+public class AncestryResolver
+{
+
+    private static final Pattern EXPRESSION = Pattern.compile( "\\$\\{([^}]+)\\}" );
+
+    private final ArtifactFactory artifactFactory;
+
+    private final ArtifactResolver artifactResolver;
+
+    private final ArtifactFetcher fetcher;
+
+    private final ArtifactRepository localRepository;
+
+    private final List<ArtifactRepository> remoteRepositories;
+
+    private final int threads;
+
+    private final Log log;
+
+    private final Map<String, PomInfo> poms = new ConcurrentHashMap<String, PomInfo>();
+
+    private final List<String> failures = Collections.synchronizedList( new ArrayList<String>() );
+
+    private final Set<String> ancestorKeys = Collections.synchronizedSet( new HashSet<String>() );
+
+    private final Set<String> builtKeys = Collections.synchronizedSet( new HashSet<String>() );
+
+    private final Map<String, String> notFound = new ConcurrentHashMap<String, String>();
+
+    private final List<String> missingPoms = new ArrayList<String>();
+
+    /**
+     * @param fetcher fetches POMs ahead of the artifact resolver; may be null.
+     */
+    public AncestryResolver( final ArtifactFactory artifactFactory, final ArtifactResolver artifactResolver,
+                             final ArtifactFetcher fetcher, final ArtifactRepository localRepository,
+                             final List<ArtifactRepository> remoteRepositories, final int threads, final Log log )
+    {
+        this.artifactFactory = artifactFactory;
+        this.artifactResolver = artifactResolver;
+        this.fetcher = fetcher;
+        this.localRepository = localRepository;
+        this.remoteRepositories = remoteRepositories;
+        this.threads = Math.max( 1, threads );
+        this.log = log;
+    }
+
+    /**
+     * Fetch the given POMs and their complete ancestry into the local repository.
+     *
+     * @param artifactPoms POMs of resolved artifacts, which may legally be missing.
+     * @param parentPoms parent POMs, which must exist.
+     * @param bomPoms import-scoped BOMs, which must exist.
+     * @return every POM that was fetched, including the starting ones.
+     */
+    public Set<Artifact> resolve( final Collection<Artifact> artifactPoms, final Collection<Artifact> parentPoms,
+                                  final Collection<Artifact> bomPoms )
+        throws InterruptedException
+    {
+        for ( Artifact pom : artifactPoms )
+        {
+            builtKeys.add( getKey( pom ) );
+        }
+        for ( Artifact pom : parentPoms )
+        {
+            ancestorKeys.add( getKey( pom ) );
+        }
+        for ( Artifact pom : bomPoms )
+        {
+            ancestorKeys.add( getKey( pom ) );
+            builtKeys.add( getKey( pom ) );
+        }
+
+        List<Artifact> startingPoms = new ArrayList<Artifact>( parentPoms );
+        startingPoms.addAll( bomPoms );
+        startingPoms.addAll( artifactPoms );
+
+        ExecutorService executor = Executors.newFixedThreadPool( threads );
+        try
+        {
+            CompletionService<PomInfo> completion = new ExecutorCompletionService<PomInfo>( executor );
+            Set<String> submitted = new HashSet<String>();
+            List<Artifact> queue = new ArrayList<Artifact>( startingPoms );
+            int pending = 0;
+
+            while ( true )
+            {
+                for ( final Artifact pom : queue )
+                {
+                    if ( submitted.add( getKey( pom ) ) )
+                    {
+                        completion.submit( new Callable<PomInfo>()
+                        {
+                            public PomInfo call()
+                            {
+                                return fetch( pom );
+                            }
+                        } );
+                        pending++;
+                    }
+                }
+                queue.clear();
+
+                if ( pending < 1 )
+                {
+                    // every reachable POM is known; resolve the imports of each in its own context.
+                    queue.addAll( resolveImports() );
+                    if ( queue.isEmpty() )
+                    {
+                        break;
+                    }
+
+                    continue;
+                }
+
+                try
+                {
+                    PomInfo info = completion.take().get();
+                    if ( info != null )
+                    {
+                        queue.addAll( info.discovered );
+                    }
+                }
+                catch ( ExecutionException e )
+                {
+                    failures.add( "Failed to fetch POM: " + e.getCause() );
+                }
+                pending--;
+            }
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+
+        for ( Map.Entry<String, String> entry : notFound.entrySet() )
+        {
+            if ( ancestorKeys.contains( entry.getKey() ) )
+            {
+                failures.add( "POM not found: " + entry.getKey() + ": " + entry.getValue() );
+            }
+            else
+            {
+                missingPoms.add( entry.getKey() );
+            }
+        }
+
+        Set<Artifact> result = new LinkedHashSet<Artifact>();
+        for ( PomInfo info : poms.values() )
+        {
+            result.add( info.pom );
+        }
+
+        return result;
+    }
+
+    /**
+     * Missing or unreadable parent POMs and BOMs, and BOMs whose version cannot be determined.
+     */
+    public List<String> getFailures()
+    {
+        return failures;
+    }
+
+    /**
+     * Keys (groupId:artifactId:version) of artifact POMs that do not exist in any repository, and are not an
+     * ancestor of another POM.
+     */
+    public List<String> getMissingPoms()
+    {
+        return missingPoms;
+    }
+
+    public static String getKey( final Artifact pom )
+    {
+        return pom.getGroupId() + ":" + pom.getArtifactId() + ":" + pom.getVersion();
+    }
+
+    private PomInfo fetch( final Artifact pom )
+    {
+        String key = getKey( pom );
+        try
+        {
+            log.debug( "Fetching POM: " + key );
+            List<ArtifactRepository> repositories = remoteRepositories;
+            if ( fetcher != null )
+            {
+                repositories = fetcher.fetch( pom, remoteRepositories, localRepository );
+            }
+            artifactResolver.resolve( pom, repositories, localRepository );
+
+            Model model = readModel( pom );
+
+            PomInfo info = new PomInfo( pom, model );
+            Parent parent = model.getParent();
+            if ( parent != null )
+            {
+                info.parentKey = parent.getGroupId() + ":" + parent.getArtifactId() + ":" + parent.getVersion();
+                ancestorKeys.add( info.parentKey );
+                info.discovered.add( artifactFactory.createProjectArtifact( parent.getGroupId(),
+                                                                            parent.getArtifactId(),
+                                                                            parent.getVersion() ) );
+            }
+
+            if ( model.getDependencyManagement() != null )
+            {
+                for ( Object o : model.getDependencyManagement().getDependencies() )
+                {
+                    Dependency d = (Dependency) o;
+                    if ( "import".equals( d.getScope() ) && "pom".equals( d.getType() ) )
+                    {
+                        info.imports.add( d );
+
+                        // fetch early when the POM's own properties suffice; see resolveImports().
+                        Artifact bom = null;
+                        if ( builtKeys.contains( key ) )
+                        {
+                            bom = createImportArtifact( d, info.getProperties() );
+                        }
+                        if ( bom != null )
+                        {
+                            addBom( bom );
+                            info.discovered.add( bom );
+                        }
+                    }
+                }
+            }
+
+            poms.put( key, info );
+            return info;
+        }
+        catch ( ArtifactResolutionException e )
+        {
+            failures.add( "Failed to resolve POM: " + key + ": " + e.getMessage() );
+        }
+        catch ( ArtifactNotFoundException e )
+        {
+            // whether this is a failure depends on whether the POM is an ancestor; see resolve().
+            notFound.put( key, e.getMessage() );
+        }
+        catch ( IOException e )
+        {
+            failures.add( "Failed to read POM: " + key + ": " + e.getMessage() );
+        }
+        catch ( XmlPullParserException e )
+        {
+            failures.add( "Failed to parse POM: " + key + ": " + e.getMessage() );
+        }
+
+        return null;
+    }
+
+    private Model readModel( final Artifact pom )
+        throws IOException, XmlPullParserException
+    {
+        Reader reader = null;
+        try
+        {
+            reader = ReaderFactory.newXmlReader( pom.getFile() );
+            return new MavenXpp3Reader().read( reader, false );
+        }
+        finally
+        {
+            IOUtil.close( reader );
+        }
+    }
+
+    /**
+     * Interpolate the imports each newly known built POM declares or inherits in the POM's own context.
+     *
+     * @return the BOMs found.
+     */
+    private List<Artifact> resolveImports()
+    {
+        List<Artifact> resolved = new ArrayList<Artifact>();
+        for ( PomInfo info : poms.values() )
+        {
+            if ( info.importsResolved || !builtKeys.contains( getKey( info.pom ) ) )
+            {
+                continue;
+            }
+            info.importsResolved = true;
+
+            List<PomInfo> chain = getChain( info );
+            Properties props = new Properties();
+            for ( int i = chain.size() - 1; i >= 0; i-- )
+            {
+                props.putAll( chain.get( i ).getProperties() );
+            }
+
+            for ( PomInfo declaring : chain )
+            {
+                for ( Dependency d : declaring.imports )
+                {
+                    Artifact bom = createImportArtifact( d, props );
+                    if ( bom == null )
+                    {
+                        String failure =
+                            "Cannot determine version of import-scoped BOM: " + d.getGroupId() + ":"
+                                + d.getArtifactId() + ":" + d.getVersion() + " declared in: "
+                                + getKey( declaring.pom )
+                                + ( declaring == info ? "" : " (inherited by: " + getKey( info.pom ) + ")" );
+                        if ( !failures.contains( failure ) )
+                        {
+                            failures.add( failure );
+                        }
+                    }
+                    else
+                    {
+                        addBom( bom );
+                        resolved.add( bom );
+                    }
+                }
+            }
+        }
+
+        return resolved;
+    }
+
+    private void addBom( final Artifact bom )
+    {
+        ancestorKeys.add( getKey( bom ) );
+        builtKeys.add( getKey( bom ) );
+    }
+
+    /**
+     * The POM followed by its known ancestors, nearest first.
+     */
+    private List<PomInfo> getChain( final PomInfo info )
+    {
+        List<PomInfo> chain = new ArrayList<PomInfo>();
+        Set<String> visited = new HashSet<String>();
+        for ( PomInfo current = info; current != null && visited.add( getKey( current.pom ) ); )
+        {
+            chain.add( current );
+            current = current.parentKey == null ? null : poms.get( current.parentKey );
+        }
+
+        return chain;
+    }
+
+    private Artifact createImportArtifact( final Dependency d, final Properties props )
+    {
+        String groupId = interpolate( d.getGroupId(), props );
+        String version = interpolate( d.getVersion(), props );
+        if ( groupId == null || version == null )
+        {
+            return null;
+        }
+
+        return artifactFactory.createProjectArtifact( groupId, d.getArtifactId(), version );
+    }
+
+    /**
+     * Replace the ${...} expressions in the value from the given properties, following nested references.
+     *
+     * @return the interpolated value, or null when an expression cannot be resolved.
+     */
+    static String interpolate( final String value, final Properties props )
+    {
+        if ( value == null )
+        {
+            return null;
+        }
+
+        String result = value;
+        for ( int depth = 0; depth < 10 && result.indexOf( "${" ) > -1; depth++ )
+        {
+            Matcher matcher = EXPRESSION.matcher( result );
+            StringBuffer sb = new StringBuffer();
+            while ( matcher.find() )
+            {
+                String replacement = props.getProperty( matcher.group( 1 ) );
+                matcher.appendReplacement( sb, Matcher.quoteReplacement( replacement == null ? matcher.group( 0 )
+                                : replacement ) );
+            }
+            matcher.appendTail( sb );
+
+            if ( sb.toString().equals( result ) )
+            {
+                break;
+            }
+            result = sb.toString();
+        }
+
+        return result.indexOf( "${" ) > -1 ? null : result;
+    }
+
+    /**
+     * The properties a POM's own expressions can refer to: its properties, plus its (or its parent's) groupId and
+     * version under the 'project.', 'pom.' and bare prefixes, and its parent's groupId and version.
+     */
+    static Properties readProperties( final Model model )
+    {
+        Properties props = new Properties();
+        if ( model.getProperties() != null )
+        {
+            props.putAll( model.getProperties() );
+        }
+
+        String groupId = model.getGroupId();
+        String version = model.getVersion();
+        if ( model.getParent() != null )
+        {
+            groupId = groupId == null ? model.getParent().getGroupId() : groupId;
+            version = version == null ? model.getParent().getVersion() : version;
+            props.setProperty( "project.parent.version", model.getParent().getVersion() );
+            props.setProperty( "project.parent.groupId", model.getParent().getGroupId() );
+        }
+
+        for ( String prefix : new String[] { "project.", "pom.", "" } )
+        {
+            if ( groupId != null )
+            {
+                props.setProperty( prefix + "groupId", groupId );
+            }
+            if ( version != null )
+            {
+                props.setProperty( prefix + "version", version );
+            }
+        }
+
+        return props;
+    }
+
+    private static final class PomInfo
+    {
+        private final Artifact pom;
+
+        private final Properties properties;
+
+        private String parentKey;
+
+        private final List<Artifact> discovered = new ArrayList<Artifact>();
+
+        private final List<Dependency> imports = new ArrayList<Dependency>();
+
+        private boolean importsResolved;
+
+        PomInfo( final Artifact pom, final Model model )
+        {
+            this.pom = pom;
+            // only the properties are kept, not the model, so large graphs don't hold every POM in memory.
+            this.properties = readProperties( model );
+        }
+
+        Properties getProperties()
+        {
+            return properties;
+        }
+    }
+
+}
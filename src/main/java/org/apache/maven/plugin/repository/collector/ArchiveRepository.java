@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2009 Sonatype, Inc.                                                                                                                          
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ */
+package org.apache.maven.plugin.repository.collector;
+
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.util.IOUtil;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * A read-only repository (default layout) packed in a zip archive, used as a seed without extracting it first. The
+ * archive's central directory is indexed by entry name when it is opened, so lookups never scan the archive, and a
+ * file is only extracted into the target repository when a build actually asks for it.
+ * <br/>
+ * Archives that hold the repository under a single top-level directory (e.g. 'repository/org/...') are supported:
+ * a path missing at the top level is looked up again under that directory.
+ */
+public class ArchiveRepository
+{
+
+    private final File file;
+
+    private final Log log;
+
+    private final Map<String, ZipEntry> index = new HashMap<String, ZipEntry>();
+
+    private ZipFile zip;
+
+    private String root;
+
+    private int extracted;
+
+    public ArchiveRepository( final File file, final Log log )
+    {
+        this.file = file;
+        this.log = log;
+    }
+
+    /**
+     * Open the archive and index its entries.
+     */
+    public synchronized void open()
+        throws IOException
+    {
+        zip = new ZipFile( file );
+
+        String top = null;
+        boolean singleTop = true;
+        for ( Enumeration<? extends ZipEntry> e = zip.entries(); e.hasMoreElements(); )
+        {
+            ZipEntry entry = e.nextElement();
+            if ( entry.isDirectory() )
+            {
+                continue;
+            }
+
+            String name = entry.getName();
+            index.put( name, entry );
+
+            int slash = name.indexOf( '/' );
+            String first = slash < 0 ? "" : name.substring( 0, slash + 1 );
+            if ( top == null )
+            {
+                top = first;
+            }
+            else if ( singleTop && !top.equals( first ) )
+            {
+                singleTop = false;
+            }
+        }
+
+        root = singleTop && top != null && top.length() > 0 ? top : null;
+
+        log.info( "Indexed " + index.size() + " files in repository archive: " + file
+            + ( root == null ? "" : " (under: " + root + ")" ) );
+    }
+
+    /**
+     * Extract the file at the given repository path, and its .sha1 if the archive has one, to the target file. When
+     * there is a .sha1, the extracted file is only moved into place if it matches.
+     *
+     * @return false when the archive does not have the file.
+     * @throws IOException when the file cannot be extracted or does not match its .sha1; nothing is written then.
+     */
+    public boolean extract( final String path, final File target )
+        throws IOException
+    {
+        ZipEntry entry = getEntry( path );
+        if ( entry == null )
+        {
+            return false;
+        }
+
+        File temp = copy( entry, target );
+        try
+        {
+            ZipEntry sha1 = getEntry( path + ".sha1" );
+            if ( sha1 != null )
+            {
+                File sha1File = new File( target.getPath() + ".sha1" );
+                File tempSha1 = copy( sha1, sha1File );
+                try
+                {
+                    String expected = Checksums.readChecksumFile( tempSha1 );
+                    String actual = Checksums.sha1( temp );
+                    if ( !actual.equalsIgnoreCase( expected ) )
+                    {
+                        throw new IOException( "SHA-1 mismatch for: " + path + " (expected: " + expected
+                            + ", actual: " + actual + ")" );
+                    }
+
+                    CacheFiles.replace( tempSha1, sha1File );
+                }
+                finally
+                {
+                    tempSha1.delete();
+                }
+            }
+
+            CacheFiles.replace( temp, target );
+        }
+        finally
+        {
+            temp.delete();
+        }
+
+        synchronized ( this )
+        {
+            extracted++;
+        }
+        log.debug( "Extracted: " + path + " from: " + file );
+
+        return true;
+    }
+
+    public synchronized void close()
+    {
+        if ( zip != null )
+        {
+            try
+            {
+                zip.close();
+            }
+            catch ( IOException e )
+            {
+                log.debug( "Failed to close repository archive: " + file + ": " + e.getMessage() );
+            }
+            zip = null;
+        }
+    }
+
+    public synchronized String getStatistics()
+    {
+        return extracted + " of " + index.size() + " files extracted from " + file.getName();
+    }
+
+    public File getFile()
+    {
+        return file;
+    }
+
+    private ZipEntry getEntry( final String path )
+    {
+        ZipEntry entry = index.get( path );
+        if ( entry == null && root != null )
+        {
+            entry = index.get( root + path );
+        }
+
+        return entry;
+    }
+
+    /**
+     * Extract the entry to a uniquely named temporary file next to the target, so that concurrent builds extracting
+     * the same file into a shared repository never see (or write over) a partial one.
+     *
+     * @return the temporary file, for the caller to verify and move into place.
+     */
+    private File copy( final ZipEntry entry, final File target )
+        throws IOException
+    {
+        File temp = CacheFiles.createTempFile( target );
+
+        InputStream in = null;
+        OutputStream out = null;
+        boolean written = false;
+        try
+        {
+            in = zip.getInputStream( entry );
+            out = new FileOutputStream( temp );
+            IOUtil.copy( in, out );
+            out.close();
+            written = true;
+        }
+        finally
+        {
+            IOUtil.close( in );
+            IOUtil.close( out );
+            if ( !written )
+            {
+                temp.delete();
+            }
+        }
+
+        return temp;
+    }
+
+}
@@ -0,0 +1,332 @@
+/*
+ * Copyright (C) 2009 Sonatype, Inc.                                                                                                                          
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ */
+package org.apache.maven.plugin.repository.collector;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.manager.WagonManager;
+import org.apache.maven.artifact.repository.ArtifactRepository;
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.wagon.authentication.AuthenticationInfo;
+import org.codehaus.plexus.util.Base64;
+import org.codehaus.plexus.util.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Fetches release artifacts straight into the local repository over a {@link PooledHttpTransport}, ahead of Maven's
+ * own resolution, so that resolving them afterwards is a local lookup. Mirrors and server credentials come from
+ * Maven's WagonManager; the SHA-1 published next to each file is verified when there is one.
+ * <br/>
+ * Anything this class cannot handle (snapshots, proxies, non-HTTP repositories, transfer errors) is left alone, and
+ * Maven's wagons take over as before. With a {@link NegativeCache}, repositories known not to have a file are
+ * neither asked here nor passed on to Maven (unless no other repository is left), and with a {@link RoutingTable}
+ * the repository known to serve a groupId is tried first.
+ * <br/>
+ * Release files found in one of the configured {@link ArchiveRepository}s are extracted from it before any remote
+ * repository is asked; archives work without the pooled transport, including offline.
+ */
+public class ArtifactFetcher
+{
+
+    private final WagonManager wagonManager;
+
+    private final PooledHttpTransport transport;
+
+    private final NegativeCache negativeCache;
+
+    private final RoutingTable routingTable;
+
+    private final List<ArchiveRepository> archives;
+
+    private final Log log;
+
+    private final Set<File> created = Collections.synchronizedSet( new HashSet<File>() );
+
+    /**
+     * @param transport the HTTP transport; may be null, leaving remote transfers to Maven.
+     * @param negativeCache misses to skip and record; may be null.
+     * @param routingTable routes to try first and to learn from; may be null.
+     * @param archives opened repository archives to extract from first; may be null.
+     */
+    public ArtifactFetcher( final WagonManager wagonManager, final PooledHttpTransport transport,
+                            final NegativeCache negativeCache, final RoutingTable routingTable,
+                            final List<ArchiveRepository> archives, final Log log )
+    {
+        this.wagonManager = wagonManager;
+        this.transport = transport;
+        this.negativeCache = negativeCache;
+        this.routingTable = routingTable;
+        this.archives = archives == null ? Collections.<ArchiveRepository> emptyList() : archives;
+        this.log = log;
+    }
+
+    /**
+     * Make sure the artifact's file is in the local repository, trying the given repositories in order.
+     *
+     * @return the repositories Maven should still try for this artifact: those not known (from the negative cache,
+     *         or from this attempt) to be missing it, in routing order. When all of them are, they are all returned,
+     *         so that Maven asks them again and reports the artifact as missing itself.
+     */
+    public List<ArtifactRepository> fetch( final Artifact artifact,
+                                           final List<ArtifactRepository> remoteRepositories,
+                                           final ArtifactRepository localRepository )
+    {
+        if ( remoteRepositories == null || Artifact.SCOPE_SYSTEM.equals( artifact.getScope() ) )
+        {
+            return remoteRepositories;
+        }
+
+        File target = new File( localRepository.getBasedir(), localRepository.pathOf( artifact ) );
+        boolean done = target.exists();
+        boolean transfer = !artifact.isSnapshot();
+
+        if ( !done && transfer )
+        {
+            String path = localRepository.pathOf( artifact );
+            for ( ArchiveRepository archive : archives )
+            {
+                try
+                {
+                    if ( archive.extract( path, target ) )
+                    {
+                        created.add( target );
+                        done = true;
+                        break;
+                    }
+                }
+                catch ( IOException e )
+                {
+                    log.warn( "Failed to extract: " + artifact.getId() + " from: " + archive.getFile() + ": "
+                        + e.getMessage() );
+                }
+            }
+        }
+
+        List<ArtifactRepository> ordered = remoteRepositories;
+        if ( routingTable != null )
+        {
+            ordered = routingTable.order( artifact.getGroupId(), remoteRepositories );
+        }
+
+        List<ArtifactRepository> candidates = new ArrayList<ArtifactRepository>( ordered.size() );
+        for ( ArtifactRepository repository : ordered )
+        {
+            ArtifactRepository r = wagonManager.getMirrorRepository( repository );
+            String path = r.pathOf( artifact );
+            if ( negativeCache != null && negativeCache.isMissing( r.getId(), path ) )
+            {
+                log.debug( "Skipping: " + artifact.getId() + " in: " + r.getId() + " (known to be missing)." );
+                continue;
+            }
+
+            if ( !done && transfer && ( r.getReleases() == null || r.getReleases().isEnabled() ) )
+            {
+                String protocol = r.getProtocol();
+                try
+                {
+                    if ( "file".equals( protocol ) )
+                    {
+                        File source = new File( r.getBasedir(), path );
+                        if ( source.isFile() )
+                        {
+                            copy( source, target );
+                            created.add( target );
+                            done = true;
+                        }
+                    }
+                    else if ( transport != null && ( "http".equals( protocol ) || "https".equals( protocol ) )
+                        && wagonManager.getProxy( protocol ) == null )
+                    {
+                        if ( download( artifact, r, path, target ) )
+                        {
+                            created.add( target );
+                            done = true;
+                            if ( routingTable != null )
+                            {
+                                routingTable.recordServed( artifact.getGroupId(), repository.getId() );
+                            }
+                        }
+                        else
+                        {
+                            // missing here; Maven need not ask again.
+                            continue;
+                        }
+                    }
+                    else
+                    {
+                        // proxies and other protocols are left to the wagons.
+                        transfer = false;
+                    }
+                }
+                catch ( IOException e )
+                {
+                    log.debug( "Pooled fetch of: " + artifact.getId() + " from: " + r.getId() + " failed: "
+                        + e.getMessage() + "; leaving it to Maven." );
+                    transfer = false;
+                }
+            }
+
+            candidates.add( repository );
+        }
+
+        if ( candidates.isEmpty() && !ordered.isEmpty() )
+        {
+            log.debug( "Every repository is known to miss: " + artifact.getId() + "; leaving them all to Maven." );
+            return ordered;
+        }
+
+        return candidates;
+    }
+
+    public NegativeCache getNegativeCache()
+    {
+        return negativeCache;
+    }
+
+    public RoutingTable getRoutingTable()
+    {
+        return routingTable;
+    }
+
+    /**
+     * The HTTP transport, or null when remote transfers are left to Maven.
+     */
+    public PooledHttpTransport getTransport()
+    {
+        return transport;
+    }
+
+    public List<ArchiveRepository> getArchives()
+    {
+        return archives;
+    }
+
+    /**
+     * Whether this fetcher put the given file into the local repository (rather than finding it there).
+     */
+    public boolean isCreated( final File file )
+    {
+        return created.contains( file );
+    }
+
+    /**
+     * Copy a file from a file: repository through a uniquely named temporary file, so concurrent builds never see
+     * (or copy over) a partial file.
+     */
+    private static void copy( final File source, final File target )
+        throws IOException
+    {
+        File temp = CacheFiles.createTempFile( target );
+        try
+        {
+            FileUtils.copyFile( source, temp );
+            CacheFiles.replace( temp, target );
+        }
+        finally
+        {
+            temp.delete();
+        }
+    }
+
+    /**
+     * @return false when the repository does not have the file.
+     */
+    private boolean download( final Artifact artifact, final ArtifactRepository repository, final String path,
+                              final File target )
+        throws IOException
+    {
+        String base = repository.getUrl();
+        if ( !base.endsWith( "/" ) )
+        {
+            base += "/";
+        }
+
+        URL url = new URL( base + path );
+        String authorization = getAuthorization( repository );
+
+        // unique names, as other threads and builds may be fetching the same file into the same repository.
+        File sha1 = new File( target.getPath() + ".sha1" );
+        File temp = CacheFiles.createTempFile( target );
+        File tempSha1 = CacheFiles.createTempFile( sha1 );
+        try
+        {
+            int status = transport.get( url, authorization, temp );
+            if ( status == 404 || status == 410 )
+            {
+                if ( negativeCache != null )
+                {
+                    negativeCache.markMissing( repository.getId(), path );
+                }
+                return false;
+            }
+            else if ( status != 200 )
+            {
+                throw new IOException( "HTTP " + status );
+            }
+
+            if ( transport.get( new URL( url.toExternalForm() + ".sha1" ), authorization, tempSha1 ) == 200 )
+            {
+                String expected = Checksums.readChecksumFile( tempSha1 );
+
+                String actual = Checksums.sha1( temp );
+                if ( !actual.equalsIgnoreCase( expected ) )
+                {
+                    throw new IOException( "SHA-1 mismatch for: " + url + " (expected: " + expected + ", actual: "
+                        + actual + ")" );
+                }
+
+                CacheFiles.replace( tempSha1, sha1 );
+            }
+
+            CacheFiles.replace( temp, target );
+            if ( negativeCache != null )
+            {
+                negativeCache.markPresent( repository.getId(), path );
+            }
+            log.debug( "Fetched: " + artifact.getId() + " from: " + repository.getId() );
+
+            return true;
+        }
+        finally
+        {
+            temp.delete();
+            tempSha1.delete();
+        }
+    }
+
+    private String getAuthorization( final ArtifactRepository repository )
+        throws IOException
+    {
+        AuthenticationInfo auth = wagonManager.getAuthenticationInfo( repository.getId() );
+        if ( auth == null || auth.getUserName() == null )
+        {
+            return null;
+        }
+
+        String credentials = auth.getUserName() + ":" + ( auth.getPassword() == null ? "" : auth.getPassword() );
+        return "Basic " + new String( Base64.encodeBase64( credentials.getBytes( "UTF-8" ) ), "US-ASCII" );
+    }
+
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2009 Sonatype, Inc.                                                                                                                          
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ */
+package org.apache.maven.plugin.repository.collector;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Helpers for the cache files that concurrent builds may share: an exclusive lock, held while a file is read back,
+ * merged and rewritten, and replacing a file in one step from a uniquely named temporary file.
+ */
+public final class CacheFiles
+{
+
+    private static final Map<String, ReentrantLock> LOCKS = new HashMap<String, ReentrantLock>();
+
+    private CacheFiles()
+    {
+    }
+
+    /**
+     * Lock the given file against other threads of this process and other processes, through a companion '.lock'
+     * file. The lock file is left in place, as removing it would let two processes lock different files.
+     */
+    public static Lock lock( final File file )
+        throws IOException
+    {
+        File lockFile = new File( file.getAbsolutePath() + ".lock" );
+        lockFile.getParentFile().mkdirs();
+
+        ReentrantLock threadLock;
+        synchronized ( LOCKS )
+        {
+            String key = lockFile.getCanonicalPath();
+            threadLock = LOCKS.get( key );
+            if ( threadLock == null )
+            {
+                threadLock = new ReentrantLock();
+                LOCKS.put( key, threadLock );
+            }
+        }
+
+        threadLock.lock();
+        RandomAccessFile raf = null;
+        try
+        {
+            raf = new RandomAccessFile( lockFile, "rw" );
+            return new Lock( threadLock, raf, raf.getChannel().lock() );
+        }
+        catch ( IOException e )
+        {
+            if ( raf != null )
+            {
+                try
+                {
+                    raf.close();
+                }
+                catch ( IOException ignored )
+                {
+                    // the original failure is more useful.
+                }
+            }
+            threadLock.unlock();
+            throw e;
+        }
+    }
+
+    /**
+     * @return a new, uniquely named file in the same directory as the given one, to write its replacement to.
+     */
+    public static File createTempFile( final File file )
+        throws IOException
+    {
+        File directory = file.getAbsoluteFile().getParentFile();
+        directory.mkdirs();
+
+        return File.createTempFile( file.getName() + "-", ".tmp", directory );
+    }
+
+    /**
+     * Replace the file with the temporary one, which is removed if that fails. Where the platform renames over an
+     * existing file, readers see either the old or the new file; elsewhere, the old file is deleted first.
+     */
+    public static void replace( final File temp, final File file )
+        throws IOException
+    {
+        if ( temp.renameTo( file ) )
+        {
+            return;
+        }
+
+        file.delete();
+        if ( !temp.renameTo( file ) )
+        {
+            temp.delete();
+            throw new IOException( "Failed to replace: " + file );
+        }
+    }
+
+    public static final class Lock
+    {
+        private final ReentrantLock threadLock;
+
+        private final RandomAccessFile file;
+
+        private final FileLock lock;
+
+        private Lock( final ReentrantLock threadLock, final RandomAccessFile file, final FileLock lock )
+        {
+            this.threadLock = threadLock;
+            this.file = file;
+            this.lock = lock;
+        }
+
+        public void release()
+        {
+            try
+            {
+                lock.release();
+            }
+            catch ( IOException e )
+            {
+                // closing the file releases the lock anyway.
+            }
+
+            try
+            {
+                file.close();
+            }
+            catch ( IOException e )
+            {
+                // nothing left to do with it.
+            }
+            finally
+            {
+                threadLock.unlock();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2009 Sonatype, Inc.                                                                                                                          
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ */
+package org.apache.maven.plugin.repository.collector;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.IOUtil;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * File digest helpers shared by the lockfile, shard merging, repository metadata generation and the verification of
+ * fetched and extracted files.
+ */
+public final class Checksums
+{
+
+    private Checksums()
+    {
+    }
+
+    public static String sha1( final File file )
+        throws IOException
+    {
+        return digest( file, "SHA-1" );
+    }
+
+    public static String md5( final File file )
+        throws IOException
+    {
+        return digest( file, "MD5" );
+    }
+
+    /**
+     * Read the digest from a .sha1 or .md5 companion file, dropping the file name some tools write after it.
+     */
+    public static String readChecksumFile( final File file )
+        throws IOException
+    {
+        String checksum = FileUtils.fileRead( file ).trim();
+        int space = checksum.indexOf( ' ' );
+
+        return space > -1 ? checksum.substring( 0, space ) : checksum;
+    }
+
+    /**
+     * Write the .sha1 and .md5 companion files for the given file, as found in a remote repository.
+     */
+    public static void writeChecksumFiles( final File file )
+        throws IOException
+    {
+        write( new File( file.getPath() + ".sha1" ), sha1( file ) );
+        write( new File( file.getPath() + ".md5" ), md5( file ) );
+    }
+
+    private static void write( final File file, final String content )
+        throws IOException
+    {
+        Writer writer = null;
+        try
+        {
+            writer = new OutputStreamWriter( new FileOutputStream( file ), "US-ASCII" );
+            writer.write( content );
+        }
+        finally
+        {
+            IOUtil.close( writer );
+        }
+    }
+
+    private static String digest( final File file, final String algorithm )
+        throws IOException
+    {
+        MessageDigest digest;
+        try
+        {
+            digest = MessageDigest.getInstance( algorithm );
+        }
+        catch ( NoSuchAlgorithmException e )
+        {
+            throw new IllegalStateException( algorithm + " digest is not available: " + e.getMessage() );
+        }
+
+        InputStream in = null;
+        try
+        {
+            in = new FileInputStream( file );
+
+            byte[] buffer = new byte[8192];
+            int read;
+            while ( ( read = in.read( buffer ) ) > -1 )
+            {
+                digest.update( buffer, 0, read );
+            }
+        }
+        finally
+        {
+            IOUtil.close( in );
+        }
+
+        return toHex( digest.digest() );
+    }
+
+    static String toHex( final byte[] bytes )
+    {
+        StringBuilder sb = new StringBuilder( bytes.length * 2 );
+        for ( byte b : bytes )
+        {
+            sb.append( Character.forDigit( ( b >> 4 ) & 0xf, 16 ) ).append( Character.forDigit( b & 0xf, 16 ) );
+        }
+
+        return sb.toString();
+    }
+
+}
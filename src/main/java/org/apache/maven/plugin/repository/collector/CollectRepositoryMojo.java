@@ -18,22 +18,50 @@
 package org.apache.maven.plugin.repository.collector;
 
 import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.metadata.ArtifactMetadataSource;
 import org.apache.maven.artifact.repository.ArtifactRepository;
+import org.apache.maven.artifact.repository.layout.ArtifactRepositoryLayout;
+import org.apache.maven.artifact.repository.layout.DefaultRepositoryLayout;
+import org.apache.maven.artifact.resolver.ArtifactNotFoundException;
+import org.apache.maven.artifact.resolver.ArtifactResolutionException;
+import org.apache.maven.artifact.resolver.ArtifactResolutionResult;
+import org.apache.maven.artifact.resolver.ArtifactResolver;
+import org.apache.maven.model.Model;
+import org.apache.maven.model.Parent;
+import org.apache.maven.model.io.xpp3.MavenXpp3Reader;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.project.MavenProject;
 import org.apache.maven.shared.repository.RepositoryAssembler;
 import org.apache.maven.shared.repository.RepositoryAssemblyException;
 import org.apache.maven.shared.repository.RepositoryBuilderConfigSource;
 import org.apache.maven.shared.repository.model.DefaultRepositoryInfo;
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.IOUtil;
+import org.codehaus.plexus.util.ReaderFactory;
+import org.codehaus.plexus.util.StringUtils;
+import org.codehaus.plexus.util.xml.pull.XmlPullParserException;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * Collect dependencies, plugins, etc. into a repository directory structure.
  * 
  * @goal collect
+ * @threadSafe
  */
 public class CollectRepositoryMojo
     extends AbstractCollectorMojo
@@ -50,39 +78,93 @@ public class CollectRepositoryMojo
      */
     private ArtifactRepository localRepository;
 
+    /**
+     * Generate maven-metadata.xml files and a binary-searchable index of every collected coordinate, so consumers
+     * can load the output repository without crawling it.
+     * 
+     * @parameter expression="${collector.generateMetadata}" default-value="true"
+     */
+    private boolean generateMetadata;
+
     /**
      * @component
      */
     private RepositoryAssembler repoAssembler;
 
+    /**
+     * @component
+     */
+    private ArtifactResolver artifactResolver;
+
+    /**
+     * @component
+     */
+    private ArtifactMetadataSource metadataSource;
+
+    /**
+     * The optional classifier and the extension following artifactId-version in a file name.
+     */
+    private static final Pattern SUFFIX = Pattern.compile( "(?:-([^.]+))?\\.(.+)" );
+
+    /**
+     * The base version (without SNAPSHOT) and timestamp-buildNumber at the start of a timestamped snapshot's file
+     * name, after the artifactId.
+     */
+    private static final Pattern SNAPSHOT_FILE = Pattern.compile( "(.+-)(\\d{8}\\.\\d{6}-\\d+)" );
+
+    private final ArtifactRepositoryLayout layout = new DefaultRepositoryLayout();
+
     @Override
-    @SuppressWarnings( "unchecked" )
     public void collect( final MavenProject project, final Map<String, Map<String, Artifact>> pluginManagedVersions )
         throws MojoExecutionException
     {
-        try
+        if ( isPomOnly() )
         {
-            DefaultRepositoryInfo info = new DefaultRepositoryInfo();
-            info.setScope( Artifact.SCOPE_TEST );
+            collectPoms( project, pluginManagedVersions );
+            return;
+        }
+
+        Set<Artifact> collected =
+            resolveWithBackend( new AssemblerBackend(), artifactResolver, metadataSource, project,
+                                pluginManagedVersions, localRepository, false );
 
-            RepositoryBuilderConfigSource configSource = new RepositoryBuilderConfigSource()
+        if ( "concurrent".equals( getBackend() ) )
+        {
+            writeResolved( collected );
+            return;
+        }
+
+        Set<Artifact> ancestry = collectProjectAncestry( new HashSet<String>() );
+
+        for ( Artifact a : collected )
+        {
+            recordResolved( a );
+        }
+
+        if ( generateMetadata )
+        {
+            try
             {
-                public MavenProject getProject()
+                RepositoryMetadataGenerator generator =
+                    new RepositoryMetadataGenerator( outputDirectory, getArtifactFactory() );
+                for ( Artifact a : collected )
                 {
-                    return project;
+                    generator.add( a );
                 }
-
-                public ArtifactRepository getLocalRepository()
+                for ( Artifact pom : ancestry )
                 {
-                    return localRepository;
+                    generator.add( pom );
                 }
-            };
+                int indexed = generator.finish();
 
-            repoAssembler.buildRemoteRepository( outputDirectory, info, configSource );
-        }
-        catch ( RepositoryAssemblyException e )
-        {
-            throw new MojoExecutionException( "Failed to collect artifacts necessary to build project.", e );
+                getLog().info( "Generated repository metadata and an index of " + indexed + " files in: "
+                                   + outputDirectory );
+            }
+            catch ( IOException e )
+            {
+                throw new MojoExecutionException( "Failed to generate metadata for collected repository: "
+                    + e.getMessage(), e );
+            }
         }
 
         StringBuilder builder = new StringBuilder();
@@ -90,7 +172,7 @@ public class CollectRepositoryMojo
         builder.append( "Collected the following artifacts into: " ).append( outputDirectory.getAbsolutePath() );
         builder.append( "\n" );
 
-        for ( Artifact artifact : (Set<Artifact>) project.getArtifacts() )
+        for ( Artifact artifact : collected )
         {
             builder.append( "\n- " ).append( artifact.getId() );
         }
@@ -99,4 +181,458 @@ public class CollectRepositoryMojo
         getLog().info( builder );
     }
 
+    /**
+     * One artifact for each file in the output directory that sits at a repository path, i.e.
+     * groupId/artifactId/version/artifactId-version[-classifier].extension, with the extension as its type.
+     * Checksums, metadata and the plugin's own files are skipped.
+     */
+    @SuppressWarnings( "unchecked" )
+    private Set<Artifact> scanOutputDirectory()
+        throws MojoExecutionException
+    {
+        SortedMap<String, Artifact> artifacts = new TreeMap<String, Artifact>();
+        try
+        {
+            for ( String path : (List<String>) FileUtils.getFileNames( outputDirectory, null, null, false ) )
+            {
+                Artifact a = parsePath( path.replace( File.separatorChar, '/' ) );
+                if ( a != null )
+                {
+                    artifacts.put( layout.pathOf( a ), a );
+                }
+            }
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Failed to read collected repository: " + outputDirectory + ": "
+                + e.getMessage(), e );
+        }
+
+        return new LinkedHashSet<Artifact>( artifacts.values() );
+    }
+
+    private Artifact parsePath( final String path )
+    {
+        String[] parts = path.split( "/" );
+        String name = parts[parts.length - 1];
+        if ( parts.length < 4 || name.startsWith( "." ) || name.startsWith( "maven-metadata" )
+            || name.endsWith( ".sha1" ) || name.endsWith( ".md5" ) || name.endsWith( ".asc" ) )
+        {
+            return null;
+        }
+
+        String artifactId = parts[parts.length - 3];
+        String version = parts[parts.length - 2];
+        String groupId = StringUtils.join( Arrays.asList( parts ).subList( 0, parts.length - 3 ).iterator(), "." );
+
+        String prefix = artifactId + "-" + version;
+        if ( !name.startsWith( prefix ) && version.endsWith( Artifact.SNAPSHOT_VERSION ) )
+        {
+            // a timestamped snapshot file, as deployed.
+            Matcher m =
+                SNAPSHOT_FILE.matcher( name.substring( Math.min( name.length(), artifactId.length() + 1 ) ) );
+            if ( m.lookingAt() && version.equals( m.group( 1 ) + Artifact.SNAPSHOT_VERSION ) )
+            {
+                prefix = artifactId + "-" + m.group( 1 ) + m.group( 2 );
+                version = m.group( 1 ) + m.group( 2 );
+            }
+        }
+
+        Matcher m = name.startsWith( prefix ) ? SUFFIX.matcher( name.substring( prefix.length() ) ) : null;
+        if ( m == null || !m.matches() )
+        {
+            getLog().debug( "Not an artifact: " + path );
+            return null;
+        }
+
+        return getArtifactFactory().createArtifactWithClassifier( groupId, artifactId, version, m.group( 2 ),
+                                                                  m.group( 1 ) );
+    }
+
+    /**
+     * Resolve each direct artifact's graph into the local repository and copy it (with its POM and parent POMs) into
+     * the output directory straight away, keeping only the set of paths already written.
+     */
+    @SuppressWarnings( "unchecked" )
+    @Override
+    protected void collectStreaming( final Set<Artifact> artifacts,
+                                     final Map<String, Map<String, Artifact>> pluginManagedVersions )
+        throws MojoExecutionException
+    {
+        List<ArtifactRepository> remoteRepositories = getRemoteRepositories();
+        RepositoryMetadataGenerator generator =
+            generateMetadata ? new RepositoryMetadataGenerator( outputDirectory, getArtifactFactory() ) : null;
+
+        getLog().info( "Streaming " + artifacts.size() + " artifacts into: " + outputDirectory.getAbsolutePath() );
+
+        Set<String> written = new HashSet<String>();
+        int count = 0;
+        try
+        {
+            for ( Iterator<Artifact> it = artifacts.iterator(); it.hasNext(); )
+            {
+                Artifact artifact = it.next();
+                it.remove();
+
+                Map<String, Artifact> managed = pluginManagedVersions.remove( artifact.getDependencyConflictId() );
+                if ( managed == null )
+                {
+                    managed = getProject().getManagedVersionMap();
+                }
+
+                ArtifactResolutionResult resolution =
+                    artifactResolver.resolveTransitively( Collections.singleton( artifact ),
+                                                          getProject().getArtifact(), managed, localRepository,
+                                                          remoteRepositories, metadataSource, getArtifactFilter() );
+
+                for ( Artifact a : (Set<Artifact>) resolution.getArtifacts() )
+                {
+                    if ( writeArtifact( a, remoteRepositories, written, generator ) )
+                    {
+                        count++;
+                    }
+                }
+            }
+
+            Set<Artifact> ancestry = collectProjectAncestry( written );
+            if ( generator != null )
+            {
+                for ( Artifact pom : ancestry )
+                {
+                    generator.add( pom );
+                }
+
+                generator.finish();
+            }
+        }
+        catch ( ArtifactResolutionException e )
+        {
+            throw new MojoExecutionException( "Failed to collect artifacts necessary to build project: "
+                + e.getMessage(), e );
+        }
+        catch ( ArtifactNotFoundException e )
+        {
+            throw new MojoExecutionException( "Failed to collect artifacts necessary to build project: "
+                + e.getMessage(), e );
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Failed to write collected repository: " + e.getMessage(), e );
+        }
+
+        getLog().info( "Collected " + count + " artifacts into: " + outputDirectory.getAbsolutePath() );
+    }
+
+    /**
+     * Copy the artifacts resolved by the concurrent backend, with their POMs and parent POMs, into the output
+     * directory.
+     */
+    private void writeResolved( final Set<Artifact> resolved )
+        throws MojoExecutionException
+    {
+        List<ArtifactRepository> remoteRepositories = getRemoteRepositories();
+        RepositoryMetadataGenerator generator =
+            generateMetadata ? new RepositoryMetadataGenerator( outputDirectory, getArtifactFactory() ) : null;
+
+        Set<String> written = new HashSet<String>();
+        int count = 0;
+        try
+        {
+            for ( Artifact a : resolved )
+            {
+                if ( writeArtifact( a, remoteRepositories, written, generator ) )
+                {
+                    count++;
+                }
+            }
+
+            Set<Artifact> ancestry = collectProjectAncestry( written );
+            if ( generator != null )
+            {
+                for ( Artifact pom : ancestry )
+                {
+                    generator.add( pom );
+                }
+
+                generator.finish();
+            }
+        }
+        catch ( ArtifactResolutionException e )
+        {
+            throw new MojoExecutionException( "Failed to collect artifacts necessary to build project: "
+                + e.getMessage(), e );
+        }
+        catch ( ArtifactNotFoundException e )
+        {
+            throw new MojoExecutionException( "Failed to collect artifacts necessary to build project: "
+                + e.getMessage(), e );
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Failed to write collected repository: " + e.getMessage(), e );
+        }
+
+        getLog().info( "Collected " + count + " artifacts into: " + outputDirectory.getAbsolutePath() );
+    }
+
+    /**
+     * Copy a resolved artifact and its POM chain into the output directory, unless its path was already written.
+     * 
+     * @return whether the artifact was written.
+     */
+    private boolean writeArtifact( final Artifact a, final List<ArtifactRepository> remoteRepositories,
+                                   final Set<String> written, final RepositoryMetadataGenerator generator )
+        throws ArtifactResolutionException, ArtifactNotFoundException, IOException
+    {
+        if ( Artifact.SCOPE_SYSTEM.equals( a.getScope() ) || !written.add( layout.pathOf( a ) ) )
+        {
+            return false;
+        }
+
+        copyToOutput( a.getFile(), layout.pathOf( a ) );
+        copyPomChain( a.getGroupId(), a.getArtifactId(), a.getVersion(), remoteRepositories, written );
+        recordResolved( a );
+        if ( generator != null )
+        {
+            generator.add( a );
+        }
+
+        getLog().debug( "Collected: " + a.getId() );
+        return true;
+    }
+
+    /**
+     * Copy the POMs of the project's dependency graph, with their parents and BOMs, into the output directory,
+     * without downloading any other file.
+     */
+    @SuppressWarnings( "unchecked" )
+    private void collectPoms( final MavenProject project,
+                              final Map<String, Map<String, Artifact>> pluginManagedVersions )
+        throws MojoExecutionException
+    {
+        Set<Artifact> graph =
+            collectPomGraph( project.getDependencyArtifacts(), pluginManagedVersions, metadataSource, localRepository,
+                             getRemoteRepositories(), false );
+
+        Set<Artifact> poms =
+            resolveProjectAncestry( artifactResolver, localRepository, getRemoteRepositories(), graph );
+
+        try
+        {
+            RepositoryMetadataGenerator generator =
+                generateMetadata ? new RepositoryMetadataGenerator( outputDirectory, getArtifactFactory() ) : null;
+            for ( Artifact pom : poms )
+            {
+                copyToOutput( pom.getFile(), layout.pathOf( pom ) );
+                if ( generator != null )
+                {
+                    generator.add( pom );
+                }
+            }
+
+            if ( generator != null )
+            {
+                generator.finish();
+            }
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Failed to write collected repository: " + e.getMessage(), e );
+        }
+
+        getLog().info( "Collected " + poms.size() + " POMs of " + graph.size()
+                           + " graph artifacts, their parents and BOMs into: " + outputDirectory.getAbsolutePath() );
+    }
+
+    /**
+     * Fetch the project's parent chain and import-scoped BOMs and copy any of them not yet in the output directory.
+     */
+    private Set<Artifact> collectProjectAncestry( final Set<String> written )
+        throws MojoExecutionException
+    {
+        Set<Artifact> ancestry =
+            resolveProjectAncestry( artifactResolver, localRepository, getRemoteRepositories() );
+
+        for ( Artifact pom : ancestry )
+        {
+            String path = layout.pathOf( pom );
+            if ( written.add( path ) && !new File( outputDirectory, path ).exists() )
+            {
+                try
+                {
+                    copyToOutput( pom.getFile(), path );
+                }
+                catch ( IOException e )
+                {
+                    throw new MojoExecutionException( "Failed to copy: " + pom.getId() + " into: " + outputDirectory
+                        + ": " + e.getMessage(), e );
+                }
+            }
+        }
+
+        return ancestry;
+    }
+
+    /**
+     * Copy the POM of the given coordinate, then those of its parents, stopping at the first one already written.
+     */
+    private void copyPomChain( final String groupId, final String artifactId, final String version,
+                               final List<ArtifactRepository> remoteRepositories, final Set<String> written )
+        throws ArtifactResolutionException, ArtifactNotFoundException, IOException
+    {
+        String g = groupId;
+        String a = artifactId;
+        String v = version;
+        while ( v != null )
+        {
+            Artifact pom = getArtifactFactory().createProjectArtifact( g, a, v );
+            String path = layout.pathOf( pom );
+            if ( !written.add( path ) )
+            {
+                return;
+            }
+
+            artifactResolver.resolve( pom, remoteRepositories, localRepository );
+            copyToOutput( pom.getFile(), path );
+
+            Parent parent = readParent( pom.getFile() );
+            if ( parent == null )
+            {
+                return;
+            }
+
+            g = parent.getGroupId();
+            a = parent.getArtifactId();
+            v = parent.getVersion();
+        }
+    }
+
+    private Parent readParent( final File pomFile )
+        throws IOException
+    {
+        Reader reader = null;
+        try
+        {
+            reader = ReaderFactory.newXmlReader( pomFile );
+            Model model = new MavenXpp3Reader().read( reader, false );
+            return model.getParent();
+        }
+        catch ( XmlPullParserException e )
+        {
+            getLog().warn( "Cannot read parent of: " + pomFile + ": " + e.getMessage() );
+            return null;
+        }
+        finally
+        {
+            IOUtil.close( reader );
+        }
+    }
+
+    private void copyToOutput( final File source, final String path )
+        throws IOException
+    {
+        if ( source == null || !source.isFile() )
+        {
+            return;
+        }
+
+        File target = new File( outputDirectory, path );
+        FileUtils.copyFile( source, target );
+        Checksums.writeChecksumFiles( target );
+    }
+
+    @Override
+    protected File getRepositoryDirectory()
+    {
+        return outputDirectory;
+    }
+
+    /**
+     * The assembler's result holds every file it wrote, POMs included, with the extension as type, so the backends
+     * are compared on the paths of their non-POM files.
+     */
+    @Override
+    protected String getBackendComparisonKey( final Artifact a )
+    {
+        return "pom".equals( a.getType() ) ? null : layout.pathOf( a );
+    }
+
+    public File getOutputDirectory()
+    {
+        return outputDirectory;
+    }
+
+    public void setOutputDirectory( final File outputDirectory )
+    {
+        this.outputDirectory = outputDirectory;
+    }
+
+    public void setLocalRepository( final ArtifactRepository localRepository )
+    {
+        this.localRepository = localRepository;
+    }
+
+    public void setGenerateMetadata( final boolean generateMetadata )
+    {
+        this.generateMetadata = generateMetadata;
+    }
+
+    public void setRepoAssembler( final RepositoryAssembler repoAssembler )
+    {
+        this.repoAssembler = repoAssembler;
+    }
+
+    public void setArtifactResolver( final ArtifactResolver artifactResolver )
+    {
+        this.artifactResolver = artifactResolver;
+    }
+
+    public void setMetadataSource( final ArtifactMetadataSource metadataSource )
+    {
+        this.metadataSource = metadataSource;
+    }
+
+    /**
+     * This goal's 'maven' backend: the repository assembler resolves the project's graph and writes it into the
+     * output directory itself. It does not expose what it resolved, so the result is read back from there.
+     */
+    private final class AssemblerBackend
+        implements ResolutionBackend
+    {
+
+        public Set<Artifact> resolve( final MavenProject project,
+                                      final Map<String, Map<String, Artifact>> pluginManagedVersions,
+                                      final ArtifactRepository localRepository, final boolean separately )
+            throws MojoExecutionException
+        {
+            try
+            {
+                DefaultRepositoryInfo info = new DefaultRepositoryInfo();
+                info.setScope( Artifact.SCOPE_TEST );
+
+                RepositoryBuilderConfigSource configSource = new RepositoryBuilderConfigSource()
+                {
+                    public MavenProject getProject()
+                    {
+                        return project;
+                    }
+
+                    public ArtifactRepository getLocalRepository()
+                    {
+                        return localRepository;
+                    }
+                };
+
+                repoAssembler.buildRemoteRepository( outputDirectory, info, configSource );
+            }
+            catch ( RepositoryAssemblyException e )
+            {
+                throw new MojoExecutionException( "Failed to collect artifacts necessary to build project.", e );
+            }
+
+            return scanOutputDirectory();
+        }
+
+    }
+
 }
@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2009 Sonatype, Inc.                                                                                                                          
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ */
+package org.apache.maven.plugin.repository.collector;
+
+import org.codehaus.plexus.util.IOUtil;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Compact, sorted index of every coordinate in a collected repository and the path of its file, which consumers can
+ * binary-search instead of crawling the directory tree. Layout (all integers big-endian):
+ *
+ * <pre>
+ * int    magic ('MRCI')
+ * int    format version
+ * int    entry count (n)
+ * int[n] offset of each record, relative to the start of the record block
+ * record block: for each entry, in coordinate order, two modified-UTF-8 strings (coordinate, path)
+ * </pre>
+ *
+ * Coordinates use the groupId:artifactId:type:classifier:version form of the resolution lockfile.
+ */
+public final class CollectedRepositoryIndex
+{
+
+    public static final String FILE_NAME = ".collector-index";
+
+    private static final int MAGIC = 0x4d524349;
+
+    private static final int VERSION = 1;
+
+    private CollectedRepositoryIndex()
+    {
+    }
+
+    public static void write( final File file, final SortedMap<String, String> pathsByCoordinate )
+        throws IOException
+    {
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        DataOutputStream recordOut = new DataOutputStream( records );
+        int[] offsets = new int[pathsByCoordinate.size()];
+
+        int i = 0;
+        for ( Map.Entry<String, String> entry : pathsByCoordinate.entrySet() )
+        {
+            offsets[i++] = recordOut.size();
+            recordOut.writeUTF( entry.getKey() );
+            recordOut.writeUTF( entry.getValue() );
+        }
+        recordOut.flush();
+
+        DataOutputStream out = null;
+        try
+        {
+            out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( file ) ) );
+            out.writeInt( MAGIC );
+            out.writeInt( VERSION );
+            out.writeInt( offsets.length );
+            for ( int offset : offsets )
+            {
+                out.writeInt( offset );
+            }
+            records.writeTo( out );
+        }
+        finally
+        {
+            IOUtil.close( out );
+        }
+    }
+
+    /**
+     * Read every entry of the index, mapping coordinates to repository-relative paths.
+     */
+    public static SortedMap<String, String> read( final File file )
+        throws IOException
+    {
+        DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ) ) );
+        try
+        {
+            if ( in.readInt() != MAGIC )
+            {
+                throw new IOException( "Not a collected-repository index: " + file );
+            }
+            if ( in.readInt() != VERSION )
+            {
+                throw new IOException( "Unsupported collected-repository index version in: " + file );
+            }
+
+            int count = in.readInt();
+            for ( int i = 0; i < count; i++ )
+            {
+                in.readInt();
+            }
+
+            SortedMap<String, String> pathsByCoordinate = new TreeMap<String, String>();
+            for ( int i = 0; i < count; i++ )
+            {
+                String coordinate = in.readUTF();
+                pathsByCoordinate.put( coordinate, in.readUTF() );
+            }
+
+            return pathsByCoordinate;
+        }
+        finally
+        {
+            IOUtil.close( in );
+        }
+    }
+
+    /**
+     * Binary-search the index for a coordinate, returning the repository-relative path of its file, or null.
+     */
+    public static String find( final File file, final String coordinate )
+        throws IOException
+    {
+        RandomAccessFile in = new RandomAccessFile( file, "r" );
+        try
+        {
+            if ( in.readInt() != MAGIC )
+            {
+                throw new IOException( "Not a collected-repository index: " + file );
+            }
+            if ( in.readInt() != VERSION )
+            {
+                throw new IOException( "Unsupported collected-repository index version in: " + file );
+            }
+
+            int count = in.readInt();
+            long recordStart = 12L + 4L * count;
+
+            int low = 0;
+            int high = count - 1;
+            while ( low <= high )
+            {
+                int mid = ( low + high ) >>> 1;
+
+                in.seek( 12L + 4L * mid );
+                in.seek( recordStart + in.readInt() );
+
+                int cmp = in.readUTF().compareTo( coordinate );
+                if ( cmp < 0 )
+                {
+                    low = mid + 1;
+                }
+                else if ( cmp > 0 )
+                {
+                    high = mid - 1;
+                }
+                else
+                {
+                    return in.readUTF();
+                }
+            }
+
+            return null;
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+}
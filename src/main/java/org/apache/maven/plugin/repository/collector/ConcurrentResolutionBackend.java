@@ -0,0 +1,434 @@
+/*
+ * Copyright (C) 2009 Sonatype, Inc.                                                                                                                          
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ */
+package org.apache.maven.plugin.repository.collector;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.factory.ArtifactFactory;
+import org.apache.maven.artifact.metadata.ArtifactMetadataRetrievalException;
+import org.apache.maven.artifact.metadata.ArtifactMetadataSource;
+import org.apache.maven.artifact.metadata.ResolutionGroup;
+import org.apache.maven.artifact.repository.ArtifactRepository;
+import org.apache.maven.artifact.resolver.ArtifactCollector;
+import org.apache.maven.artifact.resolver.ArtifactResolutionException;
+import org.apache.maven.artifact.resolver.ArtifactResolutionResult;
+import org.apache.maven.artifact.resolver.ArtifactResolver;
+import org.apache.maven.artifact.resolver.ResolutionNode;
+import org.apache.maven.artifact.resolver.filter.AndArtifactFilter;
+import org.apache.maven.artifact.resolver.filter.ArtifactFilter;
+import org.apache.maven.artifact.versioning.VersionRange;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.project.MavenProject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Backend that overlaps the downloads of a resolution, instead of fetching one file at a time as Maven does while it
+ * walks the graph and then resolves each artifact:
+ * <ol>
+ * <li>the graph is walked ahead of Maven, and each POM is fetched on a pool of threads as soon as it is
+ * discovered;</li>
+ * <li>the graph is then mediated by Maven's own ArtifactCollector, exactly as by the default backend, but from POMs
+ * that are already local;</li>
+ * <li>the files of the mediated graph are fetched on the same pool.</li>
+ * </ol>
+ * The walk applies the same dependency management, filter and exclusions as the collector, but follows only the
+ * first version seen of each groupId:artifactId, so it is a best effort: any POM it misses is fetched by the
+ * collector, as before. The result is the default backend's.
+ */
+public class ConcurrentResolutionBackend
+    implements ResolutionBackend
+{
+
+    private final ArtifactFactory artifactFactory;
+
+    private final ArtifactCollector artifactCollector;
+
+    private final ArtifactResolver artifactResolver;
+
+    private final ArtifactMetadataSource metadataSource;
+
+    private final ArtifactFetcher fetcher;
+
+    private final Map<String, Artifact> defaultManagedVersions;
+
+    private final ArtifactFilter filter;
+
+    private final int threads;
+
+    private final Log log;
+
+    /**
+     * @param fetcher fetches files ahead of the artifact resolver; may be null.
+     * @param defaultManagedVersions dependency management for direct artifacts that are not plugins.
+     * @param filter the include/exclude filter; may be null.
+     */
+    public ConcurrentResolutionBackend( final ArtifactFactory artifactFactory,
+                                        final ArtifactCollector artifactCollector,
+                                        final ArtifactResolver artifactResolver,
+                                        final ArtifactMetadataSource metadataSource, final ArtifactFetcher fetcher,
+                                        final Map<String, Artifact> defaultManagedVersions,
+                                        final ArtifactFilter filter, final int threads, final Log log )
+    {
+        this.artifactFactory = artifactFactory;
+        this.artifactCollector = artifactCollector;
+        this.artifactResolver = artifactResolver;
+        this.metadataSource = metadataSource;
+        this.fetcher = fetcher;
+        this.defaultManagedVersions = defaultManagedVersions;
+        this.filter = filter;
+        this.threads = Math.max( 1, threads );
+        this.log = log;
+    }
+
+    @SuppressWarnings( "unchecked" )
+    public Set<Artifact> resolve( final MavenProject project,
+                                  final Map<String, Map<String, Artifact>> pluginManagedVersions,
+                                  final ArtifactRepository localRepository, final boolean separately )
+        throws MojoExecutionException
+    {
+        List<ArtifactRepository> remoteRepositories = project.getRemoteArtifactRepositories();
+
+        ExecutorService executor = Executors.newFixedThreadPool( threads );
+        try
+        {
+            long start = System.currentTimeMillis();
+            int poms = fetchPoms( executor, project, pluginManagedVersions, localRepository, separately );
+            log.info( "Fetched " + poms + " POMs of the graph ahead of mediation in "
+                + ( System.currentTimeMillis() - start ) + " ms." );
+
+            Map<Artifact, List<ArtifactRepository>> graph =
+                collect( project, pluginManagedVersions, localRepository, separately );
+
+            start = System.currentTimeMillis();
+            fetchFiles( executor, graph, localRepository );
+            log.info( "Resolved the files of " + graph.size() + " artifacts in "
+                + ( System.currentTimeMillis() - start ) + " ms." );
+
+            return new LinkedHashSet<Artifact>( graph.keySet() );
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Walk the graph from the project's direct artifacts, fetching each POM concurrently and reading its dependencies
+     * (on this thread, as the metadata source is not thread-safe) as soon as it is local. Dependencies are managed
+     * and filtered as {@link #collect} will do. POMs that cannot be fetched are skipped; the collector reports them.
+     *
+     * @return the number of POMs fetched.
+     */
+    @SuppressWarnings( "unchecked" )
+    private int fetchPoms( final ExecutorService executor, final MavenProject project,
+                           final Map<String, Map<String, Artifact>> pluginManagedVersions,
+                           final ArtifactRepository localRepository, final boolean separately )
+        throws MojoExecutionException
+    {
+        final List<ArtifactRepository> remoteRepositories = project.getRemoteArtifactRepositories();
+
+        List<Node> queue = new ArrayList<Node>();
+        for ( Artifact artifact : (Set<Artifact>) project.getDependencyArtifacts() )
+        {
+            Map<String, Artifact> managed = getManagedVersions( project, pluginManagedVersions, artifact, separately );
+            queue.add( new Node( artifact, artifact.getVersion(), managed, artifact.getDependencyFilter() ) );
+        }
+
+        CompletionService<Node> completion = new ExecutorCompletionService<Node>( executor );
+        Set<String> walked = new HashSet<String>();
+        int pending = 0;
+        int fetched = 0;
+
+        while ( true )
+        {
+            for ( final Node node : queue )
+            {
+                Artifact a = node.artifact;
+                if ( node.version == null || Artifact.SCOPE_SYSTEM.equals( a.getScope() )
+                    || !walked.add( a.getDependencyConflictId() ) )
+                {
+                    continue;
+                }
+
+                completion.submit( new Callable<Node>()
+                {
+                    public Node call()
+                        throws Exception
+                    {
+                        Artifact a = node.artifact;
+                        Artifact pom = artifactFactory.createProjectArtifact( a.getGroupId(), a.getArtifactId(),
+                                                                              node.version );
+
+                        List<ArtifactRepository> repositories = remoteRepositories;
+                        if ( fetcher != null )
+                        {
+                            repositories = fetcher.fetch( pom, remoteRepositories, localRepository );
+                        }
+                        artifactResolver.resolve( pom, repositories, localRepository );
+
+                        return node;
+                    }
+                } );
+                pending++;
+            }
+            queue.clear();
+
+            if ( pending < 1 )
+            {
+                return fetched;
+            }
+
+            Node node;
+            try
+            {
+                node = completion.take().get();
+            }
+            catch ( ExecutionException e )
+            {
+                log.debug( "Failed to fetch POM ahead of mediation: " + e.getCause() );
+                pending--;
+                continue;
+            }
+            catch ( InterruptedException e )
+            {
+                throw new MojoExecutionException( "Interrupted while fetching POMs.", e );
+            }
+            pending--;
+            fetched++;
+
+            ResolutionGroup group;
+            try
+            {
+                Artifact a = node.artifact;
+                if ( !node.version.equals( a.getVersion() ) )
+                {
+                    a = artifactFactory.createDependencyArtifact( a.getGroupId(), a.getArtifactId(),
+                                                                  VersionRange.createFromVersion( node.version ),
+                                                                  a.getType(), a.getClassifier(), a.getScope() );
+                }
+
+                // scope inheritance is applied by the metadata source.
+                group = metadataSource.retrieve( a, localRepository, remoteRepositories );
+            }
+            catch ( ArtifactMetadataRetrievalException e )
+            {
+                log.debug( "Failed to read dependencies of: " + node.artifact.getId() + ": " + e.getMessage() );
+                continue;
+            }
+
+            if ( group != null && group.getArtifacts() != null )
+            {
+                for ( Artifact child : (Set<Artifact>) group.getArtifacts() )
+                {
+                    if ( child.isOptional() || ( filter != null && !filter.include( child ) )
+                        || ( node.filter != null && !node.filter.include( child ) ) )
+                    {
+                        continue;
+                    }
+
+                    String version = child.getVersion();
+                    Artifact managedArtifact =
+                        node.managed == null ? null : node.managed.get( child.getDependencyConflictId() );
+                    if ( managedArtifact != null && managedArtifact.getVersion() != null )
+                    {
+                        version = managedArtifact.getVersion();
+                    }
+
+                    queue.add( new Node( child, version, node.managed,
+                                         and( node.filter, child.getDependencyFilter() ) ) );
+                }
+            }
+        }
+    }
+
+    /**
+     * The dependency management the collector applies below the given direct artifact.
+     */
+    @SuppressWarnings( "unchecked" )
+    private Map<String, Artifact> getManagedVersions( final MavenProject project,
+                                                      final Map<String, Map<String, Artifact>> pluginManagedVersions,
+                                                      final Artifact artifact, final boolean separately )
+    {
+        if ( !separately )
+        {
+            return project.getManagedVersionMap();
+        }
+
+        Map<String, Artifact> managed = pluginManagedVersions.get( artifact.getDependencyConflictId() );
+        return managed == null ? defaultManagedVersions : managed;
+    }
+
+    private static ArtifactFilter and( final ArtifactFilter first, final ArtifactFilter second )
+    {
+        if ( first == null )
+        {
+            return second;
+        }
+        else if ( second == null )
+        {
+            return first;
+        }
+
+        AndArtifactFilter and = new AndArtifactFilter();
+        and.add( first );
+        and.add( second );
+        return and;
+    }
+
+    /**
+     * Mediate the graph, as Maven's resolver does before fetching any file.
+     *
+     * @return the graph's artifacts, with the repositories each is resolved from.
+     */
+    @SuppressWarnings( "unchecked" )
+    private Map<Artifact, List<ArtifactRepository>> collect( final MavenProject project,
+                                                             final Map<String, Map<String, Artifact>> managedVersions,
+                                                             final ArtifactRepository localRepository,
+                                                             final boolean separately )
+        throws MojoExecutionException
+    {
+        List<ArtifactRepository> remoteRepositories = project.getRemoteArtifactRepositories();
+        Map<Artifact, List<ArtifactRepository>> graph = new LinkedHashMap<Artifact, List<ArtifactRepository>>();
+        try
+        {
+            if ( separately )
+            {
+                for ( Artifact artifact : (Set<Artifact>) project.getDependencyArtifacts() )
+                {
+                    Map<String, Artifact> managed = getManagedVersions( project, managedVersions, artifact, true );
+
+                    addNodes( graph, artifactCollector.collect( Collections.singleton( artifact ),
+                                                                project.getArtifact(), managed, localRepository,
+                                                                remoteRepositories, metadataSource, filter,
+                                                                Collections.EMPTY_LIST ) );
+                }
+            }
+            else
+            {
+                Map<String, Artifact> managed = project.getManagedVersionMap();
+                addNodes( graph, artifactCollector.collect( project.getDependencyArtifacts(), project.getArtifact(),
+                                                            managed == null ? Collections.EMPTY_MAP : managed,
+                                                            localRepository, remoteRepositories, metadataSource,
+                                                            filter, Collections.EMPTY_LIST ) );
+            }
+        }
+        catch ( ArtifactResolutionException e )
+        {
+            throw new MojoExecutionException( "Failed to resolve project artifacts: " + e.getMessage(), e );
+        }
+
+        return graph;
+    }
+
+    @SuppressWarnings( "unchecked" )
+    private static void addNodes( final Map<Artifact, List<ArtifactRepository>> graph,
+                                  final ArtifactResolutionResult result )
+    {
+        for ( ResolutionNode node : (Set<ResolutionNode>) result.getArtifactResolutionNodes() )
+        {
+            if ( !graph.containsKey( node.getArtifact() ) )
+            {
+                graph.put( node.getArtifact(), node.getRemoteRepositories() );
+            }
+        }
+    }
+
+    private void fetchFiles( final ExecutorService executor, final Map<Artifact, List<ArtifactRepository>> graph,
+                             final ArtifactRepository localRepository )
+        throws MojoExecutionException
+    {
+        CompletionService<Object> completion = new ExecutorCompletionService<Object>( executor );
+        for ( final Map.Entry<Artifact, List<ArtifactRepository>> entry : graph.entrySet() )
+        {
+            completion.submit( new Callable<Object>()
+            {
+                public Object call()
+                    throws Exception
+                {
+                    Artifact a = entry.getKey();
+                    List<ArtifactRepository> repositories = entry.getValue();
+                    if ( fetcher != null )
+                    {
+                        repositories = fetcher.fetch( a, repositories, localRepository );
+                    }
+                    artifactResolver.resolve( a, repositories, localRepository );
+
+                    return null;
+                }
+            } );
+        }
+
+        for ( int i = 0; i < graph.size(); i++ )
+        {
+            try
+            {
+                completion.take().get();
+            }
+            catch ( ExecutionException e )
+            {
+                Throwable cause = e.getCause();
+                throw new MojoExecutionException( "Failed to resolve project artifacts: " + cause.getMessage(), cause );
+            }
+            catch ( InterruptedException e )
+            {
+                throw new MojoExecutionException( "Interrupted while resolving project artifacts.", e );
+            }
+        }
+    }
+
+    /**
+     * A node of the ahead-of-time walk: the dependency, the (managed) version to fetch, the dependency management of
+     * its root, and the exclusions collected on the way down.
+     */
+    private static final class Node
+    {
+
+        private final Artifact artifact;
+
+        private final String version;
+
+        private final Map<String, Artifact> managed;
+
+        private final ArtifactFilter filter;
+
+        Node( final Artifact artifact, final String version, final Map<String, Artifact> managed,
+              final ArtifactFilter filter )
+        {
+            this.artifact = artifact;
+            this.version = version;
+            this.managed = managed;
+            this.filter = filter;
+        }
+
+    }
+
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2009 Sonatype, Inc.                                                                                                                          
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ */
+package org.apache.maven.plugin.repository.collector;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.resolver.filter.ArtifactFilter;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Include/exclude filter over artifact coordinates. Patterns have the form
+ * <code>groupId[:artifactId[:type[:classifier[:version]]]]</code>; omitted trailing fields match anything, each
+ * field may contain '*' wildcards, and an empty classifier field matches only artifacts without a classifier.
+ * <br/>
+ * Patterns are indexed by their literal groupId (and groupId:artifactId, where both are literal), so only the
+ * handful of candidate patterns for a given artifact are ever evaluated, regardless of the size of the pattern set.
+ */
+public class CoordinatePatternFilter
+    implements ArtifactFilter
+{
+
+    private final PatternSet includes;
+
+    private final PatternSet excludes;
+
+    public CoordinatePatternFilter( final Collection<String> includes, final Collection<String> excludes )
+    {
+        this.includes = new PatternSet( includes );
+        this.excludes = new PatternSet( excludes );
+    }
+
+    public boolean include( final Artifact artifact )
+    {
+        String[] coordinate = toCoordinate( artifact );
+
+        if ( !includes.isEmpty() && !includes.matches( coordinate ) )
+        {
+            return false;
+        }
+
+        return !excludes.matches( coordinate );
+    }
+
+    public boolean isEmpty()
+    {
+        return includes.isEmpty() && excludes.isEmpty();
+    }
+
+    private static String[] toCoordinate( final Artifact artifact )
+    {
+        String version = artifact.getVersion();
+        if ( version == null && artifact.getVersionRange() != null )
+        {
+            version = artifact.getVersionRange().toString();
+        }
+
+        return new String[] { artifact.getGroupId(), artifact.getArtifactId(), artifact.getType(),
+            artifact.getClassifier() == null ? "" : artifact.getClassifier(), version == null ? "" : version };
+    }
+
+    private static final class PatternSet
+    {
+        private final Map<String, List<String[]>> byGroupAndArtifact = new HashMap<String, List<String[]>>();
+
+        private final Map<String, List<String[]>> byGroup = new HashMap<String, List<String[]>>();
+
+        private final List<String[]> unindexed = new ArrayList<String[]>();
+
+        private int size;
+
+        PatternSet( final Collection<String> patterns )
+        {
+            if ( patterns == null )
+            {
+                return;
+            }
+
+            for ( String pattern : patterns )
+            {
+                if ( pattern == null || pattern.trim().length() < 1 )
+                {
+                    continue;
+                }
+
+                String[] parts = parse( pattern.trim() );
+                if ( isLiteral( parts[0] ) && isLiteral( parts[1] ) )
+                {
+                    add( byGroupAndArtifact, parts[0] + ":" + parts[1], parts );
+                }
+                else if ( isLiteral( parts[0] ) )
+                {
+                    add( byGroup, parts[0], parts );
+                }
+                else
+                {
+                    unindexed.add( parts );
+                }
+
+                size++;
+            }
+        }
+
+        boolean isEmpty()
+        {
+            return size < 1;
+        }
+
+        boolean matches( final String[] coordinate )
+        {
+            return matchesAny( byGroupAndArtifact.get( coordinate[0] + ":" + coordinate[1] ), coordinate )
+                || matchesAny( byGroup.get( coordinate[0] ), coordinate ) || matchesAny( unindexed, coordinate );
+        }
+
+        private static boolean matchesAny( final List<String[]> patterns, final String[] coordinate )
+        {
+            if ( patterns != null )
+            {
+                for ( String[] pattern : patterns )
+                {
+                    boolean matched = true;
+                    for ( int i = 0; matched && i < pattern.length; i++ )
+                    {
+                        matched = matchField( pattern[i], coordinate[i] );
+                    }
+
+                    if ( matched )
+                    {
+                        return true;
+                    }
+                }
+            }
+
+            return false;
+        }
+
+        private static void add( final Map<String, List<String[]>> index, final String key, final String[] pattern )
+        {
+            List<String[]> patterns = index.get( key );
+            if ( patterns == null )
+            {
+                patterns = new ArrayList<String[]>( 2 );
+                index.put( key, patterns );
+            }
+
+            patterns.add( pattern );
+        }
+
+        private static String[] parse( final String pattern )
+        {
+            String[] parts = { "*", "*", "*", "*", "*" };
+
+            int start = 0;
+            for ( int i = 0; i < parts.length; i++ )
+            {
+                int end = pattern.indexOf( ':', start );
+                if ( end < 0 || i == parts.length - 1 )
+                {
+                    parts[i] = pattern.substring( start );
+                    break;
+                }
+
+                parts[i] = pattern.substring( start, end );
+                start = end + 1;
+            }
+
+            // an empty classifier is meaningful (no classifier); any other empty field means "anything".
+            for ( int i = 0; i < parts.length; i++ )
+            {
+                if ( i != 3 && parts[i].length() < 1 )
+                {
+                    parts[i] = "*";
+                }
+            }
+
+            return parts;
+        }
+
+        private static boolean isLiteral( final String field )
+        {
+            return field.indexOf( '*' ) < 0;
+        }
+
+        private static boolean matchField( final String pattern, final String value )
+        {
+            if ( "*".equals( pattern ) )
+            {
+                return true;
+            }
+            else if ( isLiteral( pattern ) )
+            {
+                return pattern.equals( value );
+            }
+
+            return matchWildcard( pattern, 0, value, 0 );
+        }
+
+        private static boolean matchWildcard( final String pattern, final int pIdx, final String value, final int vIdx )
+        {
+            int p = pIdx;
+            int v = vIdx;
+            while ( p < pattern.length() )
+            {
+                char c = pattern.charAt( p );
+                if ( c == '*' )
+                {
+                    if ( p == pattern.length() - 1 )
+                    {
+                        return true;
+                    }
+
+                    for ( int i = v; i <= value.length(); i++ )
+                    {
+                        if ( matchWildcard( pattern, p + 1, value, i ) )
+                        {
+                            return true;
+                        }
+                    }
+
+                    return false;
+                }
+                else if ( v >= value.length() || c != value.charAt( v ) )
+                {
+                    return false;
+                }
+
+                p++;
+                v++;
+            }
+
+            return v == value.length();
+        }
+    }
+
+}
@@ -0,0 +1,342 @@
+/*
+ * Copyright (C) 2009 Sonatype, Inc.                                                                                                                          
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ */
+package org.apache.maven.plugin.repository.collector;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.factory.ArtifactFactory;
+import org.apache.maven.artifact.repository.ArtifactRepository;
+import org.apache.maven.artifact.resolver.filter.AndArtifactFilter;
+import org.apache.maven.artifact.resolver.filter.ArtifactFilter;
+import org.apache.maven.artifact.resolver.filter.ExcludesArtifactFilter;
+import org.apache.maven.artifact.versioning.VersionRange;
+import org.apache.maven.model.Dependency;
+import org.apache.maven.model.Exclusion;
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.util.IOUtil;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Delegates transitive resolution to a {@link ResolutionDaemon} on a loopback port. Whenever the daemon is not
+ * running, does not understand the request or fails, the caller gets null back and resolves locally as usual. So does
+ * a listener on the port that cannot prove it holds the token in the daemon's token file.
+ */
+public class DaemonClient
+{
+
+    private static final int CONNECT_TIMEOUT = 500;
+
+    private static final int PROOF_TIMEOUT = 10000;
+
+    private static final int READ_TIMEOUT = 30 * 60000;
+
+    private final int port;
+
+    private final File tokenFile;
+
+    private final ArtifactFactory artifactFactory;
+
+    private final Log log;
+
+    public DaemonClient( final int port, final File tokenFile, final ArtifactFactory artifactFactory, final Log log )
+    {
+        this.port = port;
+        this.tokenFile = tokenFile;
+        this.artifactFactory = artifactFactory;
+        this.log = log;
+    }
+
+    /**
+     * Resolve the given direct artifacts, and their transitive dependencies, into the local repository.
+     *
+     * @param managedVersions the synthetic project's dependency management; may be null.
+     * @param patternFilter the include/exclude filter attached to the artifacts; may be null.
+     * @param declared the project dependencies the artifacts were created from, for their exclusions.
+     * @return the resolved artifacts, or null when the daemon could not resolve them.
+     */
+    public Set<Artifact> resolve( final Set<Artifact> artifacts, final Artifact originating,
+                                  final Map<String, Artifact> managedVersions,
+                                  final ArtifactRepository localRepository,
+                                  final List<ArtifactRepository> remoteRepositories,
+                                  final ArtifactFilter patternFilter, final Collection<String> includes,
+                                  final Collection<String> excludes, final List<Dependency> declared )
+    {
+        String token;
+        try
+        {
+            token = ResolutionDaemon.readToken( tokenFile );
+        }
+        catch ( IOException e )
+        {
+            log.warn( "Failed to read the resolution daemon token: " + e.getMessage() + "; resolving locally." );
+            return null;
+        }
+
+        if ( token == null )
+        {
+            log.info( "No resolution daemon token in: " + tokenFile + "; resolving locally." );
+            return null;
+        }
+
+        List<String> request = createRequest( artifacts, originating, managedVersions, localRepository,
+                                              remoteRepositories, patternFilter, includes, excludes, declared );
+        if ( request == null )
+        {
+            return null;
+        }
+
+        String nonce = ResolutionDaemon.createNonce( 16 );
+        request.add( 1, "auth " + nonce + " " + ResolutionDaemon.sign( token, "client " + nonce ) );
+
+        Socket socket = new Socket();
+        BufferedReader reader = null;
+        Writer writer = null;
+        try
+        {
+            socket.connect( new InetSocketAddress( "127.0.0.1", port ), CONNECT_TIMEOUT );
+            socket.setSoTimeout( PROOF_TIMEOUT );
+
+            writer = new OutputStreamWriter( socket.getOutputStream(), "UTF-8" );
+            for ( String line : request )
+            {
+                writer.write( line );
+                writer.write( '\n' );
+            }
+            writer.write( "end\n" );
+            writer.flush();
+
+            reader = new BufferedReader( new InputStreamReader( socket.getInputStream(), "UTF-8" ) );
+            String line = reader.readLine();
+            if ( !ResolutionDaemon.PROTOCOL.equals( line ) )
+            {
+                log.warn( "Unexpected reply from port: " + port + " (not a resolution daemon?); resolving locally." );
+                return null;
+            }
+
+            line = reader.readLine();
+            if ( line != null && line.startsWith( "error " ) )
+            {
+                log.warn( "Resolution daemon refused the request: " + line.substring( "error ".length() )
+                    + "; resolving locally." );
+                return null;
+            }
+            else if ( line == null || !line.startsWith( "proof " )
+                || !ResolutionDaemon.isSignedBy( token, "daemon " + nonce, line.substring( "proof ".length() ) ) )
+            {
+                log.warn( "The listener on port: " + port + " did not prove it holds the resolution daemon token;"
+                    + " resolving locally." );
+                return null;
+            }
+            socket.setSoTimeout( READ_TIMEOUT );
+
+            Set<Artifact> result = new LinkedHashSet<Artifact>();
+            while ( ( line = reader.readLine() ) != null )
+            {
+                if ( "end".equals( line ) )
+                {
+                    return result;
+                }
+                else if ( line.startsWith( "error " ) )
+                {
+                    log.warn( "Resolution daemon failed: " + line.substring( "error ".length() )
+                        + "; resolving locally." );
+                    return null;
+                }
+
+                result.add( toArtifact( line ) );
+            }
+
+            log.warn( "Resolution daemon closed the connection early; resolving locally." );
+            return null;
+        }
+        catch ( ConnectException e )
+        {
+            log.info( "No resolution daemon on port: " + port + "; resolving locally." );
+            return null;
+        }
+        catch ( IOException e )
+        {
+            log.warn( "Failed to use resolution daemon on port: " + port + ": " + e.getMessage()
+                + "; resolving locally." );
+            return null;
+        }
+        finally
+        {
+            IOUtil.close( writer );
+            IOUtil.close( reader );
+            try
+            {
+                socket.close();
+            }
+            catch ( IOException e )
+            {
+                // nothing left to do with it.
+            }
+        }
+    }
+
+    @SuppressWarnings( "unchecked" )
+    private List<String> createRequest( final Set<Artifact> artifacts, final Artifact originating,
+                                        final Map<String, Artifact> managedVersions,
+                                        final ArtifactRepository localRepository,
+                                        final List<ArtifactRepository> remoteRepositories,
+                                        final ArtifactFilter patternFilter, final Collection<String> includes,
+                                        final Collection<String> excludes, final List<Dependency> declared )
+    {
+        List<String> request = new ArrayList<String>();
+        request.add( ResolutionDaemon.PROTOCOL );
+        request.add( "local " + new File( localRepository.getBasedir() ).getAbsolutePath() );
+
+        for ( ArtifactRepository r : remoteRepositories )
+        {
+            request.add( "remote " + r.getId() + " " + ResolutionDaemon.toToken( r.getReleases() ) + " "
+                + ResolutionDaemon.toToken( r.getSnapshots() ) + " " + r.getUrl() );
+        }
+
+        if ( patternFilter != null )
+        {
+            if ( includes != null )
+            {
+                for ( String include : includes )
+                {
+                    request.add( "include " + include );
+                }
+            }
+            if ( excludes != null )
+            {
+                for ( String exclude : excludes )
+                {
+                    request.add( "exclude " + exclude );
+                }
+            }
+        }
+
+        request.add( "originating " + originating.getGroupId() + ":" + originating.getArtifactId() + ":"
+            + originating.getType() + ":" + originating.getVersion() );
+
+        if ( managedVersions != null )
+        {
+            for ( Artifact m : managedVersions.values() )
+            {
+                if ( m.getDependencyFilter() != null || m.getVersion() == null )
+                {
+                    log.info( "Not delegating to the resolution daemon: managed " + m.getDependencyConflictId()
+                        + " has exclusions or no version." );
+                    return null;
+                }
+
+                request.add( "managed " + m.getGroupId() + ":" + m.getArtifactId() + ":" + m.getType() + ":"
+                    + ( m.getClassifier() == null ? "" : m.getClassifier() ) + ":" + m.getVersion() + ":"
+                    + ( m.getScope() == null ? "" : m.getScope() ) );
+            }
+        }
+
+        for ( Artifact a : artifacts )
+        {
+            String version = a.getVersion() != null ? a.getVersion() : a.getVersionRange().toString();
+            request.add( "artifact " + a.getGroupId() + ":" + a.getArtifactId() + ":" + a.getType() + ":"
+                + ( a.getClassifier() == null ? "" : a.getClassifier() ) + ":" + version + ":" + a.getScope() + ":"
+                + a.isOptional() );
+
+            ArtifactFilter filter = a.getDependencyFilter();
+            if ( filter instanceof ExcludesArtifactFilter || filter instanceof AndArtifactFilter )
+            {
+                // exclusions can't be read back from the filter, so they come from the declaring dependency.
+                Dependency d = findDeclaration( a, declared );
+                if ( d == null || d.getExclusions() == null || d.getExclusions().isEmpty() )
+                {
+                    log.info( "Not delegating to the resolution daemon: " + a.getId()
+                        + " has a dependency filter it cannot reproduce." );
+                    return null;
+                }
+
+                for ( Exclusion e : d.getExclusions() )
+                {
+                    request.add( "exclusion " + e.getGroupId() + ":" + e.getArtifactId() );
+                }
+            }
+            else if ( filter != null && filter != patternFilter )
+            {
+                log.info( "Not delegating to the resolution daemon: " + a.getId()
+                    + " has a dependency filter it cannot reproduce." );
+                return null;
+            }
+
+            if ( Artifact.SCOPE_SYSTEM.equals( a.getScope() ) && a.getFile() != null )
+            {
+                request.add( "system " + a.getFile().getAbsolutePath() );
+            }
+        }
+
+        return request;
+    }
+
+    private static Dependency findDeclaration( final Artifact a, final List<Dependency> declared )
+    {
+        if ( declared != null )
+        {
+            for ( Dependency d : declared )
+            {
+                if ( a.getGroupId().equals( d.getGroupId() ) && a.getArtifactId().equals( d.getArtifactId() )
+                    && a.getType().equals( d.getType() )
+                    && ( a.getClassifier() == null ? d.getClassifier() == null
+                                    : a.getClassifier().equals( d.getClassifier() ) ) )
+                {
+                    return d;
+                }
+            }
+        }
+
+        return null;
+    }
+
+    private Artifact toArtifact( final String line )
+        throws IOException
+    {
+        int space = line.indexOf( ' ', "artifact ".length() );
+        String[] fields = space < 0 ? null : line.substring( "artifact ".length(), space ).split( ":", -1 );
+        if ( !line.startsWith( "artifact " ) || fields == null || fields.length != 7 )
+        {
+            throw new IOException( "Invalid reply line: " + line );
+        }
+
+        Artifact a =
+            artifactFactory.createDependencyArtifact( fields[0], fields[1], VersionRange.createFromVersion( fields[4] ),
+                                                      fields[2], fields[3].length() < 1 ? null : fields[3], fields[5],
+                                                      Boolean.valueOf( fields[6] ).booleanValue() );
+        a.setFile( new File( line.substring( space + 1 ) ) );
+        a.setResolved( true );
+
+        return a;
+    }
+
+}
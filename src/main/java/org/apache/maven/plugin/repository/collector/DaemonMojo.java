@@ -0,0 +1,241 @@
+/*
+ * Copyright (C) 2009 Sonatype, Inc.                                                                                                                          
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ */
+package org.apache.maven.plugin.repository.collector;
+
+import org.apache.maven.ProjectDependenciesResolver;
+import org.apache.maven.artifact.factory.ArtifactFactory;
+import org.apache.maven.artifact.metadata.ArtifactMetadataSource;
+import org.apache.maven.artifact.repository.ArtifactRepository;
+import org.apache.maven.artifact.resolver.ArtifactResolver;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.plugin.Mojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.List;
+
+/**
+ * Run a long-lived resolution daemon on a loopback port, for resolve goals in other builds on the same machine to
+ * delegate transitive resolution to (see useDaemon). The daemon keeps Maven's POM and metadata caches and its own
+ * cache of resolved graphs warm between builds, so repeated builds skip most of the model building. It uses this
+ * process's settings (mirrors, proxies, credentials) and local repository for every request, only serves requests
+ * for the remote repositories configured here, and runs until it is stopped or idle for idleTimeout minutes.
+ * <br/>
+ * Clients must be able to read the token written to tokenFile, which is readable by the current user only and is
+ * removed when the daemon stops.
+ *
+ * @goal daemon
+ * @requiresProject false
+ * @threadSafe
+ */
+public class DaemonMojo
+    implements Mojo
+{
+
+    /**
+     * @parameter expression="${collector.daemonPort}" default-value="18733"
+     */
+    private int port;
+
+    /**
+     * Number of requests served at the same time. Graphs that are not cached yet are resolved one at a time.
+     *
+     * @parameter expression="${collector.threads}" default-value="5"
+     */
+    private int threads;
+
+    /**
+     * How long, in minutes, a resolved graph is reused. Graphs containing SNAPSHOTs are never reused.
+     *
+     * @parameter expression="${collector.daemonCacheTtl}" default-value="60"
+     */
+    private int cacheTtl;
+
+    /**
+     * Approximate memory, in megabytes, the cache of resolved graphs may use. The least recently used graphs are
+     * evicted first.
+     *
+     * @parameter expression="${collector.daemonMemory}" default-value="64"
+     */
+    private int memory;
+
+    /**
+     * Stop after this many minutes without requests. 0 runs until the process is stopped.
+     *
+     * @parameter expression="${collector.daemonIdleTimeout}" default-value="0"
+     */
+    private int idleTimeout;
+
+    /**
+     * The file the daemon's secret token is written to. Its directory is made accessible to the current user only, so
+     * it should not be shared with other files.
+     *
+     * @parameter expression="${collector.daemonTokenFile}" default-value="${user.home}/.m2/collector-daemon/token"
+     */
+    private File tokenFile;
+
+    /**
+     * @parameter default-value="${project.remoteArtifactRepositories}"
+     * @readonly
+     */
+    private List<ArtifactRepository> remoteRepositories;
+
+    /**
+     * @parameter default-value="${session}"
+     * @readonly
+     * @required
+     */
+    private MavenSession session;
+
+    /**
+     * @component
+     */
+    private ArtifactFactory artifactFactory;
+
+    /**
+     * @component
+     */
+    private ProjectDependenciesResolver projectResolver;
+
+    /**
+     * @component
+     */
+    private ArtifactResolver artifactResolver;
+
+    /**
+     * @component
+     */
+    private ArtifactMetadataSource metadataSource;
+
+    private Log log;
+
+    public void execute()
+        throws MojoExecutionException, MojoFailureException
+    {
+        String token = ResolutionDaemon.createToken();
+        ResolutionDaemon daemon =
+            new ResolutionDaemon( artifactFactory, projectResolver, artifactResolver, metadataSource, session,
+                                  remoteRepositories, token, cacheTtl * 60000L, memory * 1024L * 1024L, getLog() );
+
+        ServerSocket server = null;
+        try
+        {
+            server = new ServerSocket( port, 50, InetAddress.getByName( "127.0.0.1" ) );
+            ResolutionDaemon.writeToken( tokenFile, token );
+            getLog().info( "Resolution daemon listening on 127.0.0.1:" + port + ", serving "
+                               + session.getLocalRepository().getBasedir() + "; token in: " + tokenFile );
+
+            daemon.serve( server, threads, idleTimeout * 60000 );
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Resolution daemon failed on port: " + port + ": " + e.getMessage(), e );
+        }
+        finally
+        {
+            if ( server != null )
+            {
+                tokenFile.delete();
+                try
+                {
+                    server.close();
+                }
+                catch ( IOException e )
+                {
+                    getLog().debug( "Failed to close daemon socket: " + e.getMessage() );
+                }
+            }
+        }
+    }
+
+    public Log getLog()
+    {
+        return log;
+    }
+
+    public void setLog( final Log log )
+    {
+        this.log = log;
+    }
+
+    public int getPort()
+    {
+        return port;
+    }
+
+    public void setPort( final int port )
+    {
+        this.port = port;
+    }
+
+    public File getTokenFile()
+    {
+        return tokenFile;
+    }
+
+    public void setTokenFile( final File tokenFile )
+    {
+        this.tokenFile = tokenFile;
+    }
+
+    public int getThreads()
+    {
+        return threads;
+    }
+
+    public void setThreads( final int threads )
+    {
+        this.threads = threads;
+    }
+
+    public int getCacheTtl()
+    {
+        return cacheTtl;
+    }
+
+    public void setCacheTtl( final int cacheTtl )
+    {
+        this.cacheTtl = cacheTtl;
+    }
+
+    public int getMemory()
+    {
+        return memory;
+    }
+
+    public void setMemory( final int memory )
+    {
+        this.memory = memory;
+    }
+
+    public int getIdleTimeout()
+    {
+        return idleTimeout;
+    }
+
+    public void setIdleTimeout( final int idleTimeout )
+    {
+        this.idleTimeout = idleTimeout;
+    }
+
+}
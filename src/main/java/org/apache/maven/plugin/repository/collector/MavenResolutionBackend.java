@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2009 Sonatype, Inc.                                                                                                                          
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ */
+package org.apache.maven.plugin.repository.collector;
+
+import org.apache.maven.ProjectDependenciesResolver;
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.metadata.ArtifactMetadataSource;
+import org.apache.maven.artifact.repository.ArtifactRepository;
+import org.apache.maven.artifact.resolver.ArtifactNotFoundException;
+import org.apache.maven.artifact.resolver.ArtifactResolutionException;
+import org.apache.maven.artifact.resolver.ArtifactResolutionResult;
+import org.apache.maven.artifact.resolver.ArtifactResolver;
+import org.apache.maven.artifact.resolver.filter.ArtifactFilter;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.project.MavenProject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * The default backend: Maven's own ProjectDependenciesResolver for a single mediated graph, or its ArtifactResolver
+ * for one graph per direct artifact. Both fetch one file at a time.
+ */
+public class MavenResolutionBackend
+    implements ResolutionBackend
+{
+
+    private final ProjectDependenciesResolver projectResolver;
+
+    private final ArtifactResolver artifactResolver;
+
+    private final ArtifactMetadataSource metadataSource;
+
+    private final MavenSession session;
+
+    private final Map<String, Artifact> defaultManagedVersions;
+
+    private final ArtifactFilter filter;
+
+    private final Log log;
+
+    /**
+     * @param session the build session; a single graph is resolved through a copy of it when another local
+     *            repository is asked for.
+     * @param defaultManagedVersions dependency management for direct artifacts that are not plugins.
+     * @param filter the include/exclude filter; may be null.
+     */
+    public MavenResolutionBackend( final ProjectDependenciesResolver projectResolver,
+                                   final ArtifactResolver artifactResolver,
+                                   final ArtifactMetadataSource metadataSource, final MavenSession session,
+                                   final Map<String, Artifact> defaultManagedVersions, final ArtifactFilter filter,
+                                   final Log log )
+    {
+        this.projectResolver = projectResolver;
+        this.artifactResolver = artifactResolver;
+        this.metadataSource = metadataSource;
+        this.session = session;
+        this.defaultManagedVersions = defaultManagedVersions;
+        this.filter = filter;
+        this.log = log;
+    }
+
+    @SuppressWarnings( "unchecked" )
+    public Set<Artifact> resolve( final MavenProject project,
+                                  final Map<String, Map<String, Artifact>> pluginManagedVersions,
+                                  final ArtifactRepository localRepository, final boolean separately )
+        throws MojoExecutionException
+    {
+        try
+        {
+            if ( !separately )
+            {
+                Set<String> scopes = new HashSet<String>();
+                scopes.add( Artifact.SCOPE_TEST );
+                scopes.add( Artifact.SCOPE_RUNTIME );
+
+                return projectResolver.resolve( project, scopes, withLocalRepository( session, localRepository ) );
+            }
+
+            log.info( "Resolving " + project.getDependencyArtifacts().size() + " artifacts." );
+
+            Set<Artifact> result = new LinkedHashSet<Artifact>();
+            for ( Artifact artifact : (Set<Artifact>) project.getDependencyArtifacts() )
+            {
+                log.debug( "Resolving: " + artifact.getId() );
+
+                Map<String, Artifact> managed = pluginManagedVersions.get( artifact.getDependencyConflictId() );
+                if ( managed == null )
+                {
+                    managed = defaultManagedVersions;
+                }
+
+                ArtifactResolutionResult resolution =
+                    artifactResolver.resolveTransitively( Collections.singleton( artifact ), project.getArtifact(),
+                                                          managed, localRepository,
+                                                          project.getRemoteArtifactRepositories(), metadataSource,
+                                                          filter );
+
+                result.addAll( resolution.getArtifacts() );
+            }
+
+            return result;
+        }
+        catch ( ArtifactResolutionException e )
+        {
+            throw new MojoExecutionException( "Failed to resolve project artifacts: " + e.getMessage(), e );
+        }
+        catch ( ArtifactNotFoundException e )
+        {
+            throw new MojoExecutionException( "Failed to resolve project artifacts: " + e.getMessage(), e );
+        }
+    }
+
+    /**
+     * The given session, or a copy of it using another local repository. ProjectDependenciesResolver only takes the
+     * local repository from the session.
+     */
+    @SuppressWarnings( "unchecked" )
+    static MavenSession withLocalRepository( final MavenSession session, final ArtifactRepository localRepository )
+    {
+        ArtifactRepository current = session.getLocalRepository();
+        if ( localRepository == null
+            || ( current != null && localRepository.getBasedir().equals( current.getBasedir() ) ) )
+        {
+            return session;
+        }
+
+        Properties executionProperties = new Properties();
+        executionProperties.putAll( session.getExecutionProperties() );
+
+        Properties userProperties = new Properties();
+        if ( session.getUserProperties() != null )
+        {
+            userProperties.putAll( session.getUserProperties() );
+        }
+
+        return new MavenSession( session.getContainer(), session.getSettings(), localRepository,
+                                 session.getEventDispatcher(), null, new ArrayList<String>( session.getGoals() ),
+                                 session.getExecutionRootDirectory(), executionProperties, userProperties,
+                                 session.getStartTime() );
+    }
+
+}
@@ -0,0 +1,462 @@
+/*
+ * Copyright (C) 2009 Sonatype, Inc.                                                                                                                          
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ */
+package org.apache.maven.plugin.repository.collector;
+
+import org.apache.maven.artifact.factory.ArtifactFactory;
+import org.apache.maven.plugin.Mojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.util.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Merge repositories produced by sharded collect/resolve runs (see shardIndex/shardCount) into one repository.
+ * Identical files are only copied once, and the shard manifests are checked to make sure the shards together cover
+ * exactly the direct-artifact set an unsharded run would have used, for every project that was sharded into them.
+ * When the shards carry a collected-repository index, the repository metadata and the index of the merged repository
+ * are regenerated from the union of the shard indexes rather than copied from any one shard.
+ *
+ * @goal merge-shards
+ * @threadSafe
+ */
+public class MergeShardsMojo
+    implements Mojo
+{
+
+    /**
+     * Repository directories written by the individual shard runs.
+     *
+     * @parameter
+     * @required
+     */
+    private List<File> shardDirectories;
+
+    /**
+     * @parameter expression="${collector.mergeOutputDirectory}"
+     *            default-value="${project.build.directory}/merged-repository"
+     * @required
+     */
+    private File outputDirectory;
+
+    /**
+     * Repository produced by an unsharded run. When given, the merged repository must contain exactly the same
+     * artifact files.
+     *
+     * @parameter expression="${collector.referenceDirectory}"
+     */
+    private File referenceDirectory;
+
+    /**
+     * @component
+     */
+    private ArtifactFactory artifactFactory;
+
+    /**
+     * Prefix of the plugin's own bookkeeping files (shard manifests, index, caches, run manifests), which are
+     * specific to each shard and never merged.
+     */
+    private static final String COLLECTOR_FILE_PREFIX = ".collector-";
+
+    private Log log;
+
+    public void execute()
+        throws MojoExecutionException, MojoFailureException
+    {
+        verifyManifests();
+
+        SortedMap<String, String> indexed = readIndexes();
+
+        int copied = 0;
+        int duplicates = 0;
+        for ( File shardDir : shardDirectories )
+        {
+            if ( !shardDir.isDirectory() )
+            {
+                throw new MojoExecutionException( "Shard repository does not exist: " + shardDir );
+            }
+
+            Map<String, File> files = new TreeMap<String, File>();
+            listFiles( shardDir, "", files );
+
+            for ( Map.Entry<String, File> entry : files.entrySet() )
+            {
+                if ( indexed != null && isGeneratedMetadataPath( entry.getKey() ) )
+                {
+                    continue;
+                }
+
+                File target = new File( outputDirectory, entry.getKey() );
+                try
+                {
+                    if ( target.exists() )
+                    {
+                        if ( sameContent( entry.getValue(), target ) )
+                        {
+                            duplicates++;
+                        }
+                        else if ( isMetadata( target ) )
+                        {
+                            getLog().warn( "Keeping first copy of conflicting repository metadata: " + entry.getKey()
+                                               + " (also in: " + shardDir + ")" );
+                        }
+                        else
+                        {
+                            throw new MojoFailureException( "Shards disagree on the content of: " + entry.getKey()
+                                + " (see: " + entry.getValue() + " and: " + target + ")" );
+                        }
+                    }
+                    else
+                    {
+                        FileUtils.copyFile( entry.getValue(), target );
+                        copied++;
+                    }
+                }
+                catch ( IOException e )
+                {
+                    throw new MojoExecutionException( "Failed to merge: " + entry.getValue() + " into: " + target
+                        + ": " + e.getMessage(), e );
+                }
+            }
+        }
+
+        getLog().info( "Merged " + shardDirectories.size() + " shards into: " + outputDirectory + " (" + copied
+                           + " files copied, " + duplicates + " duplicates skipped)." );
+
+        if ( indexed != null )
+        {
+            regenerateMetadata( indexed );
+        }
+
+        if ( referenceDirectory != null )
+        {
+            verifyAgainstReference();
+        }
+    }
+
+    private void verifyManifests()
+        throws MojoExecutionException, MojoFailureException
+    {
+        Map<String, ShardManifest> expected = new TreeMap<String, ShardManifest>();
+        Map<String, Set<Integer>> seen = new TreeMap<String, Set<Integer>>();
+
+        for ( File shardDir : shardDirectories )
+        {
+            File[] files = shardDir.listFiles();
+            boolean found = false;
+            for ( int i = 0; files != null && i < files.length; i++ )
+            {
+                if ( !ShardManifest.isManifestFile( files[i] ) )
+                {
+                    continue;
+                }
+
+                ShardManifest manifest;
+                try
+                {
+                    manifest = ShardManifest.read( files[i] );
+                }
+                catch ( IOException e )
+                {
+                    throw new MojoExecutionException( e.getMessage(), e );
+                }
+                found = true;
+
+                String project = manifest.getProjectId();
+                ShardManifest first = expected.get( project );
+                if ( first == null )
+                {
+                    expected.put( project, manifest );
+                    seen.put( project, new TreeSet<Integer>() );
+                }
+                else if ( manifest.getShardCount() != first.getShardCount()
+                    || !first.getAssignments().equals( manifest.getAssignments() ) )
+                {
+                    throw new MojoFailureException( "Shard of: " + project + " in: " + shardDir
+                        + " was produced from a different artifact set or shard count than the other shards." );
+                }
+
+                if ( !seen.get( project ).add( Integer.valueOf( manifest.getShardIndex() ) ) )
+                {
+                    throw new MojoFailureException( "Shard " + manifest.getShardIndex() + " of: " + project
+                        + " was given more than once." );
+                }
+            }
+
+            if ( !found )
+            {
+                throw new MojoFailureException( "No shard manifest found in: " + shardDir
+                    + ". Was it produced with shardCount > 1?" );
+            }
+        }
+
+        for ( Map.Entry<String, ShardManifest> entry : expected.entrySet() )
+        {
+            int shardCount = entry.getValue().getShardCount();
+            Set<Integer> shards = seen.get( entry.getKey() );
+            if ( shards.size() != shardCount )
+            {
+                List<Integer> missing = new ArrayList<Integer>();
+                for ( int i = 0; i < shardCount; i++ )
+                {
+                    if ( !shards.contains( Integer.valueOf( i ) ) )
+                    {
+                        missing.add( Integer.valueOf( i ) );
+                    }
+                }
+
+                throw new MojoFailureException( "Missing shards of: " + entry.getKey() + ": " + missing + " (of "
+                    + shardCount + "). The merged repository would not match an unsharded run." );
+            }
+
+            getLog().info( "All " + shardCount + " shards of: " + entry.getKey() + " present, covering "
+                               + entry.getValue().getAssignments().size() + " direct artifacts." );
+        }
+    }
+
+    /**
+     * @return the union of the shards' collected-repository indexes, or null when no shard has one (the shards were
+     *         collected without metadata).
+     */
+    private SortedMap<String, String> readIndexes()
+        throws MojoExecutionException
+    {
+        SortedMap<String, String> indexed = null;
+        for ( File shardDir : shardDirectories )
+        {
+            File index = new File( shardDir, CollectedRepositoryIndex.FILE_NAME );
+            if ( !index.isFile() )
+            {
+                continue;
+            }
+
+            if ( indexed == null )
+            {
+                indexed = new TreeMap<String, String>();
+            }
+
+            try
+            {
+                indexed.putAll( CollectedRepositoryIndex.read( index ) );
+            }
+            catch ( IOException e )
+            {
+                throw new MojoExecutionException( "Failed to read: " + index + ": " + e.getMessage(), e );
+            }
+        }
+
+        if ( indexed != null )
+        {
+            for ( File shardDir : shardDirectories )
+            {
+                if ( !new File( shardDir, CollectedRepositoryIndex.FILE_NAME ).isFile() )
+                {
+                    getLog().warn( "Shard: " + shardDir + " has no collected-repository index; its artifacts will"
+                                       + " be missing from the merged metadata. Collect all shards with metadata." );
+                }
+            }
+        }
+
+        return indexed;
+    }
+
+    private void regenerateMetadata( final SortedMap<String, String> indexed )
+        throws MojoExecutionException
+    {
+        RepositoryMetadataGenerator generator = new RepositoryMetadataGenerator( outputDirectory, artifactFactory );
+        try
+        {
+            for ( String coordinate : indexed.keySet() )
+            {
+                String[] parts = coordinate.split( ":", -1 );
+                if ( parts.length != 5 )
+                {
+                    getLog().warn( "Ignoring invalid index entry: '" + coordinate + "'" );
+                    continue;
+                }
+
+                String classifier = parts[3].length() < 1 ? null : parts[3];
+                generator.add( artifactFactory.createArtifactWithClassifier( parts[0], parts[1], parts[4], parts[2],
+                                                                             classifier ) );
+            }
+
+            int count = generator.finish();
+            getLog().info( "Regenerated repository metadata and index (" + count + " coordinates) in: "
+                               + outputDirectory );
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Failed to generate repository metadata in: " + outputDirectory + ": "
+                + e.getMessage(), e );
+        }
+    }
+
+    private void verifyAgainstReference()
+        throws MojoFailureException
+    {
+        Map<String, File> merged = new TreeMap<String, File>();
+        listFiles( outputDirectory, "", merged );
+
+        Map<String, File> reference = new TreeMap<String, File>();
+        listFiles( referenceDirectory, "", reference );
+
+        Set<String> missing = new TreeSet<String>();
+        Set<String> extra = new TreeSet<String>();
+        for ( String path : reference.keySet() )
+        {
+            if ( !isMetadataPath( path ) && !merged.containsKey( path ) )
+            {
+                missing.add( path );
+            }
+        }
+        for ( String path : merged.keySet() )
+        {
+            if ( !isMetadataPath( path ) && !reference.containsKey( path ) )
+            {
+                extra.add( path );
+            }
+        }
+
+        if ( !missing.isEmpty() || !extra.isEmpty() )
+        {
+            StringBuilder sb = new StringBuilder();
+            sb.append( "Merged repository differs from reference repository: " ).append( referenceDirectory );
+            for ( String path : missing )
+            {
+                sb.append( "\n- missing: " ).append( path );
+            }
+            for ( String path : extra )
+            {
+                sb.append( "\n- extra:   " ).append( path );
+            }
+
+            throw new MojoFailureException( sb.toString() );
+        }
+
+        getLog().info( "Merged repository matches reference repository: " + referenceDirectory );
+    }
+
+    private static void listFiles( final File dir, final String prefix, final Map<String, File> files )
+    {
+        File[] children = dir.listFiles();
+        if ( children == null )
+        {
+            return;
+        }
+
+        for ( File child : children )
+        {
+            String path = prefix + child.getName();
+            if ( child.isDirectory() )
+            {
+                listFiles( child, path + "/", files );
+            }
+            else if ( !child.getName().startsWith( COLLECTOR_FILE_PREFIX ) )
+            {
+                files.put( path, child );
+            }
+        }
+    }
+
+    private static boolean sameContent( final File a, final File b )
+        throws IOException
+    {
+        return a.length() == b.length() && Checksums.sha1( a ).equals( Checksums.sha1( b ) );
+    }
+
+    private static boolean isMetadata( final File file )
+    {
+        return isMetadataPath( file.getName() );
+    }
+
+    /**
+     * Files the {@link RepositoryMetadataGenerator} writes, which are regenerated rather than merged.
+     */
+    private static boolean isGeneratedMetadataPath( final String path )
+    {
+        return path.substring( path.lastIndexOf( '/' ) + 1 ).startsWith( "maven-metadata.xml" );
+    }
+
+    private static boolean isMetadataPath( final String path )
+    {
+        String name = path.substring( path.lastIndexOf( '/' ) + 1 );
+        return name.startsWith( "maven-metadata" ) || name.endsWith( ".sha1" ) || name.endsWith( ".md5" )
+            || name.endsWith( ".lastUpdated" ) || name.equals( "_remote.repositories" )
+            || name.equals( "resolver-status.properties" );
+    }
+
+    public Log getLog()
+    {
+        return log;
+    }
+
+    public void setLog( final Log log )
+    {
+        this.log = log;
+    }
+
+    public List<File> getShardDirectories()
+    {
+        return shardDirectories;
+    }
+
+    public void setShardDirectories( final List<File> shardDirectories )
+    {
+        this.shardDirectories = shardDirectories;
+    }
+
+    public File getOutputDirectory()
+    {
+        return outputDirectory;
+    }
+
+    public void setOutputDirectory( final File outputDirectory )
+    {
+        this.outputDirectory = outputDirectory;
+    }
+
+    public ArtifactFactory getArtifactFactory()
+    {
+        return artifactFactory;
+    }
+
+    public void setArtifactFactory( final ArtifactFactory artifactFactory )
+    {
+        this.artifactFactory = artifactFactory;
+    }
+
+    public File getReferenceDirectory()
+    {
+        return referenceDirectory;
+    }
+
+    public void setReferenceDirectory( final File referenceDirectory )
+    {
+        this.referenceDirectory = referenceDirectory;
+    }
+
+}
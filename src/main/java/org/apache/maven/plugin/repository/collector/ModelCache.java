@@ -0,0 +1,436 @@
+/*
+ * Copyright (C) 2009 Sonatype, Inc.                                                                                                                          
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ */
+package org.apache.maven.plugin.repository.collector;
+
+import org.apache.maven.model.Dependency;
+import org.apache.maven.model.Exclusion;
+import org.codehaus.plexus.util.IOUtil;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Persistent cache of the dependency management of built release plugin projects, so their POMs are not built again
+ * on later runs. The cache is a compact binary file in the local repository holding the POMs. Each entry is keyed by
+ * the project coordinate and records the repository path and SHA-1 of the project's POM and of every parent POM it
+ * inherits from. An entry is only used while all of those files are unchanged, so projects whose dependency
+ * management also depends on other inputs (imported BOMs, profiles) must not be put in the cache. Builds sharing the
+ * file merge their changes into it under a lock.
+ */
+public class ModelCache
+{
+
+    public static final String FILE_NAME = ".collector-model-cache";
+
+    private static final int MAGIC = 0x434f4d43;
+
+    private static final int VERSION = 2;
+
+    private final File repositoryDirectory;
+
+    private final File file;
+
+    private final Map<String, Entry> entries = new HashMap<String, Entry>();
+
+    private final Map<String, Entry> changed = new HashMap<String, Entry>();
+
+    private final Set<String> removed = new HashSet<String>();
+
+    /** SHA-1s already computed in this run, by repository path. */
+    private final Map<String, String> checksums = new HashMap<String, String>();
+
+    private int hits;
+
+    private int stale;
+
+    private int added;
+
+    private boolean dirty;
+
+    public ModelCache( final File repositoryDirectory )
+    {
+        this.repositoryDirectory = repositoryDirectory;
+        this.file = new File( repositoryDirectory, FILE_NAME );
+    }
+
+    /**
+     * Read the cache. A file written by another cache version is ignored, and replaced on the next store.
+     */
+    public synchronized void load()
+        throws IOException
+    {
+        Map<String, Entry> read = read();
+        if ( read == null )
+        {
+            dirty = true;
+        }
+        else
+        {
+            entries.putAll( read );
+        }
+    }
+
+    /**
+     * @return the entries in the file, or null when it was written by another cache version.
+     */
+    private Map<String, Entry> read()
+        throws IOException
+    {
+        Map<String, Entry> read = new HashMap<String, Entry>();
+        if ( !file.isFile() )
+        {
+            return read;
+        }
+
+        DataInputStream in = null;
+        try
+        {
+            in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ) ) );
+            if ( in.readInt() != MAGIC || in.readInt() != VERSION )
+            {
+                return null;
+            }
+
+            int count = in.readInt();
+            for ( int i = 0; i < count; i++ )
+            {
+                String coordinate = in.readUTF();
+
+                int sourceCount = in.readInt();
+                String[] paths = new String[sourceCount];
+                String[] sha1s = new String[sourceCount];
+                for ( int j = 0; j < sourceCount; j++ )
+                {
+                    paths[j] = in.readUTF();
+                    sha1s[j] = in.readUTF();
+                }
+
+                int dependencyCount = in.readInt();
+                List<Dependency> managed = new ArrayList<Dependency>( dependencyCount );
+                for ( int j = 0; j < dependencyCount; j++ )
+                {
+                    managed.add( readDependency( in ) );
+                }
+
+                read.put( coordinate, new Entry( paths, sha1s, managed ) );
+            }
+        }
+        finally
+        {
+            IOUtil.close( in );
+        }
+
+        return read;
+    }
+
+    /**
+     * The managed dependencies of the project with the given coordinate (groupId:artifactId:version), or null when
+     * there is no entry or its POMs have changed.
+     */
+    public synchronized List<Dependency> getManagedDependencies( final String coordinate )
+    {
+        Entry entry = entries.get( coordinate );
+        if ( entry == null )
+        {
+            return null;
+        }
+
+        for ( int i = 0; i < entry.paths.length; i++ )
+        {
+            if ( !entry.sha1s[i].equals( getChecksum( entry.paths[i] ) ) )
+            {
+                entries.remove( coordinate );
+                changed.remove( coordinate );
+                removed.add( coordinate );
+                stale++;
+                dirty = true;
+                return null;
+            }
+        }
+
+        hits++;
+        return copy( entry.managed );
+    }
+
+    /**
+     * Record the managed dependencies of a built project.
+     *
+     * @param paths repository paths of the project's POM and of all its parent POMs.
+     */
+    public synchronized void put( final String coordinate, final List<String> paths, final List<Dependency> managed )
+    {
+        for ( Dependency d : managed )
+        {
+            if ( d.getGroupId() == null || d.getArtifactId() == null || d.getVersion() == null || d.getType() == null )
+            {
+                return;
+            }
+        }
+
+        String[] sha1s = new String[paths.size()];
+        for ( int i = 0; i < sha1s.length; i++ )
+        {
+            sha1s[i] = getChecksum( paths.get( i ) );
+            if ( sha1s[i] == null )
+            {
+                return;
+            }
+        }
+
+        Entry entry = new Entry( paths.toArray( new String[paths.size()] ), sha1s, copy( managed ) );
+        entries.put( coordinate, entry );
+        changed.put( coordinate, entry );
+        removed.remove( coordinate );
+        added++;
+        dirty = true;
+    }
+
+    /**
+     * Merge this run's changes into the file, under its lock, and write it back. The file is replaced in one step, so
+     * concurrent builds sharing it never see a partial file, and none of them loses the entries another added
+     * meanwhile.
+     */
+    public synchronized void store()
+        throws IOException
+    {
+        if ( !dirty )
+        {
+            return;
+        }
+
+        CacheFiles.Lock lock = CacheFiles.lock( file );
+        try
+        {
+            Map<String, Entry> merged = read();
+            if ( merged == null )
+            {
+                merged = new HashMap<String, Entry>();
+            }
+            merged.keySet().removeAll( removed );
+            merged.putAll( changed );
+
+            File temp = CacheFiles.createTempFile( file );
+            DataOutputStream out = null;
+            boolean written = false;
+            try
+            {
+                out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( temp ) ) );
+                out.writeInt( MAGIC );
+                out.writeInt( VERSION );
+                out.writeInt( merged.size() );
+
+                for ( Map.Entry<String, Entry> e : merged.entrySet() )
+                {
+                    Entry entry = e.getValue();
+                    out.writeUTF( e.getKey() );
+
+                    out.writeInt( entry.paths.length );
+                    for ( int i = 0; i < entry.paths.length; i++ )
+                    {
+                        out.writeUTF( entry.paths[i] );
+                        out.writeUTF( entry.sha1s[i] );
+                    }
+
+                    out.writeInt( entry.managed.size() );
+                    for ( Dependency d : entry.managed )
+                    {
+                        writeDependency( out, d );
+                    }
+                }
+                out.close();
+                written = true;
+            }
+            finally
+            {
+                IOUtil.close( out );
+                if ( !written )
+                {
+                    temp.delete();
+                }
+            }
+
+            CacheFiles.replace( temp, file );
+
+            entries.clear();
+            entries.putAll( merged );
+            changed.clear();
+            removed.clear();
+            dirty = false;
+        }
+        finally
+        {
+            lock.release();
+        }
+    }
+
+    public synchronized String getStatistics()
+    {
+        return hits + " models reused, " + added + " built and added, " + stale + " stale; " + entries.size()
+            + " cached";
+    }
+
+    public File getFile()
+    {
+        return file;
+    }
+
+    private String getChecksum( final String path )
+    {
+        String sha1 = checksums.get( path );
+        if ( sha1 != null )
+        {
+            return sha1;
+        }
+
+        File pom = new File( repositoryDirectory, path );
+        if ( pom.isFile() )
+        {
+            try
+            {
+                sha1 = Checksums.sha1( pom );
+            }
+            catch ( IOException e )
+            {
+                // treated as changed.
+            }
+        }
+
+        if ( sha1 != null )
+        {
+            checksums.put( path, sha1 );
+        }
+        return sha1;
+    }
+
+    private static void writeDependency( final DataOutputStream out, final Dependency d )
+        throws IOException
+    {
+        out.writeUTF( d.getGroupId() );
+        out.writeUTF( d.getArtifactId() );
+        out.writeUTF( d.getVersion() );
+        out.writeUTF( d.getType() );
+        out.writeUTF( d.getClassifier() == null ? "" : d.getClassifier() );
+        out.writeUTF( d.getScope() == null ? "" : d.getScope() );
+        out.writeBoolean( d.isOptional() );
+        out.writeUTF( d.getSystemPath() == null ? "" : d.getSystemPath() );
+
+        List<?> exclusions = d.getExclusions();
+        out.writeInt( exclusions == null ? 0 : exclusions.size() );
+        if ( exclusions != null )
+        {
+            for ( Object o : exclusions )
+            {
+                Exclusion e = (Exclusion) o;
+                out.writeUTF( e.getGroupId() );
+                out.writeUTF( e.getArtifactId() );
+            }
+        }
+    }
+
+    private static Dependency readDependency( final DataInputStream in )
+        throws IOException
+    {
+        Dependency d = new Dependency();
+        d.setGroupId( in.readUTF() );
+        d.setArtifactId( in.readUTF() );
+        d.setVersion( in.readUTF() );
+        d.setType( in.readUTF() );
+
+        String classifier = in.readUTF();
+        d.setClassifier( classifier.length() < 1 ? null : classifier );
+        String scope = in.readUTF();
+        d.setScope( scope.length() < 1 ? null : scope );
+        d.setOptional( in.readBoolean() );
+        String systemPath = in.readUTF();
+        d.setSystemPath( systemPath.length() < 1 ? null : systemPath );
+
+        int exclusionCount = in.readInt();
+        for ( int i = 0; i < exclusionCount; i++ )
+        {
+            Exclusion e = new Exclusion();
+            e.setGroupId( in.readUTF() );
+            e.setArtifactId( in.readUTF() );
+            d.addExclusion( e );
+        }
+
+        return d;
+    }
+
+    /**
+     * Dependencies are mutable, and callers may hand theirs on; keep private copies in both directions.
+     */
+    private static List<Dependency> copy( final List<Dependency> dependencies )
+    {
+        List<Dependency> copies = new ArrayList<Dependency>( dependencies.size() );
+        for ( Dependency d : dependencies )
+        {
+            Dependency c = new Dependency();
+            c.setGroupId( d.getGroupId() );
+            c.setArtifactId( d.getArtifactId() );
+            c.setVersion( d.getVersion() );
+            c.setType( d.getType() );
+            c.setClassifier( d.getClassifier() );
+            c.setScope( d.getScope() );
+            c.setOptional( d.isOptional() );
+            c.setSystemPath( d.getSystemPath() );
+            if ( d.getExclusions() != null )
+            {
+                for ( Object o : d.getExclusions() )
+                {
+                    Exclusion e = (Exclusion) o;
+                    Exclusion ce = new Exclusion();
+                    ce.setGroupId( e.getGroupId() );
+                    ce.setArtifactId( e.getArtifactId() );
+                    c.addExclusion( ce );
+                }
+            }
+            copies.add( c );
+        }
+
+        return copies;
+    }
+
+    private static final class Entry
+    {
+        private final String[] paths;
+
+        private final String[] sha1s;
+
+        private final List<Dependency> managed;
+
+        Entry( final String[] paths, final String[] sha1s, final List<Dependency> managed )
+        {
+            this.paths = paths;
+            this.sha1s = sha1s;
+            this.managed = managed;
+        }
+    }
+
+}
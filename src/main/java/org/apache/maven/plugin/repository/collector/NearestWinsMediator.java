@@ -0,0 +1,352 @@
+/*
+ * Copyright (C) 2009 Sonatype, Inc.                                                                                                                          
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ */
+package org.apache.maven.plugin.repository.collector;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.ArtifactUtils;
+import org.apache.maven.artifact.DefaultArtifact;
+import org.apache.maven.artifact.metadata.ArtifactMetadataRetrievalException;
+import org.apache.maven.artifact.metadata.ArtifactMetadataSource;
+import org.apache.maven.artifact.metadata.ResolutionGroup;
+import org.apache.maven.artifact.repository.ArtifactRepository;
+import org.apache.maven.artifact.resolver.filter.AndArtifactFilter;
+import org.apache.maven.artifact.resolver.filter.ArtifactFilter;
+import org.apache.maven.artifact.versioning.ArtifactVersion;
+import org.apache.maven.artifact.versioning.OverConstrainedVersionException;
+import org.apache.maven.plugin.logging.Log;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Compact conflict-mediation engine for dedupe mode. Every artifact in the graph gets an integer node id; parent
+ * links, depths and the winner of each conflict key are kept in primitive arrays, and the POM reads behind each
+ * node are memoized by coordinate and scope, so a dependency reachable along many paths is only read once.
+ * <br/>
+ * Mediation is breadth-first, so the first node seen for a conflict key (groupId:artifactId:type:classifier) is
+ * the nearest one, with ties going to the earlier declaration; only winners are expanded. This matches Maven 2's
+ * nearest-wins rule, including dependency management, exclusions and optional-dependency handling. Scope widening
+ * of already-selected artifacts is not modelled; it changes scopes but not which files are selected.
+ */
+public class NearestWinsMediator
+{
+
+    private final ArtifactMetadataSource metadataSource;
+
+    private final ArtifactRepository localRepository;
+
+    private final List<ArtifactRepository> remoteRepositories;
+
+    private final Log log;
+
+    private final Map<String, List<Artifact>> childrenCache = new HashMap<String, List<Artifact>>();
+
+    private final Map<String, List<ArtifactVersion>> versionsCache = new HashMap<String, List<ArtifactVersion>>();
+
+    private final List<Artifact> nodes = new ArrayList<Artifact>();
+
+    private final Map<Artifact, Integer> nodeIds = new IdentityHashMap<Artifact, Integer>();
+
+    private final List<ArtifactFilter> nodeFilters = new ArrayList<ArtifactFilter>();
+
+    private final Map<String, Integer> keyIds = new HashMap<String, Integer>();
+
+    private int[] parents = new int[256];
+
+    private int[] depths = new int[256];
+
+    private int[] roots = new int[256];
+
+    private int[] winners = new int[256];
+
+    private int retrievals;
+
+    public NearestWinsMediator( final ArtifactMetadataSource metadataSource,
+                                final ArtifactRepository localRepository,
+                                final List<ArtifactRepository> remoteRepositories, final Log log )
+    {
+        this.metadataSource = metadataSource;
+        this.localRepository = localRepository;
+        this.remoteRepositories = remoteRepositories;
+        this.log = log;
+    }
+
+    /**
+     * Mediate the graph reachable from the given direct artifacts.
+     *
+     * @param directArtifacts the roots of the graph, in declaration order.
+     * @param managedVersions managed versions applied to the transitive dependencies of each root, keyed by the root's
+     *            conflict id; roots without an entry use defaultManagedVersions.
+     * @return the winning artifacts (not yet resolved), in breadth-first order.
+     */
+    public Set<Artifact> mediate( final Collection<Artifact> directArtifacts,
+                                  final Map<String, Map<String, Artifact>> managedVersions,
+                                  final Map<String, Artifact> defaultManagedVersions )
+        throws ArtifactMetadataRetrievalException, OverConstrainedVersionException
+    {
+        List<Map<String, Artifact>> rootManaged = new ArrayList<Map<String, Artifact>>();
+        int[] queue = new int[256];
+        int tail = 0;
+
+        for ( Artifact direct : directArtifacts )
+        {
+            Map<String, Artifact> managed = managedVersions.get( direct.getDependencyConflictId() );
+            rootManaged.add( managed == null ? defaultManagedVersions : managed );
+
+            int key = keyId( direct.getDependencyConflictId() );
+            if ( winners[key] > 0 )
+            {
+                continue;
+            }
+
+            int node = addNode( direct, -1, 1, rootManaged.size() - 1, direct.getDependencyFilter() );
+            winners[key] = node + 1;
+
+            queue = grow( queue, tail + 1 );
+            queue[tail++] = node;
+        }
+
+        for ( int head = 0; head < tail; head++ )
+        {
+            int node = queue[head];
+            Artifact parent = nodes.get( node );
+            if ( Artifact.SCOPE_SYSTEM.equals( parent.getScope() ) )
+            {
+                continue;
+            }
+
+            ArtifactFilter filter = nodeFilters.get( node );
+            Map<String, Artifact> managed = rootManaged.get( roots[node] );
+
+            for ( Artifact c : getChildren( parent ) )
+            {
+                // optional dependencies are only honoured when declared directly.
+                if ( c.isOptional() )
+                {
+                    continue;
+                }
+
+                Artifact child = copy( c );
+                if ( filter != null && !filter.include( child ) )
+                {
+                    continue;
+                }
+
+                int key = keyId( child.getDependencyConflictId() );
+                if ( winners[key] > 0 )
+                {
+                    continue;
+                }
+
+                Artifact managedArtifact = managed == null ? null : managed.get( child.getDependencyConflictId() );
+                if ( managedArtifact != null )
+                {
+                    if ( managedArtifact.getVersion() != null )
+                    {
+                        child.setVersion( managedArtifact.getVersion() );
+                    }
+                    if ( managedArtifact.getScope() != null )
+                    {
+                        child.setScope( managedArtifact.getScope() );
+                    }
+                }
+
+                if ( child.getVersion() == null )
+                {
+                    selectVersion( child );
+                }
+
+                int childNode = addNode( child, node, depths[node] + 1, roots[node], and( filter, c ) );
+                winners[key] = childNode + 1;
+
+                queue = grow( queue, tail + 1 );
+                queue[tail++] = childNode;
+            }
+        }
+
+        Set<Artifact> result = new LinkedHashSet<Artifact>();
+        for ( int i = 0; i < tail; i++ )
+        {
+            result.add( nodes.get( queue[i] ) );
+        }
+
+        log.debug( "Mediated " + result.size() + " artifacts from " + nodes.size() + " nodes using " + retrievals
+            + " POM reads (" + childrenCache.size() + " distinct)." );
+
+        return result;
+    }
+
+    /**
+     * The chain of node coordinates from the root down to the given artifact, for diagnostics.
+     *
+     * @param artifact one of the artifacts returned by {@link #mediate(Collection, Map, Map)}; the trail is empty for
+     *            any other instance.
+     */
+    public List<String> getTrail( final Artifact artifact )
+    {
+        List<String> trail = new ArrayList<String>();
+        Integer id = nodeIds.get( artifact );
+        int node = id == null ? -1 : id.intValue();
+        while ( node > -1 )
+        {
+            trail.add( 0, nodes.get( node ).getId() );
+            node = parents[node];
+        }
+
+        return trail;
+    }
+
+    private int addNode( final Artifact artifact, final int parent, final int depth, final int root,
+                         final ArtifactFilter filter )
+    {
+        int node = nodes.size();
+        nodes.add( artifact );
+        nodeIds.put( artifact, Integer.valueOf( node ) );
+        nodeFilters.add( filter );
+
+        parents = grow( parents, node + 1 );
+        depths = grow( depths, node + 1 );
+        roots = grow( roots, node + 1 );
+        parents[node] = parent;
+        depths[node] = depth;
+        roots[node] = root;
+
+        return node;
+    }
+
+    private int keyId( final String key )
+    {
+        Integer id = keyIds.get( key );
+        if ( id == null )
+        {
+            id = Integer.valueOf( keyIds.size() );
+            keyIds.put( key, id );
+            winners = grow( winners, id.intValue() + 1 );
+        }
+
+        return id.intValue();
+    }
+
+    @SuppressWarnings( "unchecked" )
+    private List<Artifact> getChildren( final Artifact parent )
+        throws ArtifactMetadataRetrievalException
+    {
+        String cacheKey = parent.getId() + ":" + parent.getScope();
+        List<Artifact> children = childrenCache.get( cacheKey );
+        if ( children == null )
+        {
+            // retrieve without the path-specific filter, so the result can be shared by every path to this node.
+            Artifact unfiltered = copy( parent );
+            unfiltered.setDependencyFilter( null );
+
+            retrievals++;
+            ResolutionGroup group = metadataSource.retrieve( unfiltered, localRepository, remoteRepositories );
+            children =
+                group == null || group.getArtifacts() == null ? Collections.<Artifact> emptyList()
+                                : new ArrayList<Artifact>( (Collection<Artifact>) group.getArtifacts() );
+
+            childrenCache.put( cacheKey, children );
+        }
+
+        return children;
+    }
+
+    @SuppressWarnings( "unchecked" )
+    private void selectVersion( final Artifact artifact )
+        throws ArtifactMetadataRetrievalException, OverConstrainedVersionException
+    {
+        String cacheKey = artifact.getDependencyConflictId();
+        List<ArtifactVersion> versions = versionsCache.get( cacheKey );
+        if ( versions == null )
+        {
+            versions = metadataSource.retrieveAvailableVersions( artifact, localRepository, remoteRepositories );
+            versionsCache.put( cacheKey, versions );
+        }
+
+        ArtifactVersion version = artifact.getVersionRange().matchVersion( versions );
+        if ( version == null )
+        {
+            throw new OverConstrainedVersionException( "No version of " + cacheKey + " matches range: "
+                + artifact.getVersionRange(), artifact );
+        }
+
+        artifact.selectVersion( version.toString() );
+    }
+
+    /**
+     * Copy an artifact, including one declared with a version range and no version selected yet, which
+     * {@link ArtifactUtils#copyArtifact(Artifact)} cannot copy.
+     */
+    private static Artifact copy( final Artifact artifact )
+    {
+        if ( artifact.getVersion() != null )
+        {
+            return ArtifactUtils.copyArtifact( artifact );
+        }
+
+        Artifact copy =
+            new DefaultArtifact( artifact.getGroupId(), artifact.getArtifactId(), artifact.getVersionRange().cloneOf(),
+                                 artifact.getScope(), artifact.getType(), artifact.getClassifier(),
+                                 artifact.getArtifactHandler(), artifact.isOptional() );
+        copy.setDependencyFilter( artifact.getDependencyFilter() );
+        if ( artifact.getDependencyTrail() != null )
+        {
+            copy.setDependencyTrail( new ArrayList<String>( artifact.getDependencyTrail() ) );
+        }
+
+        return copy;
+    }
+
+    private static ArtifactFilter and( final ArtifactFilter parentFilter, final Artifact child )
+    {
+        ArtifactFilter own = child.getDependencyFilter();
+        if ( parentFilter == null )
+        {
+            return own;
+        }
+        else if ( own == null )
+        {
+            return parentFilter;
+        }
+
+        AndArtifactFilter and = new AndArtifactFilter();
+        and.add( parentFilter );
+        and.add( own );
+        return and;
+    }
+
+    private static int[] grow( final int[] array, final int size )
+    {
+        if ( size <= array.length )
+        {
+            return array;
+        }
+
+        int[] grown = new int[Math.max( size, array.length * 2 )];
+        System.arraycopy( array, 0, grown, 0, array.length );
+        return grown;
+    }
+
+}
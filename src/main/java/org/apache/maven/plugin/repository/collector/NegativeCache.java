@@ -0,0 +1,279 @@
+/*
+ * Copyright (C) 2009 Sonatype, Inc.                                                                                                                          
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ */
+package org.apache.maven.plugin.repository.collector;
+
+import org.codehaus.plexus.util.IOUtil;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Persistent record of files that a remote repository reported missing (404/410), keyed by repository id and
+ * repository path, so later runs don't ask that repository again until the entry expires. Each line holds one
+ * miss:
+ *
+ * <pre>
+ * timestamp repositoryId path
+ * </pre>
+ *
+ * When bypassed, the cache is not consulted, but misses are still recorded so it is up to date afterwards. Builds
+ * sharing the file merge their changes into it under a lock.
+ */
+public class NegativeCache
+{
+
+    public static final String FILE_NAME = ".collector-negative-cache";
+
+    private static final String HEADER = "# maven-repository-collector negative cache, version 1";
+
+    private final File file;
+
+    private final long ttl;
+
+    private final boolean bypass;
+
+    private final Map<String, Long> entries = new HashMap<String, Long>();
+
+    private final Map<String, Long> added = new HashMap<String, Long>();
+
+    private final Set<String> removed = new HashSet<String>();
+
+    private int hits;
+
+    private int expired;
+
+    private int recorded;
+
+    private boolean dirty;
+
+    /**
+     * @param ttl how long a miss is trusted, in milliseconds.
+     * @param bypass ignore recorded misses for this run.
+     */
+    public NegativeCache( final File file, final long ttl, final boolean bypass )
+    {
+        this.file = file;
+        this.ttl = ttl;
+        this.bypass = bypass;
+    }
+
+    public synchronized void load()
+        throws IOException
+    {
+        entries.putAll( read() );
+    }
+
+    private Map<String, Long> read()
+        throws IOException
+    {
+        Map<String, Long> read = new HashMap<String, Long>();
+        if ( !file.isFile() )
+        {
+            return read;
+        }
+
+        BufferedReader reader = null;
+        try
+        {
+            reader = new BufferedReader( new InputStreamReader( new FileInputStream( file ), "UTF-8" ) );
+
+            String line;
+            while ( ( line = reader.readLine() ) != null )
+            {
+                if ( line.length() < 1 || line.startsWith( "#" ) )
+                {
+                    continue;
+                }
+
+                String[] fields = line.split( " ", 3 );
+                if ( fields.length != 3 )
+                {
+                    continue;
+                }
+
+                try
+                {
+                    read.put( getKey( fields[1], fields[2] ), Long.valueOf( fields[0] ) );
+                }
+                catch ( NumberFormatException e )
+                {
+                    // a damaged line only costs one extra request.
+                }
+            }
+        }
+        finally
+        {
+            IOUtil.close( reader );
+        }
+
+        return read;
+    }
+
+    /**
+     * Whether the repository is known not to have the given path. Expired entries are dropped.
+     */
+    public synchronized boolean isMissing( final String repositoryId, final String path )
+    {
+        String key = getKey( repositoryId, path );
+        Long timestamp = entries.get( key );
+        if ( timestamp == null || bypass )
+        {
+            return false;
+        }
+
+        if ( System.currentTimeMillis() - timestamp.longValue() > ttl )
+        {
+            entries.remove( key );
+            expired++;
+            dirty = true;
+            return false;
+        }
+
+        hits++;
+        return true;
+    }
+
+    public synchronized void markMissing( final String repositoryId, final String path )
+    {
+        String key = getKey( repositoryId, path );
+        Long now = Long.valueOf( System.currentTimeMillis() );
+        entries.put( key, now );
+        added.put( key, now );
+        removed.remove( key );
+        recorded++;
+        dirty = true;
+    }
+
+    public synchronized void markPresent( final String repositoryId, final String path )
+    {
+        String key = getKey( repositoryId, path );
+        added.remove( key );
+        if ( entries.remove( key ) != null )
+        {
+            removed.add( key );
+            dirty = true;
+        }
+    }
+
+    /**
+     * Merge this run's changes into the file, under its lock, and write it back without expired entries. The file
+     * is replaced in one step, so concurrent builds sharing it never see a partial file, and none of them loses the
+     * misses another recorded meanwhile.
+     */
+    public synchronized void store()
+        throws IOException
+    {
+        if ( !dirty )
+        {
+            return;
+        }
+
+        CacheFiles.Lock lock = CacheFiles.lock( file );
+        try
+        {
+            Map<String, Long> merged = read();
+            merged.keySet().removeAll( removed );
+            for ( Map.Entry<String, Long> entry : added.entrySet() )
+            {
+                Long other = merged.get( entry.getKey() );
+                if ( other == null || other.longValue() < entry.getValue().longValue() )
+                {
+                    merged.put( entry.getKey(), entry.getValue() );
+                }
+            }
+
+            long now = System.currentTimeMillis();
+            Map<String, Long> sorted = new TreeMap<String, Long>();
+            for ( Map.Entry<String, Long> entry : merged.entrySet() )
+            {
+                if ( now - entry.getValue().longValue() <= ttl )
+                {
+                    sorted.put( entry.getKey(), entry.getValue() );
+                }
+            }
+
+            File temp = CacheFiles.createTempFile( file );
+            Writer writer = null;
+            boolean written = false;
+            try
+            {
+                writer = new OutputStreamWriter( new FileOutputStream( temp ), "UTF-8" );
+                writer.write( HEADER );
+                writer.write( '\n' );
+
+                for ( Map.Entry<String, Long> entry : sorted.entrySet() )
+                {
+                    writer.write( entry.getValue().toString() );
+                    writer.write( ' ' );
+                    writer.write( entry.getKey() );
+                    writer.write( '\n' );
+                }
+                writer.close();
+                written = true;
+            }
+            finally
+            {
+                IOUtil.close( writer );
+                if ( !written )
+                {
+                    temp.delete();
+                }
+            }
+
+            CacheFiles.replace( temp, file );
+
+            entries.clear();
+            entries.putAll( sorted );
+            added.clear();
+            removed.clear();
+            dirty = false;
+        }
+        finally
+        {
+            lock.release();
+        }
+    }
+
+    public synchronized String getStatistics()
+    {
+        return hits + " hits, " + expired + " expired, " + recorded + " misses recorded"
+            + ( bypass ? " (cache bypassed)" : "" );
+    }
+
+    public File getFile()
+    {
+        return file;
+    }
+
+    private static String getKey( final String repositoryId, final String path )
+    {
+        return repositoryId + " " + path;
+    }
+
+}
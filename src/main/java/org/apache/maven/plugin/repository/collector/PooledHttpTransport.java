@@ -0,0 +1,451 @@
+/*
+ * Copyright (C) 2009 Sonatype, Inc.                                                                                                                          
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ */
+package org.apache.maven.plugin.repository.collector;
+
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.util.IOUtil;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.MalformedURLException;
+import java.net.Proxy;
+import java.net.Socket;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * HTTP GET client for repository downloads, built on HttpURLConnection: the JDK keeps connections to each host open
+ * between requests (up to the http.maxConnections system property), and verifies the server certificate and host
+ * name of every https connection. On top of that, each host (scheme, name and port) has a limit on concurrent
+ * requests, and redirects are followed here rather than by the JDK, so that:
+ * <ul>
+ * <li>credentials are only sent to the origin they were given for, and dropped on a redirect to any other;</li>
+ * <li>a redirect from https to anything else is refused.</li>
+ * </ul>
+ * Proxies are not supported; callers fall back to Maven's wagons when one is configured.
+ * <p>
+ * Connection reuse is measured for https only: the transport supplies the socket factory of its https connections
+ * and counts the sockets it creates, while the JDK does not expose when it opens a plain http connection.
+ */
+public class PooledHttpTransport
+{
+
+    private static final int MAX_REDIRECTS = 5;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final int maxConnectionsPerHost;
+
+    private final int timeout;
+
+    private final Log log;
+
+    private final Map<String, Semaphore> permits = new HashMap<String, Semaphore>();
+
+    private final AtomicInteger requests = new AtomicInteger();
+
+    private final AtomicInteger redirects = new AtomicInteger();
+
+    private final AtomicLong bytesRead = new AtomicLong();
+
+    private final AtomicInteger httpsRequests = new AtomicInteger();
+
+    /**
+     * One instance for all https connections, since the JDK only reuses a connection for the same socket factory.
+     */
+    private final CountingSocketFactory socketFactory;
+
+    public PooledHttpTransport( final int maxConnectionsPerHost, final int timeout, final Log log )
+    {
+        this( maxConnectionsPerHost, timeout, HttpsURLConnection.getDefaultSSLSocketFactory(), log );
+    }
+
+    /**
+     * @param sslSocketFactory creates the sockets of https connections.
+     */
+    public PooledHttpTransport( final int maxConnectionsPerHost, final int timeout,
+                                final SSLSocketFactory sslSocketFactory, final Log log )
+    {
+        this.maxConnectionsPerHost = Math.max( 1, maxConnectionsPerHost );
+        this.timeout = timeout;
+        this.socketFactory = new CountingSocketFactory( sslSocketFactory );
+        this.log = log;
+    }
+
+    /**
+     * GET the given URL into the target file. The file is only written (replacing any existing one) when the
+     * response status is 200.
+     *
+     * @param authorization value of the Authorization header, or null. It is only sent to the URL's own origin.
+     * @return the final HTTP status code.
+     */
+    public int get( final URL url, final String authorization, final File target )
+        throws IOException
+    {
+        URL current = url;
+        String credentials = authorization;
+        for ( int i = 0; i <= MAX_REDIRECTS; i++ )
+        {
+            Response response = execute( current, credentials, target );
+            if ( response.location == null )
+            {
+                return response.status;
+            }
+
+            URL next = getRedirectTarget( current, response.location );
+            if ( credentials != null && !isSameOrigin( current, next ) )
+            {
+                log.debug( "Redirect to: " + next + " leaves the origin of: " + current
+                    + "; not sending credentials." );
+                credentials = null;
+            }
+
+            log.debug( "Following redirect from: " + current + " to: " + next );
+            redirects.incrementAndGet();
+            current = next;
+        }
+
+        throw new IOException( "Too many redirects fetching: " + url );
+    }
+
+    /**
+     * Forget the per-host request limits. Idle connections are closed by the JDK.
+     */
+    public void close()
+    {
+        synchronized ( permits )
+        {
+            permits.clear();
+        }
+    }
+
+    public int getRequestCount()
+    {
+        return requests.get();
+    }
+
+    /**
+     * @return the number of https connections opened so far.
+     */
+    public int getHttpsConnectionCount()
+    {
+        return socketFactory.sockets.get();
+    }
+
+    /**
+     * @return the share of https requests sent over an already open connection, in percent, or -1 if there were none.
+     */
+    public int getHttpsReusePercentage()
+    {
+        int total = httpsRequests.get();
+        if ( total == 0 )
+        {
+            return -1;
+        }
+
+        return Math.max( 0, total - socketFactory.sockets.get() ) * 100 / total;
+    }
+
+    public String getStatistics()
+    {
+        String statistics =
+            requests.get() + " requests, " + redirects.get() + " redirects followed, " + bytesRead.get() / 1024
+                + " KB received";
+        if ( httpsRequests.get() > 0 )
+        {
+            statistics +=
+                "; " + socketFactory.sockets.get() + " https connections opened for " + httpsRequests.get()
+                    + " https requests (" + getHttpsReusePercentage() + "% reused)";
+        }
+
+        return statistics;
+    }
+
+    /**
+     * Resolve a redirect's Location against the URL that returned it, refusing to leave https.
+     */
+    static URL getRedirectTarget( final URL from, final String location )
+        throws IOException
+    {
+        URL to;
+        try
+        {
+            to = new URL( from, location );
+        }
+        catch ( MalformedURLException e )
+        {
+            throw new IOException( "Invalid redirect location: '" + location + "' from: " + from );
+        }
+
+        if ( "https".equals( from.getProtocol() ) && !"https".equals( to.getProtocol() ) )
+        {
+            throw new IOException( "Refusing redirect from: " + from + " to: " + to + " (leaves https)" );
+        }
+
+        return to;
+    }
+
+    /**
+     * Whether both URLs have the same scheme, host and (effective) port.
+     */
+    static boolean isSameOrigin( final URL a, final URL b )
+    {
+        return a.getProtocol().equals( b.getProtocol() ) && a.getHost().equalsIgnoreCase( b.getHost() )
+            && getPort( a ) == getPort( b );
+    }
+
+    private Response execute( final URL url, final String authorization, final File target )
+        throws IOException
+    {
+        String protocol = url.getProtocol();
+        if ( !"http".equals( protocol ) && !"https".equals( protocol ) )
+        {
+            throw new IOException( "Unsupported protocol: " + url );
+        }
+
+        Semaphore hostPermits = getPermits( url );
+        try
+        {
+            hostPermits.acquire();
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException( "Interrupted while waiting for a connection to: " + url.getHost() );
+        }
+
+        try
+        {
+            requests.incrementAndGet();
+
+            HttpURLConnection connection = (HttpURLConnection) url.openConnection( Proxy.NO_PROXY );
+            connection.setInstanceFollowRedirects( false );
+            connection.setUseCaches( false );
+            connection.setConnectTimeout( timeout );
+            connection.setReadTimeout( timeout );
+            if ( connection instanceof HttpsURLConnection )
+            {
+                ( (HttpsURLConnection) connection ).setSSLSocketFactory( socketFactory );
+                httpsRequests.incrementAndGet();
+            }
+            connection.setRequestProperty( "User-Agent", "maven-repository-collector-plugin" );
+            connection.setRequestProperty( "Accept-Encoding", "identity" );
+            if ( authorization != null )
+            {
+                connection.setRequestProperty( "Authorization", authorization );
+            }
+
+            Response response = new Response();
+            response.status = connection.getResponseCode();
+            if ( response.status == 301 || response.status == 302 || response.status == 303
+                || response.status == 307 || response.status == 308 )
+            {
+                response.location = connection.getHeaderField( "Location" );
+            }
+
+            // the body is always read to the end, so the JDK can reuse the connection.
+            InputStream in = response.status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+            if ( response.status == 200 && target != null )
+            {
+                receive( in, target );
+            }
+            else
+            {
+                try
+                {
+                    copy( in, null );
+                }
+                finally
+                {
+                    IOUtil.close( in );
+                }
+            }
+
+            return response;
+        }
+        finally
+        {
+            hostPermits.release();
+        }
+    }
+
+    /**
+     * Write the body into a temporary file next to the target, and move it into place once complete.
+     */
+    private void receive( final InputStream in, final File target )
+        throws IOException
+    {
+        File directory = target.getAbsoluteFile().getParentFile();
+        directory.mkdirs();
+        File temp = File.createTempFile( target.getName() + "-", ".part", directory );
+
+        OutputStream body = null;
+        try
+        {
+            body = new BufferedOutputStream( new FileOutputStream( temp ) );
+            copy( in, body );
+            body.close();
+            body = null;
+
+            CacheFiles.replace( temp, target );
+        }
+        finally
+        {
+            IOUtil.close( body );
+            IOUtil.close( in );
+            temp.delete();
+        }
+    }
+
+    private void copy( final InputStream in, final OutputStream out )
+        throws IOException
+    {
+        if ( in == null )
+        {
+            return;
+        }
+
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int read;
+        while ( ( read = in.read( buffer ) ) > -1 )
+        {
+            if ( out != null )
+            {
+                out.write( buffer, 0, read );
+            }
+            bytesRead.addAndGet( read );
+        }
+    }
+
+    private Semaphore getPermits( final URL url )
+    {
+        String key = url.getProtocol() + "://" + url.getHost().toLowerCase( Locale.ENGLISH ) + ":" + getPort( url );
+
+        synchronized ( permits )
+        {
+            Semaphore hostPermits = permits.get( key );
+            if ( hostPermits == null )
+            {
+                hostPermits = new Semaphore( maxConnectionsPerHost );
+                permits.put( key, hostPermits );
+            }
+
+            return hostPermits;
+        }
+    }
+
+    private static int getPort( final URL url )
+    {
+        return url.getPort() > -1 ? url.getPort() : url.getDefaultPort();
+    }
+
+    private static final class Response
+    {
+        private int status;
+
+        private String location;
+    }
+
+    /**
+     * Counts the sockets created by the wrapped factory. Each is a new connection: the JDK asks for a socket only
+     * when it has no idle connection to reuse.
+     */
+    private static final class CountingSocketFactory
+        extends SSLSocketFactory
+    {
+
+        private final SSLSocketFactory delegate;
+
+        private final AtomicInteger sockets = new AtomicInteger();
+
+        private CountingSocketFactory( final SSLSocketFactory delegate )
+        {
+            this.delegate = delegate;
+        }
+
+        public Socket createSocket()
+            throws IOException
+        {
+            return count( delegate.createSocket() );
+        }
+
+        public Socket createSocket( final Socket socket, final String host, final int port, final boolean autoClose )
+            throws IOException
+        {
+            return count( delegate.createSocket( socket, host, port, autoClose ) );
+        }
+
+        public Socket createSocket( final String host, final int port )
+            throws IOException
+        {
+            return count( delegate.createSocket( host, port ) );
+        }
+
+        public Socket createSocket( final String host, final int port, final InetAddress localHost,
+                                    final int localPort )
+            throws IOException
+        {
+            return count( delegate.createSocket( host, port, localHost, localPort ) );
+        }
+
+        public Socket createSocket( final InetAddress host, final int port )
+            throws IOException
+        {
+            return count( delegate.createSocket( host, port ) );
+        }
+
+        public Socket createSocket( final InetAddress address, final int port, final InetAddress localAddress,
+                                    final int localPort )
+            throws IOException
+        {
+            return count( delegate.createSocket( address, port, localAddress, localPort ) );
+        }
+
+        public String[] getDefaultCipherSuites()
+        {
+            return delegate.getDefaultCipherSuites();
+        }
+
+        public String[] getSupportedCipherSuites()
+        {
+            return delegate.getSupportedCipherSuites();
+        }
+
+        private Socket count( final Socket socket )
+        {
+            sockets.incrementAndGet();
+            return socket;
+        }
+
+    }
+
+}
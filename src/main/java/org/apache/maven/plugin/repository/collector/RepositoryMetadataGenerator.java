@@ -0,0 +1,309 @@
+/*
+ * Copyright (C) 2009 Sonatype, Inc.                                                                                                                          
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ */
+package org.apache.maven.plugin.repository.collector;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.factory.ArtifactFactory;
+import org.apache.maven.artifact.repository.layout.ArtifactRepositoryLayout;
+import org.apache.maven.artifact.repository.layout.DefaultRepositoryLayout;
+import org.apache.maven.artifact.repository.metadata.Metadata;
+import org.apache.maven.artifact.repository.metadata.Plugin;
+import org.apache.maven.artifact.repository.metadata.Snapshot;
+import org.apache.maven.artifact.repository.metadata.Versioning;
+import org.apache.maven.artifact.repository.metadata.io.xpp3.MetadataXpp3Writer;
+import org.apache.maven.artifact.versioning.DefaultArtifactVersion;
+import org.codehaus.plexus.util.IOUtil;
+import org.codehaus.plexus.util.xml.Xpp3Dom;
+import org.codehaus.plexus.util.xml.Xpp3DomBuilder;
+import org.codehaus.plexus.util.xml.pull.XmlPullParserException;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.jar.JarFile;
+import java.util.zip.ZipEntry;
+
+/**
+ * Generates repository metadata for a collected repository in a single pass over the collected artifact set:
+ * groupId/artifactId/maven-metadata.xml (versions, latest, release), version-level metadata for snapshots, plugin
+ * prefix metadata at the group level, checksums for all of these, and the {@link CollectedRepositoryIndex}.
+ */
+public class RepositoryMetadataGenerator
+{
+
+    /**
+     * Maven's version order, with ties (such as 1.0 and 1.0.0) broken on the version string so that neither is
+     * dropped from the metadata.
+     */
+    private static final Comparator<String> VERSION_ORDER = new Comparator<String>()
+    {
+        public int compare( final String v1, final String v2 )
+        {
+            int result = new DefaultArtifactVersion( v1 ).compareTo( new DefaultArtifactVersion( v2 ) );
+            return result != 0 ? result : v1.compareTo( v2 );
+        }
+    };
+
+    private final ArtifactRepositoryLayout layout = new DefaultRepositoryLayout();
+
+    private final File repositoryDirectory;
+
+    private final ArtifactFactory artifactFactory;
+
+    private final String timestamp;
+
+    private final Map<String, Set<String>> versionsByArtifact = new TreeMap<String, Set<String>>();
+
+    private final Map<String, Map<String, Plugin>> pluginsByGroup = new TreeMap<String, Map<String, Plugin>>();
+
+    private final SortedMap<String, String> index = new TreeMap<String, String>();
+
+    public RepositoryMetadataGenerator( final File repositoryDirectory, final ArtifactFactory artifactFactory )
+    {
+        this.repositoryDirectory = repositoryDirectory;
+        this.artifactFactory = artifactFactory;
+
+        SimpleDateFormat fmt = new SimpleDateFormat( "yyyyMMddHHmmss" );
+        fmt.setTimeZone( TimeZone.getTimeZone( "UTC" ) );
+        this.timestamp = fmt.format( new Date() );
+    }
+
+    /**
+     * @return the number of coordinates written to the index.
+     */
+    public int generate( final Collection<Artifact> artifacts )
+        throws IOException
+    {
+        for ( Artifact a : artifacts )
+        {
+            add( a );
+        }
+
+        return finish();
+    }
+
+    /**
+     * Record one collected artifact. Only its coordinate and path are retained, so artifacts may be added as they
+     * are written and released right afterwards.
+     */
+    public void add( final Artifact a )
+        throws IOException
+    {
+        if ( Artifact.SCOPE_SYSTEM.equals( a.getScope() ) )
+        {
+            return;
+        }
+
+        String path = layout.pathOf( a );
+        File file = new File( repositoryDirectory, path );
+        if ( !file.isFile() )
+        {
+            return;
+        }
+
+        index.put( coordinate( a ), path );
+
+        Artifact pom = artifactFactory.createProjectArtifact( a.getGroupId(), a.getArtifactId(), a.getVersion() );
+        String pomPath = layout.pathOf( pom );
+        if ( new File( repositoryDirectory, pomPath ).isFile() )
+        {
+            index.put( coordinate( pom ), pomPath );
+        }
+
+        String key = a.getGroupId() + ":" + a.getArtifactId();
+        Set<String> versions = versionsByArtifact.get( key );
+        if ( versions == null )
+        {
+            versions = new TreeSet<String>( VERSION_ORDER );
+            versionsByArtifact.put( key, versions );
+        }
+        versions.add( a.getBaseVersion() );
+
+        if ( "maven-plugin".equals( a.getType() ) )
+        {
+            String prefix = readGoalPrefix( file );
+            if ( prefix != null )
+            {
+                Map<String, Plugin> plugins = pluginsByGroup.get( a.getGroupId() );
+                if ( plugins == null )
+                {
+                    plugins = new TreeMap<String, Plugin>();
+                    pluginsByGroup.put( a.getGroupId(), plugins );
+                }
+
+                Plugin plugin = new Plugin();
+                plugin.setArtifactId( a.getArtifactId() );
+                plugin.setPrefix( prefix );
+                plugin.setName( a.getArtifactId() );
+                plugins.put( a.getArtifactId(), plugin );
+            }
+        }
+    }
+
+    /**
+     * Write the metadata files and index for everything added so far.
+     * 
+     * @return the number of coordinates written to the index.
+     */
+    public int finish()
+        throws IOException
+    {
+        for ( Map.Entry<String, Set<String>> entry : versionsByArtifact.entrySet() )
+        {
+            String groupId = entry.getKey().substring( 0, entry.getKey().indexOf( ':' ) );
+            String artifactId = entry.getKey().substring( groupId.length() + 1 );
+            writeArtifactMetadata( groupId, artifactId, entry.getValue() );
+        }
+
+        for ( Map.Entry<String, Map<String, Plugin>> entry : pluginsByGroup.entrySet() )
+        {
+            Metadata metadata = new Metadata();
+            for ( Plugin plugin : entry.getValue().values() )
+            {
+                metadata.addPlugin( plugin );
+            }
+
+            writeMetadata( new File( repositoryDirectory, entry.getKey().replace( '.', '/' ) ), metadata );
+        }
+
+        CollectedRepositoryIndex.write( new File( repositoryDirectory, CollectedRepositoryIndex.FILE_NAME ), index );
+
+        return index.size();
+    }
+
+    static String coordinate( final Artifact a )
+    {
+        return a.getGroupId() + ":" + a.getArtifactId() + ":" + a.getType() + ":"
+            + ( a.getClassifier() == null ? "" : a.getClassifier() ) + ":" + a.getVersion();
+    }
+
+    private void writeArtifactMetadata( final String groupId, final String artifactId, final Set<String> versions )
+        throws IOException
+    {
+        File artifactDir = new File( repositoryDirectory, groupId.replace( '.', '/' ) + "/" + artifactId );
+
+        Versioning versioning = new Versioning();
+        String release = null;
+        String latest = null;
+        for ( String version : versions )
+        {
+            versioning.addVersion( version );
+            latest = version;
+
+            if ( version.endsWith( Artifact.SNAPSHOT_VERSION ) )
+            {
+                Snapshot snapshot = new Snapshot();
+                snapshot.setLocalCopy( true );
+
+                Versioning snapshotVersioning = new Versioning();
+                snapshotVersioning.setSnapshot( snapshot );
+                snapshotVersioning.setLastUpdated( timestamp );
+
+                Metadata snapshotMetadata = new Metadata();
+                snapshotMetadata.setGroupId( groupId );
+                snapshotMetadata.setArtifactId( artifactId );
+                snapshotMetadata.setVersion( version );
+                snapshotMetadata.setVersioning( snapshotVersioning );
+
+                writeMetadata( new File( artifactDir, version ), snapshotMetadata );
+            }
+            else
+            {
+                release = version;
+            }
+        }
+
+        versioning.setLatest( latest );
+        versioning.setRelease( release );
+        versioning.setLastUpdated( timestamp );
+
+        Metadata metadata = new Metadata();
+        metadata.setGroupId( groupId );
+        metadata.setArtifactId( artifactId );
+        metadata.setVersioning( versioning );
+
+        writeMetadata( artifactDir, metadata );
+    }
+
+    private void writeMetadata( final File dir, final Metadata metadata )
+        throws IOException
+    {
+        dir.mkdirs();
+        File file = new File( dir, "maven-metadata.xml" );
+
+        Writer writer = null;
+        try
+        {
+            writer = new OutputStreamWriter( new FileOutputStream( file ), "UTF-8" );
+            new MetadataXpp3Writer().write( writer, metadata );
+        }
+        finally
+        {
+            IOUtil.close( writer );
+        }
+
+        Checksums.writeChecksumFiles( file );
+    }
+
+    private static String readGoalPrefix( final File pluginJar )
+        throws IOException
+    {
+        JarFile jar = new JarFile( pluginJar );
+        try
+        {
+            ZipEntry entry = jar.getEntry( "META-INF/maven/plugin.xml" );
+            if ( entry == null )
+            {
+                return null;
+            }
+
+            InputStreamReader reader = new InputStreamReader( jar.getInputStream( entry ), "UTF-8" );
+            try
+            {
+                Xpp3Dom goalPrefix = Xpp3DomBuilder.build( reader ).getChild( "goalPrefix" );
+                return goalPrefix == null ? null : goalPrefix.getValue();
+            }
+            catch ( XmlPullParserException e )
+            {
+                return null;
+            }
+            finally
+            {
+                IOUtil.close( reader );
+            }
+        }
+        finally
+        {
+            jar.close();
+        }
+    }
+
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2009 Sonatype, Inc.                                                                                                                          
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ */
+package org.apache.maven.plugin.repository.collector;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.repository.ArtifactRepository;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.project.MavenProject;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Resolves the assembled direct artifacts, and their transitive dependencies, into a local repository. The collect
+ * and resolve goals select an implementation with their 'backend' parameter: the default 'maven' one (the repository
+ * assembler for collect, {@link MavenResolutionBackend} for resolve) or {@link ConcurrentResolutionBackend}.
+ */
+public interface ResolutionBackend
+{
+
+    /**
+     * @param project the synthetic project holding the direct artifacts (with the include/exclude filter attached)
+     *            and the remote repositories to resolve from.
+     * @param pluginManagedVersions the dependency management of each plugin, by the plugin's conflict id.
+     * @param separately resolve each direct artifact's graph on its own, with its plugin's dependency management,
+     *            instead of mediating a single graph.
+     * @return the resolved artifacts, with their files set.
+     */
+    Set<Artifact> resolve( MavenProject project, Map<String, Map<String, Artifact>> pluginManagedVersions,
+                           ArtifactRepository localRepository, boolean separately )
+        throws MojoExecutionException;
+
+}
@@ -0,0 +1,798 @@
+/*
+ * Copyright (C) 2009 Sonatype, Inc.                                                                                                                          
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ */
+package org.apache.maven.plugin.repository.collector;
+
+import org.apache.maven.ProjectDependenciesResolver;
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.factory.ArtifactFactory;
+import org.apache.maven.artifact.metadata.ArtifactMetadataSource;
+import org.apache.maven.artifact.repository.ArtifactRepository;
+import org.apache.maven.artifact.repository.ArtifactRepositoryPolicy;
+import org.apache.maven.artifact.resolver.ArtifactResolver;
+import org.apache.maven.artifact.resolver.filter.AndArtifactFilter;
+import org.apache.maven.artifact.resolver.filter.ArtifactFilter;
+import org.apache.maven.artifact.resolver.filter.ExcludesArtifactFilter;
+import org.apache.maven.artifact.versioning.VersionRange;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.model.Model;
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.IOUtil;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Serves transitive resolution requests from the resolve goal over a loopback socket, from one long-lived Maven
+ * process. The process keeps Maven's project-builder caches (parsed POMs, repository metadata) warm across builds,
+ * and the daemon adds an LRU cache of resolved graphs bounded by a memory budget. Graphs are resolved by a
+ * {@link MavenResolutionBackend}, as the resolve goal does in-process.
+ * <br/>
+ * Only clients that can read the daemon's token file are served: each side proves it knows the token by signing the
+ * client's nonce, so the token itself is never sent. Requests may only name the daemon's own local repository and
+ * the remote repositories (id, URL and policies) it was configured with, and are bounded in size.
+ * <br/>
+ * The protocol is line-based UTF-8 text. A request is:
+ *
+ * <pre>
+ * collector-daemon 2
+ * auth &lt;nonce&gt; &lt;signature&gt;                    (HMAC-SHA256 of 'client &lt;nonce&gt;' with the token)
+ * local &lt;path&gt;
+ * remote &lt;id&gt; &lt;releases&gt; &lt;snapshots&gt; &lt;url&gt;    (policies: enabled/updatePolicy/checksumPolicy)
+ * include &lt;pattern&gt;
+ * exclude &lt;pattern&gt;
+ * originating &lt;groupId:artifactId:type:version&gt;
+ * managed &lt;groupId:artifactId:type:classifier:version:scope&gt;
+ * artifact &lt;groupId:artifactId:type:classifier:version:scope:optional&gt;
+ * exclusion &lt;groupId:artifactId&gt;               (for the preceding artifact)
+ * system &lt;path&gt;                                  (for the preceding artifact)
+ * end
+ * </pre>
+ *
+ * The response is the protocol line, then 'proof &lt;signature&gt;' (of 'daemon &lt;nonce&gt;'), then either one
+ * 'artifact &lt;coordinate&gt; &lt;file&gt;' line per resolved artifact followed by 'end', or a single
+ * 'error &lt;message&gt;' line. Unauthenticated requests get the error line without the proof.
+ */
+public class ResolutionDaemon
+{
+
+    public static final String PROTOCOL = "collector-daemon 2";
+
+    private static final int MAX_REQUEST_SIZE = 4 * 1024 * 1024;
+
+    private static final int REQUEST_TIMEOUT = 60000;
+
+    private final ArtifactFactory artifactFactory;
+
+    private final ProjectDependenciesResolver projectResolver;
+
+    private final ArtifactResolver artifactResolver;
+
+    private final ArtifactMetadataSource metadataSource;
+
+    private final MavenSession session;
+
+    private final List<ArtifactRepository> repositories;
+
+    private final String token;
+
+    private final long cacheTtl;
+
+    private final long memoryBudget;
+
+    private final Log log;
+
+    private final Map<String, CachedGraph> graphs = new LinkedHashMap<String, CachedGraph>( 16, 0.75f, true );
+
+    private final Object resolutionLock = new Object();
+
+    private long cacheSize;
+
+    private int requests;
+
+    private int hits;
+
+    private int evictions;
+
+    private int rejections;
+
+    private int active;
+
+    /**
+     * @param session the daemon's session; every graph is resolved into its local repository.
+     * @param repositories the remote repositories requests may use.
+     * @param token the shared secret clients must prove they know.
+     * @param cacheTtl how long a resolved graph is reused, in milliseconds.
+     * @param memoryBudget the approximate number of bytes the graph cache may hold.
+     */
+    public ResolutionDaemon( final ArtifactFactory artifactFactory, final ProjectDependenciesResolver projectResolver,
+                             final ArtifactResolver artifactResolver, final ArtifactMetadataSource metadataSource,
+                             final MavenSession session, final List<ArtifactRepository> repositories,
+                             final String token, final long cacheTtl, final long memoryBudget, final Log log )
+    {
+        this.artifactFactory = artifactFactory;
+        this.projectResolver = projectResolver;
+        this.artifactResolver = artifactResolver;
+        this.metadataSource = metadataSource;
+        this.session = session;
+        this.repositories = repositories == null ? Collections.<ArtifactRepository> emptyList() : repositories;
+        this.token = token;
+        this.cacheTtl = cacheTtl;
+        this.memoryBudget = memoryBudget;
+        this.log = log;
+    }
+
+    /**
+     * Serve requests until no request has arrived for idleTimeout milliseconds (0 serves until the process is
+     * stopped).
+     */
+    public void serve( final ServerSocket server, final int threads, final int idleTimeout )
+        throws IOException
+    {
+        ExecutorService executor = Executors.newFixedThreadPool( Math.max( 1, threads ) );
+        try
+        {
+            server.setSoTimeout( idleTimeout );
+            while ( true )
+            {
+                final Socket socket;
+                try
+                {
+                    socket = server.accept();
+                }
+                catch ( SocketTimeoutException e )
+                {
+                    synchronized ( this )
+                    {
+                        if ( active > 0 )
+                        {
+                            continue;
+                        }
+                    }
+
+                    log.info( "No requests for " + idleTimeout / 60000 + " minutes; stopping. " + getStatistics() );
+                    return;
+                }
+
+                synchronized ( this )
+                {
+                    active++;
+                }
+                executor.execute( new Runnable()
+                {
+                    public void run()
+                    {
+                        try
+                        {
+                            handle( socket );
+                        }
+                        finally
+                        {
+                            synchronized ( ResolutionDaemon.this )
+                            {
+                                active--;
+                            }
+                        }
+                    }
+                } );
+            }
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
+    public synchronized String getStatistics()
+    {
+        return requests + " requests, " + hits + " served from the graph cache, " + evictions + " evicted, "
+            + rejections + " rejected; " + graphs.size() + " graphs cached (~" + cacheSize / 1024 + " KB)";
+    }
+
+    /**
+     * @return a new random token, in hex.
+     */
+    public static String createToken()
+    {
+        return createNonce( 32 );
+    }
+
+    /**
+     * Write the token to a file only the current user can read, in a directory only the current user can enter (so
+     * that it cannot be opened by others before the file's own permissions are set).
+     */
+    public static void writeToken( final File file, final String token )
+        throws IOException
+    {
+        File directory = file.getAbsoluteFile().getParentFile();
+        directory.mkdirs();
+        if ( !restrictToOwner( directory ) || !directory.setExecutable( true, true ) )
+        {
+            throw new IOException( "Cannot restrict access to: " + directory + " to its owner." );
+        }
+
+        file.delete();
+        if ( !file.createNewFile() || !restrictToOwner( file ) )
+        {
+            file.delete();
+            throw new IOException( "Cannot restrict access to: " + file + " to its owner." );
+        }
+
+        Writer writer = null;
+        try
+        {
+            writer = new OutputStreamWriter( new FileOutputStream( file ), "US-ASCII" );
+            writer.write( token );
+        }
+        finally
+        {
+            IOUtil.close( writer );
+        }
+    }
+
+    /**
+     * @return the token in the given file, or null when there is none.
+     */
+    public static String readToken( final File file )
+        throws IOException
+    {
+        if ( file == null || !file.isFile() )
+        {
+            return null;
+        }
+
+        String token = FileUtils.fileRead( file, "US-ASCII" ).trim();
+        return token.length() < 1 ? null : token;
+    }
+
+    static String createNonce( final int bytes )
+    {
+        byte[] nonce = new byte[bytes];
+        new SecureRandom().nextBytes( nonce );
+        return Checksums.toHex( nonce );
+    }
+
+    /**
+     * @return the HMAC-SHA256 of the message, keyed with the token, in hex.
+     */
+    static String sign( final String token, final String message )
+    {
+        try
+        {
+            Mac mac = Mac.getInstance( "HmacSHA256" );
+            mac.init( new SecretKeySpec( token.getBytes( "UTF-8" ), "HmacSHA256" ) );
+            return Checksums.toHex( mac.doFinal( message.getBytes( "UTF-8" ) ) );
+        }
+        catch ( GeneralSecurityException e )
+        {
+            throw new IllegalStateException( "HmacSHA256 is not available: " + e.getMessage() );
+        }
+        catch ( UnsupportedEncodingException e )
+        {
+            throw new IllegalStateException( "UTF-8 is not available: " + e.getMessage() );
+        }
+    }
+
+    static boolean isSignedBy( final String token, final String message, final String signature )
+    {
+        try
+        {
+            return signature != null
+                && MessageDigest.isEqual( sign( token, message ).getBytes( "US-ASCII" ),
+                                          signature.getBytes( "US-ASCII" ) );
+        }
+        catch ( UnsupportedEncodingException e )
+        {
+            throw new IllegalStateException( "US-ASCII is not available: " + e.getMessage() );
+        }
+    }
+
+    /**
+     * The policy of a repository as written in a request: enabled/updatePolicy/checksumPolicy, or '-'.
+     */
+    static String toToken( final ArtifactRepositoryPolicy policy )
+    {
+        if ( policy == null )
+        {
+            return "-";
+        }
+
+        return policy.isEnabled() + "/" + ( policy.getUpdatePolicy() == null ? "" : policy.getUpdatePolicy() ) + "/"
+            + ( policy.getChecksumPolicy() == null ? "" : policy.getChecksumPolicy() );
+    }
+
+    private static boolean restrictToOwner( final File file )
+    {
+        return file.setReadable( false, false ) && file.setReadable( true, true ) && file.setWritable( false, false )
+            && file.setWritable( true, true ) && file.setExecutable( false, false );
+    }
+
+    private void handle( final Socket socket )
+    {
+        Writer writer = null;
+        Reader reader = null;
+        try
+        {
+            socket.setSoTimeout( REQUEST_TIMEOUT );
+            reader = new BufferedReader( new InputStreamReader( socket.getInputStream(), "UTF-8" ) );
+            writer = new OutputStreamWriter( socket.getOutputStream(), "UTF-8" );
+
+            List<String> request;
+            try
+            {
+                request = readRequest( reader );
+            }
+            catch ( IOException e )
+            {
+                reject( "Rejected request: " + e.getMessage() );
+                writer.write( PROTOCOL + "\nerror " + e.getMessage() + "\n" );
+                return;
+            }
+
+            writer.write( PROTOCOL );
+            writer.write( '\n' );
+
+            if ( request.isEmpty() || !PROTOCOL.equals( request.get( 0 ) ) )
+            {
+                writer.write( "error Unsupported protocol; expected: " + PROTOCOL + "\n" );
+                return;
+            }
+
+            String nonce = request.size() < 2 ? null : authenticate( request.get( 1 ) );
+            if ( nonce == null )
+            {
+                reject( "Rejected a request that did not prove it knows the daemon's token." );
+                writer.write( "error Not authorized\n" );
+                return;
+            }
+            writer.write( "proof " + sign( token, "daemon " + nonce ) + "\n" );
+            writer.flush();
+
+            List<String> response;
+            try
+            {
+                response = getGraph( request.subList( 2, request.size() ) );
+            }
+            catch ( Exception e )
+            {
+                log.warn( "Failed to resolve request: " + e.getMessage() );
+                writer.write( "error " + String.valueOf( e.getMessage() ).replace( '\n', ' ' ) + "\n" );
+                return;
+            }
+
+            for ( String artifact : response )
+            {
+                writer.write( artifact );
+                writer.write( '\n' );
+            }
+            writer.write( "end\n" );
+        }
+        catch ( IOException e )
+        {
+            log.warn( "Failed to serve request: " + e.getMessage() );
+        }
+        finally
+        {
+            IOUtil.close( writer );
+            IOUtil.close( reader );
+            try
+            {
+                socket.close();
+            }
+            catch ( IOException e )
+            {
+                // nothing left to do with it.
+            }
+        }
+    }
+
+    /**
+     * Read the request lines up to 'end', refusing requests over MAX_REQUEST_SIZE characters.
+     */
+    static List<String> readRequest( final Reader reader )
+        throws IOException
+    {
+        List<String> request = new ArrayList<String>();
+        StringBuilder line = new StringBuilder();
+        int size = 0;
+        int c;
+        while ( ( c = reader.read() ) > -1 )
+        {
+            if ( ++size > MAX_REQUEST_SIZE )
+            {
+                throw new IOException( "Request exceeds " + MAX_REQUEST_SIZE + " characters." );
+            }
+
+            if ( c == '\n' )
+            {
+                if ( "end".equals( line.toString() ) )
+                {
+                    break;
+                }
+                request.add( line.toString() );
+                line.setLength( 0 );
+            }
+            else if ( c != '\r' )
+            {
+                line.append( (char) c );
+            }
+        }
+
+        return request;
+    }
+
+    /**
+     * @return the client's nonce, or null when the line does not carry a valid signature of it.
+     */
+    private String authenticate( final String line )
+    {
+        String[] fields = line.split( " " );
+        if ( fields.length != 3 || !"auth".equals( fields[0] ) || fields[1].length() < 32 )
+        {
+            return null;
+        }
+
+        return isSignedBy( token, "client " + fields[1], fields[2] ) ? fields[1] : null;
+    }
+
+    private synchronized void reject( final String message )
+    {
+        rejections++;
+        log.warn( message );
+    }
+
+    private List<String> getGraph( final List<String> request )
+        throws Exception
+    {
+        StringBuilder sb = new StringBuilder();
+        for ( String line : request )
+        {
+            sb.append( line ).append( '\n' );
+        }
+        String key = sb.toString();
+
+        synchronized ( this )
+        {
+            requests++;
+        }
+
+        List<String> graph = getCached( key );
+        if ( graph != null )
+        {
+            return graph;
+        }
+
+        // Maven 2's resolver and project builder were not written for concurrent use, so graphs are resolved one at
+        // a time; requests for a graph resolved meanwhile are served from the cache.
+        synchronized ( resolutionLock )
+        {
+            graph = getCached( key );
+            if ( graph != null )
+            {
+                return graph;
+            }
+
+            long start = System.currentTimeMillis();
+            graph = resolve( request );
+            log.info( "Resolved " + graph.size() + " artifacts in " + ( System.currentTimeMillis() - start )
+                + " ms." );
+
+            putCached( key, graph );
+            return graph;
+        }
+    }
+
+    /**
+     * A cached graph is only reused while it is younger than the TTL and all of its files are still there.
+     */
+    private synchronized List<String> getCached( final String key )
+    {
+        CachedGraph cached = graphs.get( key );
+        if ( cached == null )
+        {
+            return null;
+        }
+
+        boolean valid = System.currentTimeMillis() - cached.created <= cacheTtl;
+        for ( Iterator<String> it = cached.artifacts.iterator(); valid && it.hasNext(); )
+        {
+            String line = it.next();
+            valid = new File( line.substring( line.indexOf( ' ', "artifact ".length() ) + 1 ) ).exists();
+        }
+
+        if ( !valid )
+        {
+            graphs.remove( key );
+            cacheSize -= cached.size;
+            return null;
+        }
+
+        hits++;
+        return cached.artifacts;
+    }
+
+    private synchronized void putCached( final String key, final List<String> artifacts )
+    {
+        long size = 2L * key.length();
+        for ( String line : artifacts )
+        {
+            if ( line.indexOf( "-SNAPSHOT" ) > -1 )
+            {
+                // snapshots are checked according to their update policy, which a cached graph would bypass.
+                return;
+            }
+            size += 40 + 2L * line.length();
+        }
+
+        if ( size > memoryBudget )
+        {
+            return;
+        }
+
+        CachedGraph previous = graphs.put( key, new CachedGraph( artifacts, size ) );
+        cacheSize += size - ( previous == null ? 0 : previous.size );
+
+        for ( Iterator<CachedGraph> it = graphs.values().iterator(); cacheSize > memoryBudget && it.hasNext(); )
+        {
+            cacheSize -= it.next().size;
+            it.remove();
+            evictions++;
+        }
+    }
+
+    @SuppressWarnings( "unchecked" )
+    private List<String> resolve( final List<String> request )
+        throws Exception
+    {
+        ArtifactRepository localRepository = session.getLocalRepository();
+        boolean local = false;
+        List<ArtifactRepository> remoteRepositories = new ArrayList<ArtifactRepository>();
+        List<String> includes = new ArrayList<String>();
+        List<String> excludes = new ArrayList<String>();
+        Artifact originating = null;
+        Map<String, Artifact> managedVersions = new HashMap<String, Artifact>();
+        Set<Artifact> artifacts = new LinkedHashSet<Artifact>();
+        Map<Artifact, List<String>> exclusions = new LinkedHashMap<Artifact, List<String>>();
+
+        Artifact last = null;
+        for ( String line : request )
+        {
+            int space = line.indexOf( ' ' );
+            String command = space < 0 ? line : line.substring( 0, space );
+            String value = space < 0 ? "" : line.substring( space + 1 );
+
+            if ( "local".equals( command ) )
+            {
+                File basedir = new File( localRepository.getBasedir() ).getCanonicalFile();
+                if ( !new File( value ).getCanonicalFile().equals( basedir ) )
+                {
+                    throw new IOException( "Local repository: " + value + " is not the daemon's: "
+                        + localRepository.getBasedir() );
+                }
+                local = true;
+            }
+            else if ( "remote".equals( command ) )
+            {
+                String[] fields = value.split( " ", 4 );
+                if ( fields.length != 4 )
+                {
+                    throw new IOException( "Invalid request line: " + line );
+                }
+                remoteRepositories.add( findRepository( fields[0], fields[1], fields[2], fields[3] ) );
+            }
+            else if ( "include".equals( command ) )
+            {
+                includes.add( value );
+            }
+            else if ( "exclude".equals( command ) )
+            {
+                excludes.add( value );
+            }
+            else if ( "originating".equals( command ) )
+            {
+                String[] fields = split( value, 4, line );
+                originating = artifactFactory.createBuildArtifact( fields[0], fields[1], fields[3], fields[2] );
+            }
+            else if ( "managed".equals( command ) )
+            {
+                String[] fields = split( value, 6, line );
+                Artifact managed =
+                    artifactFactory.createDependencyArtifact( fields[0], fields[1],
+                                                              VersionRange.createFromVersion( fields[4] ), fields[2],
+                                                              fields[3].length() < 1 ? null : fields[3],
+                                                              fields[5].length() < 1 ? null : fields[5] );
+                managedVersions.put( managed.getDependencyConflictId(), managed );
+            }
+            else if ( "artifact".equals( command ) )
+            {
+                String[] fields = split( value, 7, line );
+                last =
+                    artifactFactory.createDependencyArtifact( fields[0], fields[1],
+                                                              VersionRange.createFromVersionSpec( fields[4] ),
+                                                              fields[2], fields[3].length() < 1 ? null : fields[3],
+                                                              fields[5], Boolean.valueOf( fields[6] ).booleanValue() );
+                artifacts.add( last );
+            }
+            else if ( "exclusion".equals( command ) && last != null )
+            {
+                List<String> patterns = exclusions.get( last );
+                if ( patterns == null )
+                {
+                    patterns = new ArrayList<String>();
+                    exclusions.put( last, patterns );
+                }
+                patterns.add( value );
+            }
+            else if ( "system".equals( command ) && last != null )
+            {
+                last.setFile( new File( value ) );
+            }
+            else
+            {
+                throw new IOException( "Invalid request line: " + line );
+            }
+        }
+
+        if ( !local || originating == null )
+        {
+            throw new IOException( "Incomplete request: the local repository and originating artifact are required." );
+        }
+
+        ArtifactFilter patternFilter =
+            includes.isEmpty() && excludes.isEmpty() ? null : new CoordinatePatternFilter( includes, excludes );
+        for ( Artifact a : artifacts )
+        {
+            List<String> patterns = exclusions.get( a );
+            if ( patterns != null && patternFilter != null )
+            {
+                AndArtifactFilter and = new AndArtifactFilter();
+                and.add( new ExcludesArtifactFilter( patterns ) );
+                and.add( patternFilter );
+                a.setDependencyFilter( and );
+            }
+            else if ( patterns != null )
+            {
+                a.setDependencyFilter( new ExcludesArtifactFilter( patterns ) );
+            }
+            else
+            {
+                a.setDependencyFilter( patternFilter );
+            }
+        }
+
+        // the same synthetic project, and the same backend, as the resolve goal uses in-process.
+        Model model = new Model();
+        model.setModelVersion( "4.0.0" );
+        model.setGroupId( originating.getGroupId() );
+        model.setArtifactId( originating.getArtifactId() );
+        model.setVersion( originating.getVersion() );
+        model.setPackaging( originating.getType() );
+
+        MavenProject project = new MavenProject( model );
+        project.setDependencyArtifacts( artifacts );
+        project.setRemoteArtifactRepositories( remoteRepositories );
+        project.setArtifact( originating );
+        if ( !managedVersions.isEmpty() )
+        {
+            project.setManagedVersionMap( managedVersions );
+        }
+
+        ResolutionBackend backend =
+            new MavenResolutionBackend( projectResolver, artifactResolver, metadataSource, session, managedVersions,
+                                        patternFilter, log );
+        Set<Artifact> result =
+            backend.resolve( project, Collections.<String, Map<String, Artifact>> emptyMap(), localRepository, false );
+
+        List<String> response = new ArrayList<String>();
+        for ( Artifact a : result )
+        {
+            response.add( "artifact " + a.getGroupId() + ":" + a.getArtifactId() + ":" + a.getType() + ":"
+                + ( a.getClassifier() == null ? "" : a.getClassifier() ) + ":" + a.getVersion() + ":" + a.getScope()
+                + ":" + a.isOptional() + " " + a.getFile().getAbsolutePath() );
+        }
+
+        return response;
+    }
+
+    /**
+     * @return the configured repository with the given id, policies and URL.
+     * @throws IOException when the daemon has no such repository.
+     */
+    private ArtifactRepository findRepository( final String id, final String releases, final String snapshots,
+                                               final String url )
+        throws IOException
+    {
+        for ( ArtifactRepository r : repositories )
+        {
+            if ( r.getId().equals( id ) && normalize( r.getUrl() ).equals( normalize( url ) )
+                && toToken( r.getReleases() ).equals( releases ) && toToken( r.getSnapshots() ).equals( snapshots ) )
+            {
+                return r;
+            }
+        }
+
+        throw new IOException( "Repository: " + id + " (" + url + ") is not configured in the daemon." );
+    }
+
+    private static String normalize( final String url )
+    {
+        String normalized = url.trim();
+        while ( normalized.endsWith( "/" ) )
+        {
+            normalized = normalized.substring( 0, normalized.length() - 1 );
+        }
+
+        return normalized;
+    }
+
+    private static String[] split( final String value, final int count, final String line )
+        throws IOException
+    {
+        String[] fields = value.split( ":", -1 );
+        if ( fields.length != count )
+        {
+            throw new IOException( "Invalid request line: " + line );
+        }
+
+        return fields;
+    }
+
+    private static final class CachedGraph
+    {
+        private final List<String> artifacts;
+
+        private final long size;
+
+        private final long created = System.currentTimeMillis();
+
+        CachedGraph( final List<String> artifacts, final long size )
+        {
+            this.artifacts = Collections.unmodifiableList( artifacts );
+            this.size = size;
+        }
+    }
+
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright (C) 2009 Sonatype, Inc.                                                                                                                          
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ */
+package org.apache.maven.plugin.repository.collector;
+
+import org.apache.maven.artifact.repository.ArtifactRepository;
+import org.codehaus.plexus.util.IOUtil;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compact, line-oriented record of a fully resolved graph. Each line holds one file:
+ *
+ * <pre>
+ * groupId:artifactId:type:classifier:version repositoryId sha1
+ * </pre>
+ *
+ * The classifier field is empty when there is none, and the repository id is '-' when the source repository is not
+ * known. Lines are sorted, so lockfiles of unchanged graphs are byte-for-byte identical.
+ */
+public final class ResolutionLockFile
+{
+
+    private static final String HEADER = "# maven-repository-collector lockfile, version 1";
+
+    public static final String UNKNOWN_REPOSITORY = "-";
+
+    private ResolutionLockFile()
+    {
+    }
+
+    public static List<Entry> read( final File file )
+        throws IOException
+    {
+        List<Entry> entries = new ArrayList<Entry>();
+
+        BufferedReader reader = null;
+        try
+        {
+            reader = new BufferedReader( new InputStreamReader( new FileInputStream( file ), "UTF-8" ) );
+
+            String line;
+            int lineNumber = 0;
+            while ( ( line = reader.readLine() ) != null )
+            {
+                lineNumber++;
+                line = line.trim();
+                if ( line.length() < 1 || line.startsWith( "#" ) )
+                {
+                    continue;
+                }
+
+                String[] fields = line.split( " " );
+                String[] coord = fields[0].split( ":", -1 );
+                if ( fields.length != 3 || coord.length != 5 )
+                {
+                    throw new IOException( "Invalid lockfile entry at " + file + ":" + lineNumber + ": '" + line
+                        + "'" );
+                }
+
+                entries.add( new Entry( coord[0], coord[1], coord[2], coord[3].length() < 1 ? null : coord[3],
+                                        coord[4], fields[1], fields[2] ) );
+            }
+        }
+        finally
+        {
+            IOUtil.close( reader );
+        }
+
+        return entries;
+    }
+
+    public static void write( final File file, final Collection<Entry> entries )
+        throws IOException
+    {
+        Map<String, Entry> sorted = new TreeMap<String, Entry>();
+        for ( Entry entry : entries )
+        {
+            sorted.put( entry.getCoordinate(), entry );
+        }
+
+        File dir = file.getAbsoluteFile().getParentFile();
+        if ( dir != null )
+        {
+            dir.mkdirs();
+        }
+
+        Writer writer = null;
+        try
+        {
+            writer = new OutputStreamWriter( new FileOutputStream( file ), "UTF-8" );
+            writer.write( HEADER );
+            writer.write( '\n' );
+
+            for ( Entry entry : sorted.values() )
+            {
+                writer.write( entry.getCoordinate() );
+                writer.write( ' ' );
+                writer.write( entry.getRepositoryId() );
+                writer.write( ' ' );
+                writer.write( entry.getSha1() );
+                writer.write( '\n' );
+            }
+        }
+        finally
+        {
+            IOUtil.close( writer );
+        }
+    }
+
+    /**
+     * The repositories to replay an entry from: the one it was recorded from first, then the others in order.
+     */
+    public static List<ArtifactRepository> getReplayRepositories( final Entry entry,
+                                                                  final List<ArtifactRepository> repositories )
+    {
+        if ( UNKNOWN_REPOSITORY.equals( entry.getRepositoryId() ) )
+        {
+            return repositories;
+        }
+
+        List<ArtifactRepository> ordered = new ArrayList<ArtifactRepository>( repositories.size() );
+        for ( ArtifactRepository r : repositories )
+        {
+            if ( r.getId().equals( entry.getRepositoryId() ) )
+            {
+                ordered.add( 0, r );
+            }
+            else
+            {
+                ordered.add( r );
+            }
+        }
+
+        return ordered;
+    }
+
+    /**
+     * Check a replayed file against the SHA-1 recorded for its entry.
+     *
+     * @throws IOException when the file cannot be read or does not match.
+     */
+    public static void verify( final Entry entry, final File file )
+        throws IOException
+    {
+        String actual = Checksums.sha1( file );
+        if ( !actual.equals( entry.getSha1() ) )
+        {
+            throw new IOException( "Checksum mismatch for: " + entry.getCoordinate() + " (" + file
+                + ")\nExpected SHA-1: " + entry.getSha1() + "\nActual SHA-1:   " + actual );
+        }
+    }
+
+    public static final class Entry
+    {
+        private final String groupId;
+
+        private final String artifactId;
+
+        private final String type;
+
+        private final String classifier;
+
+        private final String version;
+
+        private final String repositoryId;
+
+        private final String sha1;
+
+        public Entry( final String groupId, final String artifactId, final String type, final String classifier,
+                      final String version, final String repositoryId, final String sha1 )
+        {
+            this.groupId = groupId;
+            this.artifactId = artifactId;
+            this.type = type;
+            this.classifier = classifier;
+            this.version = version;
+            this.repositoryId = repositoryId == null ? UNKNOWN_REPOSITORY : repositoryId;
+            this.sha1 = sha1;
+        }
+
+        public String getCoordinate()
+        {
+            return groupId + ":" + artifactId + ":" + type + ":" + ( classifier == null ? "" : classifier ) + ":"
+                + version;
+        }
+
+        public String getGroupId()
+        {
+            return groupId;
+        }
+
+        public String getArtifactId()
+        {
+            return artifactId;
+        }
+
+        public String getType()
+        {
+            return type;
+        }
+
+        public String getClassifier()
+        {
+            return classifier;
+        }
+
+        public String getVersion()
+        {
+            return version;
+        }
+
+        public String getRepositoryId()
+        {
+            return repositoryId;
+        }
+
+        public String getSha1()
+        {
+            return sha1;
+        }
+    }
+
+}
@@ -19,6 +19,7 @@ package org.apache.maven.plugin.repository.collector;
 
 import org.apache.maven.ProjectDependenciesResolver;
 import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.metadata.ArtifactMetadataRetrievalException;
 import org.apache.maven.artifact.metadata.ArtifactMetadataSource;
 import org.apache.maven.artifact.repository.ArtifactRepository;
 import org.apache.maven.artifact.repository.ArtifactRepositoryPolicy;
@@ -26,13 +27,16 @@ import org.apache.maven.artifact.repository.DefaultArtifactRepository;
 import org.apache.maven.artifact.repository.layout.DefaultRepositoryLayout;
 import org.apache.maven.artifact.resolver.ArtifactNotFoundException;
 import org.apache.maven.artifact.resolver.ArtifactResolutionException;
+import org.apache.maven.artifact.resolver.ArtifactResolutionResult;
 import org.apache.maven.artifact.resolver.ArtifactResolver;
+import org.apache.maven.artifact.versioning.OverConstrainedVersionException;
 import org.apache.maven.execution.MavenSession;
 import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.project.MavenProject;
-import org.apache.maven.project.ProjectBuildingException;
 
 import java.io.File;
+import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
@@ -40,17 +44,23 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.ResourceBundle;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
 
 /**
  * Resolve, but DO NOT COPY, all artifacts used to build a project. These artifacts should be available
  * in the local repository after this mojo executes.
  * 
  * @goal resolve
+ * @threadSafe
  */
 public class ResolveMojo
     extends AbstractCollectorMojo
@@ -88,6 +98,67 @@ public class ResolveMojo
      */
     private boolean dedupe;
 
+    /**
+     * Conflict-mediation engine used when dedupe is enabled: 'maven' (Maven's ProjectDependenciesResolver) or
+     * 'nearest-wins' (the plugin's compact breadth-first engine, see NearestWinsMediator).
+     * 
+     * @parameter expression="${collector.mediator}" default-value="maven"
+     */
+    private String mediator;
+
+    /**
+     * When dedupe is enabled, run both mediation engines and fail the build if they select different artifacts. This
+     * is a correctness check only: both engines run in the same build, so no timing comparison or speedup figure is
+     * reported.
+     * 
+     * @parameter expression="${collector.verifyMediation}" default-value="false"
+     */
+    private boolean verifyMediation;
+
+    /**
+     * Lockfile recording the fully resolved graph (coordinates, source repository and SHA-1 of every file).
+     * 
+     * @parameter expression="${collector.lockFile}" default-value="${basedir}/collector.lock"
+     */
+    private File lockFile;
+
+    /**
+     * What to do with the lockFile: 'none', 'write' (resolve normally, then record the result) or 'replay' (fetch
+     * exactly the recorded files with up to 'threads' concurrent downloads, without graph discovery, failing on any
+     * checksum mismatch). A replayed file that does not match its recorded SHA-1 is deleted from the local repository,
+     * so it is never picked up by a later build.
+     * 
+     * @parameter expression="${collector.lockMode}" default-value="none"
+     */
+    private String lockMode;
+
+    /**
+     * Delegate transitive resolution to a resolution daemon started with the daemon goal, when one is listening on
+     * daemonPort and its token is in daemonTokenFile. When none is, or it cannot serve the request (for instance
+     * because it uses another local repository or is not configured with all of this build's remote repositories),
+     * artifacts are resolved in this build as usual, and the reason is logged.
+     * <p>
+     * Only this goal uses the daemon, and only with dedupe, the maven mediator (or verifyMediation) and the maven
+     * backend, online, without streaming, pomOnly or lockMode=replay. The daemon only serves its own local repository
+     * and remote repositories, so it is not used either when the main local repository is injected as the
+     * 'main-local' remote (localRepositoryDirectory or localRepositoryProperty with resolveFromExistingLocalRepo).
+     * 
+     * @parameter expression="${collector.useDaemon}" default-value="false"
+     */
+    private boolean useDaemon;
+
+    /**
+     * @parameter expression="${collector.daemonPort}" default-value="18733"
+     */
+    private int daemonPort;
+
+    /**
+     * The token file written by the daemon goal.
+     * 
+     * @parameter expression="${collector.daemonTokenFile}" default-value="${user.home}/.m2/collector-daemon/token"
+     */
+    private File daemonTokenFile;
+
     /**
      * @component
      */
@@ -103,86 +174,147 @@ public class ResolveMojo
      */
     private ArtifactMetadataSource metadataSource;
 
+    private MavenSession resolutionSession;
+
+    @Override
+    public void execute()
+        throws MojoExecutionException, MojoFailureException
+    {
+        if ( !"maven".equals( mediator ) && !"nearest-wins".equals( mediator ) )
+        {
+            throw new MojoFailureException( "Invalid mediator: '" + mediator
+                + "'. Valid values are: 'maven', 'nearest-wins'." );
+        }
+
+        if ( "replay".equals( lockMode ) )
+        {
+            try
+            {
+                replayLockFile();
+            }
+            finally
+            {
+                closeArtifactFetcher();
+            }
+        }
+        else if ( "none".equals( lockMode ) || "write".equals( lockMode ) )
+        {
+            if ( useDaemon )
+            {
+                String reason = getDaemonFallbackReason();
+                if ( reason != null )
+                {
+                    getLog().info( "Not using the resolution daemon: " + reason + "; resolving in this build." );
+                    useDaemon = false;
+                }
+            }
+
+            super.execute();
+        }
+        else
+        {
+            throw new MojoFailureException( "Invalid lockMode: '" + lockMode
+                + "'. Valid values are: 'none', 'write', 'replay'." );
+        }
+    }
+
     @SuppressWarnings( "unchecked" )
     @Override
     protected void collect( final MavenProject project, final Map<String, Map<String, Artifact>> pluginManagedVersions )
         throws MojoExecutionException
     {
         injectLocalAsRemotes( project );
-        invalidateProjectBuilderCache();
 
         MavenSession selectedSession = selectSession();
 
         getLog().info( "Resolving artifacts to: " + selectedSession.getLocalRepository().getUrl() );
 
-        Set<String> scopes = new HashSet<String>();
-        scopes.add( Artifact.SCOPE_TEST );
-        scopes.add( Artifact.SCOPE_RUNTIME );
-        
+        ResolutionBackend mavenBackend =
+            new MavenResolutionBackend( projectResolver, artifactResolver, metadataSource, selectedSession,
+                                        getProject().getManagedVersionMap(), getArtifactFilter(), getLog() );
+
         Set<Artifact> result = null;
-        try
+        Set<Artifact> graph = null;
+        if ( isPomOnly() )
         {
-            if ( dedupe )
+            graph =
+                collectPomGraph( project.getDependencyArtifacts(), pluginManagedVersions, metadataSource,
+                                 selectedSession.getLocalRepository(), project.getRemoteArtifactRepositories(),
+                                 !dedupe );
+        }
+        else if ( dedupe )
+        {
+            NearestWinsMediator engine =
+                new NearestWinsMediator( metadataSource, selectedSession.getLocalRepository(),
+                                         project.getRemoteArtifactRepositories(), getLog() );
+
+            Set<Artifact> fastResult = null;
+            if ( "nearest-wins".equals( mediator ) || verifyMediation )
             {
-                result = projectResolver.resolve( project, scopes, selectedSession );
+                fastResult =
+                    resolveNearestWins( engine, project, pluginManagedVersions, selectedSession.getLocalRepository() );
             }
-            else
-            {
-                getLog().info( "Resolving " + project.getDependencyArtifacts().size() + " artifacts." );
 
-                for ( Artifact artifact : (Set<Artifact>) project.getDependencyArtifacts() )
+            Set<Artifact> mavenResult = null;
+            if ( "maven".equals( mediator ) || verifyMediation )
+            {
+                if ( "maven".equals( getBackend() ) )
                 {
-                    getLog().debug( "Resolving: " + artifact.getId() );
-
-                    Map<String, Artifact> managed = pluginManagedVersions.get( artifact.getDependencyConflictId() );
-                    if ( managed == null )
-                    {
-                        managed = getProject().getManagedVersionMap();
-                    }
-
-                    artifactResolver.resolveTransitively( Collections.singleton( artifact ), project.getArtifact(),
-                                                          managed, selectedSession.getLocalRepository(),
-                                                          project.getRemoteArtifactRepositories(), metadataSource );
-
-                    getMavenProjectBuilder().buildFromRepository( artifact, project.getRemoteArtifactRepositories(),
-                                                                  selectedSession.getLocalRepository() );
+                    mavenResult = resolveWithDaemon( project, selectedSession.getLocalRepository() );
+                }
+                if ( mavenResult == null )
+                {
+                    mavenResult =
+                        resolveWithBackend( mavenBackend, artifactResolver, metadataSource, project,
+                                            pluginManagedVersions, selectedSession.getLocalRepository(), false );
                 }
+            }
 
-                result = project.getArtifacts();
+            if ( verifyMediation )
+            {
+                compareMediation( mavenResult, fastResult, engine );
             }
+
+            result = "maven".equals( mediator ) ? mavenResult : fastResult;
         }
-        catch ( ArtifactResolutionException e )
+        else
         {
-            throw new MojoExecutionException( "Failed to resolve project artifacts: " + e.getMessage(), e );
+            result =
+                resolveWithBackend( mavenBackend, artifactResolver, metadataSource, project, pluginManagedVersions,
+                                    selectedSession.getLocalRepository(), true );
         }
-        catch ( ArtifactNotFoundException e )
+
+        if ( result != null && getArtifactFilter() != null )
         {
-            throw new MojoExecutionException( "Failed to resolve project artifacts: " + e.getMessage(), e );
+            Set<Artifact> filtered = new LinkedHashSet<Artifact>();
+            for ( Artifact a : result )
+            {
+                if ( getArtifactFilter().include( a ) )
+                {
+                    filtered.add( a );
+                }
+            }
+
+            result = filtered;
         }
-        catch ( ProjectBuildingException e )
+
+        Set<Artifact> resolved = graph != null ? graph : result;
+        Set<Artifact> ancestry =
+            resolveProjectAncestry( artifactResolver, selectedSession.getLocalRepository(),
+                                    project.getRemoteArtifactRepositories(),
+                                    resolved == null ? Collections.<Artifact> emptySet() : resolved );
+
+        if ( graph != null )
         {
-            throw new MojoExecutionException( "Failed to resolve project artifacts: " + e.getMessage(), e );
+            getLog().info( ancestry.size() + " POMs of " + graph.size()
+                               + " graph artifacts, their parents and BOMs resolved." );
         }
-        
-        if ( getProject().getParentArtifact() != null )
-        {
-            Artifact parentPomArtifact = getProject().getParentArtifact();
-            parentPomArtifact =
-                getArtifactFactory().createProjectArtifact( parentPomArtifact.getGroupId(),
-                                                            parentPomArtifact.getArtifactId(),
-                                                            parentPomArtifact.getVersion() );
 
-            try
-            {
-                getMavenProjectBuilder().buildFromRepository( parentPomArtifact,
-                                                              project.getRemoteArtifactRepositories(),
-                                                              selectedSession.getLocalRepository() );
-            }
-            catch ( ProjectBuildingException e )
+        if ( result != null )
+        {
+            for ( Artifact a : result )
             {
-                getLog().debug(
-                                "Failed to resolve parent POM: " + getProject().getParentArtifact().getId()
-                                    + ", continuing (it may be reachable on disk)." );
+                recordResolved( a );
             }
         }
 
@@ -209,66 +341,527 @@ public class ResolveMojo
             
             getLog().info( builder );
         }
+
+        if ( "write".equals( lockMode ) )
+        {
+            List<ResolutionLockFile.Entry> entries = new ArrayList<ResolutionLockFile.Entry>();
+            if ( result != null )
+            {
+                for ( Artifact a : result )
+                {
+                    addLockEntries( entries, a, selectedSession.getLocalRepository() );
+                }
+            }
+
+            for ( Artifact pom : ancestry )
+            {
+                addLockEntries( entries, pom, selectedSession.getLocalRepository() );
+            }
+
+            writeLockFile( entries );
+        }
     }
 
+    /**
+     * Why the resolution daemon cannot serve this execution's configuration, if it cannot.
+     */
+    private String getDaemonFallbackReason()
+    {
+        if ( isPomOnly() )
+        {
+            return "pomOnly collects the POM graph in this build";
+        }
+        else if ( isStreaming() )
+        {
+            return "streaming resolves each direct artifact on its own";
+        }
+        else if ( !dedupe )
+        {
+            return "dedupe=false resolves each direct artifact on its own";
+        }
+        else if ( !"maven".equals( mediator ) && !verifyMediation )
+        {
+            return "only the maven mediator is available in the daemon";
+        }
+        else if ( !"maven".equals( getBackend() ) )
+        {
+            return "only the maven backend is available in the daemon";
+        }
+        else if ( isOffline() )
+        {
+            return "the build is offline";
+        }
+        else if ( getMainLocalAsRemote() != null )
+        {
+            return "the main local repository is used as the 'main-local' remote, and the daemon only serves its own "
+                + "local repository and remote repositories";
+        }
+
+        return null;
+    }
+
+    /**
+     * Resolve the synthetic project's graph through the resolution daemon.
+     * 
+     * @return the resolved artifacts, or null when no daemon could resolve them.
+     */
     @SuppressWarnings( "unchecked" )
-    private void injectLocalAsRemotes( final MavenProject project )
+    private Set<Artifact> resolveWithDaemon( final MavenProject project, final ArtifactRepository localRepository )
     {
-        if ( resolveFromExistingLocalRepo )
+        if ( !useDaemon )
         {
-            if ( localRepositoryDirectory != null || localRepositoryProperty != null )
-            {
-                ArtifactRepositoryPolicy policy = new ArtifactRepositoryPolicy();
-                policy.setEnabled( true );
-                policy.setUpdatePolicy( "always" );
+            return null;
+        }
 
-                ArtifactRepository mainLocal =
-                    new DefaultArtifactRepository( "main-local", session.getLocalRepository().getUrl(),
-                                                   new DefaultRepositoryLayout(), policy, policy );
+        DaemonClient client = new DaemonClient( daemonPort, daemonTokenFile, getArtifactFactory(), getLog() );
+        Set<Artifact> result =
+            client.resolve( project.getDependencyArtifacts(), project.getArtifact(), project.getManagedVersionMap(),
+                            localRepository, project.getRemoteArtifactRepositories(), getArtifactFilter(),
+                            getIncludes(), getExcludes(), getProject().getDependencies() );
+        if ( result != null )
+        {
+            getLog().info( "Resolved " + result.size() + " artifacts through the resolution daemon on port: "
+                               + daemonPort );
+        }
 
-                List<ArtifactRepository> rrepos = project.getRemoteArtifactRepositories();
-                if ( rrepos == null )
-                {
-                    rrepos = new ArrayList<ArtifactRepository>();
-                    project.setRemoteArtifactRepositories( rrepos );
-                }
+        return result;
+    }
 
-                boolean found = false;
-                for ( ArtifactRepository r : rrepos )
+    /**
+     * Mediate the synthetic project's graph with {@link NearestWinsMediator}, then download the winners concurrently.
+     */
+    @SuppressWarnings( "unchecked" )
+    private Set<Artifact> resolveNearestWins( final NearestWinsMediator engine, final MavenProject project,
+                                             final Map<String, Map<String, Artifact>> pluginManagedVersions,
+                                             final ArtifactRepository localRepository )
+        throws MojoExecutionException
+    {
+        final List<ArtifactRepository> remoteRepositories = project.getRemoteArtifactRepositories();
+
+        Set<Artifact> winners;
+        try
+        {
+            winners =
+                engine.mediate( project.getDependencyArtifacts(), pluginManagedVersions,
+                                project.getManagedVersionMap() );
+        }
+        catch ( ArtifactMetadataRetrievalException e )
+        {
+            throw new MojoExecutionException( "Failed to mediate project artifacts: " + e.getMessage(), e );
+        }
+        catch ( OverConstrainedVersionException e )
+        {
+            throw new MojoExecutionException( "Failed to mediate project artifacts: " + e.getMessage(), e );
+        }
+
+        List<Callable<Object>> tasks = new ArrayList<Callable<Object>>( winners.size() );
+        for ( final Artifact a : winners )
+        {
+            if ( Artifact.SCOPE_SYSTEM.equals( a.getScope() ) )
+            {
+                continue;
+            }
+
+            tasks.add( new Callable<Object>()
+            {
+                public Object call()
+                    throws Exception
                 {
-                    if ( r.getUrl().equals( mainLocal.getUrl() ) )
+                    List<ArtifactRepository> repositories = remoteRepositories;
+                    if ( getArtifactFetcher() != null )
                     {
-                        found = true;
-                        break;
+                        repositories = getArtifactFetcher().fetch( a, remoteRepositories, localRepository );
                     }
+                    artifactResolver.resolve( a, repositories, localRepository );
+                    return null;
                 }
+            } );
+        }
 
-                if ( !found )
-                {
-                    rrepos.add( 0, mainLocal );
-                }
+        runConcurrently( tasks, "resolve mediated artifacts" );
+
+        return winners;
+    }
 
-                List<ArtifactRepository> prepos = project.getPluginArtifactRepositories();
-                if ( prepos == null )
+    private void compareMediation( final Set<Artifact> mavenResult, final Set<Artifact> fastResult,
+                                   final NearestWinsMediator engine )
+        throws MojoExecutionException
+    {
+        Set<String> mavenIds = new TreeSet<String>();
+        for ( Artifact a : mavenResult )
+        {
+            mavenIds.add( a.getId() );
+        }
+
+        Map<String, Artifact> fastIds = new TreeMap<String, Artifact>();
+        for ( Artifact a : fastResult )
+        {
+            fastIds.put( a.getId(), a );
+        }
+
+        if ( mavenIds.equals( fastIds.keySet() ) )
+        {
+            getLog().info( "Mediation check passed: both engines selected the same " + mavenIds.size()
+                               + " artifacts." );
+            return;
+        }
+
+        StringBuilder sb = new StringBuilder( "Mediation check failed: engines selected different artifacts." );
+        for ( String id : mavenIds )
+        {
+            if ( !fastIds.containsKey( id ) )
+            {
+                sb.append( "\n- maven only:        " ).append( id );
+            }
+        }
+        for ( Map.Entry<String, Artifact> entry : fastIds.entrySet() )
+        {
+            if ( !mavenIds.contains( entry.getKey() ) )
+            {
+                sb.append( "\n- nearest-wins only: " ).append( entry.getKey() ).append( " via: " );
+                sb.append( engine.getTrail( entry.getValue() ) );
+            }
+        }
+
+        throw new MojoExecutionException( sb.toString() );
+    }
+
+    /**
+     * Resolve each direct artifact on its own, fetch the POMs of its graph, and release the graph as soon as that is
+     * done; only the ids of resolved artifacts (and lockfile entries, when writing one) are kept.
+     */
+    @SuppressWarnings( "unchecked" )
+    @Override
+    protected void collectStreaming( final Set<Artifact> artifacts,
+                                     final Map<String, Map<String, Artifact>> pluginManagedVersions )
+        throws MojoExecutionException
+    {
+        if ( dedupe )
+        {
+            getLog().info( "Streaming mode resolves each artifact independently; dedupe is not applied." );
+        }
+
+        ArtifactRepository localRepository = selectSession().getLocalRepository();
+        List<ArtifactRepository> remoteRepositories = getResolutionRepositories();
+
+        getLog().info( "Streaming " + artifacts.size() + " artifacts to: " + localRepository.getUrl() );
+
+        List<ResolutionLockFile.Entry> entries =
+            "write".equals( lockMode ) ? new ArrayList<ResolutionLockFile.Entry>() : null;
+
+        Set<String> resolvedIds = new HashSet<String>();
+        int count = 0;
+        try
+        {
+            for ( Iterator<Artifact> it = artifacts.iterator(); it.hasNext(); )
+            {
+                Artifact artifact = it.next();
+                it.remove();
+
+                getLog().debug( "Resolving: " + artifact.getId() );
+
+                Map<String, Artifact> managed = pluginManagedVersions.remove( artifact.getDependencyConflictId() );
+                if ( managed == null )
                 {
-                    prepos = new ArrayList<ArtifactRepository>();
-                    project.setPluginArtifactRepositories( prepos );
+                    managed = getProject().getManagedVersionMap();
                 }
 
-                found = false;
-                for ( ArtifactRepository r : prepos )
+                ArtifactResolutionResult resolution =
+                    artifactResolver.resolveTransitively( Collections.singleton( artifact ),
+                                                          getProject().getArtifact(), managed, localRepository,
+                                                          remoteRepositories, metadataSource, getArtifactFilter() );
+
+                List<Artifact> resolved = new ArrayList<Artifact>();
+                for ( Artifact a : (Set<Artifact>) resolution.getArtifacts() )
                 {
-                    if ( r.getUrl().equals( mainLocal.getUrl() ) )
+                    if ( resolvedIds.add( a.getId() ) )
                     {
-                        found = true;
-                        break;
+                        getLog().debug( "Resolved: " + a.getId() );
+                        recordResolved( a );
+                        resolved.add( a );
+                        count++;
+                        if ( entries != null )
+                        {
+                            addLockEntries( entries, a, localRepository );
+                        }
                     }
                 }
 
-                if ( !found )
+                addAncestry( resolveArtifactPoms( artifactResolver, localRepository, remoteRepositories, resolved ),
+                             resolvedIds, entries, localRepository );
+            }
+        }
+        catch ( ArtifactResolutionException e )
+        {
+            throw new MojoExecutionException( "Failed to resolve project artifacts: " + e.getMessage(), e );
+        }
+        catch ( ArtifactNotFoundException e )
+        {
+            throw new MojoExecutionException( "Failed to resolve project artifacts: " + e.getMessage(), e );
+        }
+
+        addAncestry( resolveProjectAncestry( artifactResolver, localRepository, remoteRepositories ), resolvedIds,
+                     entries, localRepository );
+
+        getLog().info( count + " artifacts resolved." );
+
+        if ( entries != null )
+        {
+            writeLockFile( entries );
+        }
+    }
+
+    /**
+     * Record POMs fetched while streaming in the lockfile entries, each once.
+     */
+    private void addAncestry( final Set<Artifact> poms, final Set<String> resolvedIds,
+                              final List<ResolutionLockFile.Entry> entries, final ArtifactRepository localRepository )
+        throws MojoExecutionException
+    {
+        for ( Artifact pom : poms )
+        {
+            if ( resolvedIds.add( pom.getId() ) && entries != null )
+            {
+                addLockEntries( entries, pom, localRepository );
+            }
+        }
+    }
+
+    private void writeLockFile( final List<ResolutionLockFile.Entry> entries )
+        throws MojoExecutionException
+    {
+        try
+        {
+            ResolutionLockFile.write( lockFile, entries );
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Failed to write lockfile: " + lockFile + ": " + e.getMessage(), e );
+        }
+
+        getLog().info( "Wrote " + entries.size() + " entries to lockfile: " + lockFile );
+    }
+
+    /**
+     * Record the artifact's file and, for non-POM artifacts, its POM.
+     */
+    private void addLockEntries( final List<ResolutionLockFile.Entry> entries, final Artifact a,
+                                 final ArtifactRepository localRepository )
+        throws MojoExecutionException
+    {
+        if ( Artifact.SCOPE_SYSTEM.equals( a.getScope() ) )
+        {
+            return;
+        }
+
+        try
+        {
+            File file = a.getFile();
+            if ( file == null )
+            {
+                file = new File( localRepository.getBasedir(), localRepository.pathOf( a ) );
+            }
+            addLockEntry( entries, a, file );
+
+            if ( !"pom".equals( a.getType() ) )
+            {
+                Artifact pom =
+                    getArtifactFactory().createProjectArtifact( a.getGroupId(), a.getArtifactId(), a.getVersion() );
+                addLockEntry( entries, pom, new File( localRepository.getBasedir(), localRepository.pathOf( pom ) ) );
+            }
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Failed to checksum: " + a.getId() + " for lockfile: "
+                + e.getMessage(), e );
+        }
+    }
+
+    private void addLockEntry( final List<ResolutionLockFile.Entry> entries, final Artifact a, final File file )
+        throws IOException
+    {
+        if ( !file.isFile() )
+        {
+            getLog().debug( "Not recording: " + a.getId() + " in lockfile; no file at: " + file );
+            return;
+        }
+
+        String repositoryId = a.getRepository() == null ? null : a.getRepository().getId();
+        entries.add( new ResolutionLockFile.Entry( a.getGroupId(), a.getArtifactId(), a.getType(), a.getClassifier(),
+                                                   a.getVersion(), repositoryId, Checksums.sha1( file ) ) );
+    }
+
+    /**
+     * Fetch exactly the files recorded in the lockfile, concurrently and without any graph discovery, and verify
+     * each against its recorded checksum.
+     */
+    private void replayLockFile()
+        throws MojoExecutionException
+    {
+        if ( !lockFile.isFile() )
+        {
+            throw new MojoExecutionException( "Cannot replay missing lockfile: " + lockFile );
+        }
+
+        List<ResolutionLockFile.Entry> entries;
+        try
+        {
+            entries = ResolutionLockFile.read( lockFile );
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Failed to read lockfile: " + lockFile + ": " + e.getMessage(), e );
+        }
+
+        final ArtifactRepository localRepository = selectSession().getLocalRepository();
+        final List<ArtifactRepository> remoteRepositories = getResolutionRepositories();
+
+        getLog().info( "Replaying " + entries.size() + " lockfile entries from: " + lockFile + " to: "
+                           + localRepository.getUrl() );
+
+        List<Callable<Object>> tasks = new ArrayList<Callable<Object>>( entries.size() );
+        for ( final ResolutionLockFile.Entry entry : entries )
+        {
+            tasks.add( new Callable<Object>()
+            {
+                public Object call()
+                    throws Exception
                 {
-                    prepos.add( 0, mainLocal );
+                    replayEntry( entry, localRepository, remoteRepositories );
+                    return null;
                 }
+            } );
+        }
+
+        runConcurrently( tasks, "replay lockfile" );
+
+        getLog().info( entries.size() + " artifacts resolved from lockfile." );
+    }
+
+    private void replayEntry( final ResolutionLockFile.Entry entry, final ArtifactRepository localRepository,
+                              final List<ArtifactRepository> remoteRepositories )
+        throws MojoExecutionException, ArtifactResolutionException, ArtifactNotFoundException, IOException
+    {
+        Artifact a =
+            getArtifactFactory().createArtifactWithClassifier( entry.getGroupId(), entry.getArtifactId(),
+                                                               entry.getVersion(), entry.getType(),
+                                                               entry.getClassifier() );
+
+        List<ArtifactRepository> repos = ResolutionLockFile.getReplayRepositories( entry, remoteRepositories );
+
+        getLog().debug( "Resolving: " + entry.getCoordinate() );
+        if ( getArtifactFetcher() != null )
+        {
+            repos = getArtifactFetcher().fetch( a, repos, localRepository );
+        }
+        artifactResolver.resolve( a, repos, localRepository );
+
+        try
+        {
+            ResolutionLockFile.verify( entry, a.getFile() );
+        }
+        catch ( IOException e )
+        {
+            discard( a.getFile() );
+            throw new MojoExecutionException( e.getMessage(), e );
+        }
+    }
+
+    /**
+     * Remove a replayed file that failed verification, with its checksum files, from the local repository.
+     */
+    private void discard( final File file )
+    {
+        for ( File f : new File[] { file, new File( file.getPath() + ".sha1" ), new File( file.getPath() + ".md5" ) } )
+        {
+            if ( f.exists() && !f.delete() )
+            {
+                getLog().warn( "Failed to delete file that failed verification: " + f );
+            }
+        }
+    }
+
+    @Override
+    protected File getRepositoryDirectory()
+        throws MojoExecutionException
+    {
+        return new File( selectSession().getLocalRepository().getBasedir() );
+    }
+
+    @Override
+    protected ArtifactRepository getTargetLocalRepository()
+        throws MojoExecutionException
+    {
+        return selectSession().getLocalRepository();
+    }
+
+    /**
+     * With dedupe=false each direct artifact is resolved on its own, so it can be sharded.
+     */
+    @Override
+    protected boolean isMediatingWholeGraph()
+    {
+        return dedupe;
+    }
+
+    /**
+     * The project's remote repositories, preceded by the main local repository when it is used as a remote.
+     */
+    @Override
+    protected List<ArtifactRepository> getResolutionRepositories()
+    {
+        List<ArtifactRepository> remoteRepositories = new ArrayList<ArtifactRepository>();
+        ArtifactRepository mainLocal = getMainLocalAsRemote();
+        if ( mainLocal != null )
+        {
+            remoteRepositories.add( mainLocal );
+        }
+        if ( getRemoteRepositories() != null )
+        {
+            remoteRepositories.addAll( getRemoteRepositories() );
+        }
+
+        return remoteRepositories;
+    }
+
+    private ArtifactRepository getMainLocalAsRemote()
+    {
+        if ( resolveFromExistingLocalRepo && ( localRepositoryDirectory != null || localRepositoryProperty != null ) )
+        {
+            ArtifactRepositoryPolicy policy = new ArtifactRepositoryPolicy();
+            policy.setEnabled( true );
+            policy.setUpdatePolicy( "always" );
+
+            // snapshots found in the main local repository follow snapshotUpdateInterval like any other repository.
+            ArtifactRepositoryPolicy snapshotPolicy = policy;
+            if ( getSnapshotUpdatePolicy() != null )
+            {
+                snapshotPolicy = new ArtifactRepositoryPolicy();
+                snapshotPolicy.setEnabled( true );
+                snapshotPolicy.setUpdatePolicy( getSnapshotUpdatePolicy() );
+            }
+
+            return new DefaultArtifactRepository( "main-local", session.getLocalRepository().getUrl(),
+                                                  new DefaultRepositoryLayout(), snapshotPolicy, policy );
+        }
+
+        return null;
+    }
+
+    /**
+     * Put the main local repository in front of the synthetic project's repositories. New lists are set rather than
+     * changing the existing ones, which may be shared with other projects.
+     */
+    @SuppressWarnings( "unchecked" )
+    private void injectLocalAsRemotes( final MavenProject project )
+    {
+        if ( resolveFromExistingLocalRepo )
+        {
+            ArtifactRepository mainLocal = getMainLocalAsRemote();
+            if ( mainLocal != null )
+            {
+                project.setRemoteArtifactRepositories( prepend( mainLocal, project.getRemoteArtifactRepositories() ) );
+                project.setPluginArtifactRepositories( prepend( mainLocal, project.getPluginArtifactRepositories() ) );
             }
             else
             {
@@ -280,7 +873,44 @@ public class ResolveMojo
         }
     }
 
-    private MavenSession selectSession()
+    private static List<ArtifactRepository> prepend( final ArtifactRepository mainLocal,
+                                                     final List<ArtifactRepository> repositories )
+    {
+        List<ArtifactRepository> result = new ArrayList<ArtifactRepository>();
+        result.add( mainLocal );
+
+        if ( repositories != null )
+        {
+            for ( ArtifactRepository r : repositories )
+            {
+                if ( !r.getUrl().equals( mainLocal.getUrl() ) )
+                {
+                    result.add( r );
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * The session to resolve with: the current one, or a private copy pointing at the alternative local repository.
+     * The copy is created once per execution and gets its own property sets, so nothing it holds is shared with
+     * other executions.
+     */
+    private synchronized MavenSession selectSession()
+        throws MojoExecutionException
+    {
+        if ( resolutionSession == null )
+        {
+            resolutionSession = createSession();
+        }
+
+        return resolutionSession;
+    }
+
+    @SuppressWarnings( "unchecked" )
+    private MavenSession createSession()
         throws MojoExecutionException
     {
         if ( localRepositoryDirectory != null || localRepositoryProperty != null )
@@ -371,13 +1001,60 @@ public class ResolveMojo
                 throw new MojoExecutionException( "Invalid local repository location: " + e.getMessage(), e );
             }
 
-            return new MavenSession( session.getContainer(), session.getSettings(), localRepository,
-                                     session.getEventDispatcher(), null, session.getGoals(),
-                                     session.getExecutionRootDirectory(), session.getExecutionProperties(),
-                                     session.getUserProperties(), session.getStartTime() );
+            return MavenResolutionBackend.withLocalRepository( session, localRepository );
         }
 
         return session;
     }
 
+    public void setSession( final MavenSession session )
+    {
+        this.session = session;
+    }
+
+    public void setLocalRepositoryDirectory( final File localRepositoryDirectory )
+    {
+        this.localRepositoryDirectory = localRepositoryDirectory;
+    }
+
+    public void setResolveFromExistingLocalRepo( final boolean resolveFromExistingLocalRepo )
+    {
+        this.resolveFromExistingLocalRepo = resolveFromExistingLocalRepo;
+    }
+
+    public void setDedupe( final boolean dedupe )
+    {
+        this.dedupe = dedupe;
+    }
+
+    public void setMediator( final String mediator )
+    {
+        this.mediator = mediator;
+    }
+
+    public File getLockFile()
+    {
+        return lockFile;
+    }
+
+    public void setLockFile( final File lockFile )
+    {
+        this.lockFile = lockFile;
+    }
+
+    public String getLockMode()
+    {
+        return lockMode;
+    }
+
+    public void setLockMode( final String lockMode )
+    {
+        this.lockMode = lockMode;
+    }
+
+    public void setArtifactResolver( final ArtifactResolver artifactResolver )
+    {
+        this.artifactResolver = artifactResolver;
+    }
+
 }
@@ -0,0 +1,296 @@
+/*
+ * Copyright (C) 2009 Sonatype, Inc.                                                                                                                          
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ */
+package org.apache.maven.plugin.repository.collector;
+
+import org.apache.maven.artifact.repository.ArtifactRepository;
+import org.codehaus.plexus.util.IOUtil;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Maps groupId prefixes to the id of the remote repository that serves them, so requests go to that repository
+ * first instead of scanning the repository list in order. Routes come from two places:
+ * <ul>
+ * <li>an optional user-supplied file with one 'groupIdPrefix=repositoryId' line per route; these always win.</li>
+ * <li>routes learned from the repository that actually served each groupId, persisted between runs.</li>
+ * </ul>
+ * The longest matching prefix (on '.' boundaries) is used. Routing only changes the order: local (file:)
+ * repositories stay in front, since they are free to check, and the other repositories follow in their configured
+ * order, so a wrong route costs one miss, not a failure.
+ */
+public class RoutingTable
+{
+
+    public static final String FILE_NAME = ".collector-routes";
+
+    private static final String HEADER = "# maven-repository-collector learned routes, version 1";
+
+    private final File learnedFile;
+
+    private final Map<String, String> explicit = new HashMap<String, String>();
+
+    private final Map<String, String> learned = new HashMap<String, String>();
+
+    private final Map<String, String> changed = new HashMap<String, String>();
+
+    private int routedHits;
+
+    private int fallbacks;
+
+    private int unrouted;
+
+    private boolean dirty;
+
+    public RoutingTable( final File learnedFile )
+    {
+        this.learnedFile = learnedFile;
+    }
+
+    /**
+     * Read the routes learned by earlier runs.
+     */
+    public synchronized void loadLearned()
+        throws IOException
+    {
+        if ( learnedFile.isFile() )
+        {
+            read( learnedFile, ' ', learned );
+        }
+    }
+
+    /**
+     * Read user-supplied routes ('groupIdPrefix=repositoryId' per line, '#' for comments).
+     */
+    public synchronized void loadExplicit( final File file )
+        throws IOException
+    {
+        read( file, '=', explicit );
+    }
+
+    /**
+     * The id of the repository the given groupId is routed to, or null.
+     */
+    public synchronized String getRoute( final String groupId )
+    {
+        String route = findLongestPrefix( explicit, groupId );
+        return route == null ? findLongestPrefix( learned, groupId ) : route;
+    }
+
+    /**
+     * The given repositories, reordered for the groupId: local repositories first, then the routed one, then the
+     * rest in their original order.
+     */
+    public List<ArtifactRepository> order( final String groupId, final List<ArtifactRepository> repositories )
+    {
+        String route = getRoute( groupId );
+        if ( route == null )
+        {
+            return repositories;
+        }
+
+        List<ArtifactRepository> local = new ArrayList<ArtifactRepository>();
+        List<ArtifactRepository> routed = new ArrayList<ArtifactRepository>();
+        List<ArtifactRepository> rest = new ArrayList<ArtifactRepository>();
+        for ( ArtifactRepository r : repositories )
+        {
+            if ( "file".equals( r.getProtocol() ) )
+            {
+                local.add( r );
+            }
+            else if ( route.equals( r.getId() ) )
+            {
+                routed.add( r );
+            }
+            else
+            {
+                rest.add( r );
+            }
+        }
+
+        local.addAll( routed );
+        local.addAll( rest );
+        return local;
+    }
+
+    /**
+     * Record that the repository with the given id served a file of the groupId.
+     */
+    public synchronized void recordServed( final String groupId, final String repositoryId )
+    {
+        String route = getRoute( groupId );
+        if ( route == null )
+        {
+            unrouted++;
+        }
+        else if ( route.equals( repositoryId ) )
+        {
+            routedHits++;
+        }
+        else
+        {
+            fallbacks++;
+        }
+
+        if ( !repositoryId.equals( learned.get( groupId ) ) )
+        {
+            learned.put( groupId, repositoryId );
+            changed.put( groupId, repositoryId );
+            dirty = true;
+        }
+    }
+
+    /**
+     * Merge the routes learned by this run into the file, under its lock, and write it back. The file is replaced in
+     * one step, so concurrent builds sharing it never see a partial file, and none of them loses the routes another
+     * learned meanwhile.
+     */
+    public synchronized void store()
+        throws IOException
+    {
+        if ( !dirty )
+        {
+            return;
+        }
+
+        CacheFiles.Lock lock = CacheFiles.lock( learnedFile );
+        try
+        {
+            Map<String, String> merged = new TreeMap<String, String>();
+            if ( learnedFile.isFile() )
+            {
+                read( learnedFile, ' ', merged );
+            }
+            merged.putAll( changed );
+
+            File temp = CacheFiles.createTempFile( learnedFile );
+            Writer writer = null;
+            boolean written = false;
+            try
+            {
+                writer = new OutputStreamWriter( new FileOutputStream( temp ), "UTF-8" );
+                writer.write( HEADER );
+                writer.write( '\n' );
+
+                for ( Map.Entry<String, String> entry : merged.entrySet() )
+                {
+                    writer.write( entry.getKey() );
+                    writer.write( ' ' );
+                    writer.write( entry.getValue() );
+                    writer.write( '\n' );
+                }
+                writer.close();
+                written = true;
+            }
+            finally
+            {
+                IOUtil.close( writer );
+                if ( !written )
+                {
+                    temp.delete();
+                }
+            }
+
+            CacheFiles.replace( temp, learnedFile );
+
+            learned.clear();
+            learned.putAll( merged );
+            changed.clear();
+            dirty = false;
+        }
+        finally
+        {
+            lock.release();
+        }
+    }
+
+    public synchronized String getStatistics()
+    {
+        return routedHits + " served by their routed repository, " + fallbacks + " fell back to the ordered scan, "
+            + unrouted + " unrouted; " + explicit.size() + " configured and " + learned.size() + " learned routes";
+    }
+
+    public File getLearnedFile()
+    {
+        return learnedFile;
+    }
+
+    private static String findLongestPrefix( final Map<String, String> routes, final String groupId )
+    {
+        String prefix = groupId;
+        while ( prefix != null )
+        {
+            String route = routes.get( prefix );
+            if ( route != null )
+            {
+                return route;
+            }
+
+            int dot = prefix.lastIndexOf( '.' );
+            prefix = dot < 0 ? null : prefix.substring( 0, dot );
+        }
+
+        return null;
+    }
+
+    private static void read( final File file, final char separator, final Map<String, String> routes )
+        throws IOException
+    {
+        BufferedReader reader = null;
+        try
+        {
+            reader = new BufferedReader( new InputStreamReader( new FileInputStream( file ), "UTF-8" ) );
+
+            String line;
+            int lineNumber = 0;
+            while ( ( line = reader.readLine() ) != null )
+            {
+                lineNumber++;
+                line = line.trim();
+                if ( line.length() < 1 || line.startsWith( "#" ) )
+                {
+                    continue;
+                }
+
+                int sep = line.indexOf( separator );
+                if ( sep < 1 || sep == line.length() - 1 )
+                {
+                    throw new IOException( "Invalid route at " + file + ":" + lineNumber + ": '" + line + "'" );
+                }
+
+                routes.put( line.substring( 0, sep ).trim(), line.substring( sep + 1 ).trim() );
+            }
+        }
+        finally
+        {
+            IOUtil.close( reader );
+        }
+    }
+
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright (C) 2009 Sonatype, Inc.                                                                                                                          
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ */
+package org.apache.maven.plugin.repository.collector;
+
+import org.apache.maven.artifact.Artifact;
+import org.codehaus.plexus.util.IOUtil;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Deterministic assignment of direct artifacts to shards, plus the manifest each sharded run leaves in its
+ * repository so the merge-shards goal can verify that the shards together cover the unsharded artifact set. The
+ * manifest is named after the project (groupId and artifactId) and the shard, so several projects can shard into
+ * the same repository.
+ * <br/>
+ * Assignment uses jump consistent hashing over a 64-bit FNV-1a hash of the artifact's conflict id, so it is
+ * stable across JVMs and moves as few artifacts as possible when the shard count changes.
+ */
+public final class ShardManifest
+{
+
+    public static final String FILE_PREFIX = ".collector-shard-";
+
+    private static final String PROJECT_HEADER = "# project=";
+
+    private static final String INDEX_HEADER = "# shardIndex=";
+
+    private static final String COUNT_HEADER = "# shardCount=";
+
+    private final String groupId;
+
+    private final String artifactId;
+
+    private final int shardIndex;
+
+    private final int shardCount;
+
+    private final Map<String, Integer> assignments;
+
+    public ShardManifest( final String groupId, final String artifactId, final int shardIndex, final int shardCount,
+                          final Map<String, Integer> assignments )
+    {
+        this.groupId = groupId;
+        this.artifactId = artifactId;
+        this.shardIndex = shardIndex;
+        this.shardCount = shardCount;
+        this.assignments = assignments;
+    }
+
+    public static ShardManifest create( final String groupId, final String artifactId, final int shardIndex,
+                                        final int shardCount, final Collection<Artifact> artifacts )
+    {
+        Map<String, Integer> assignments = new TreeMap<String, Integer>();
+        for ( Artifact a : artifacts )
+        {
+            String key = getKey( a );
+            assignments.put( key, shardOf( key, shardCount ) );
+        }
+
+        return new ShardManifest( groupId, artifactId, shardIndex, shardCount, assignments );
+    }
+
+    public static String getKey( final Artifact a )
+    {
+        return a.getDependencyConflictId();
+    }
+
+    public static int shardOf( final String key, final int shardCount )
+    {
+        long hash = 0xcbf29ce484222325L;
+        byte[] bytes;
+        try
+        {
+            bytes = key.getBytes( "UTF-8" );
+        }
+        catch ( UnsupportedEncodingException e )
+        {
+            throw new IllegalStateException( "UTF-8 is not supported: " + e.getMessage() );
+        }
+
+        for ( byte b : bytes )
+        {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+
+        // jump consistent hash (Lamping & Veach)
+        long b = -1;
+        long j = 0;
+        while ( j < shardCount )
+        {
+            b = j;
+            hash = hash * 2862933555777941757L + 1;
+            j = (long) ( ( b + 1 ) * ( (double) ( 1L << 31 ) / (double) ( ( hash >>> 33 ) + 1 ) ) );
+        }
+
+        return (int) b;
+    }
+
+    public static String getFileName( final String groupId, final String artifactId, final int shardIndex,
+                                      final int shardCount )
+    {
+        return FILE_PREFIX + groupId + "-" + artifactId + "-" + shardIndex + "-of-" + shardCount + ".txt";
+    }
+
+    public static boolean isManifestFile( final File file )
+    {
+        return file.getName().startsWith( FILE_PREFIX );
+    }
+
+    public boolean isAssigned( final Artifact a )
+    {
+        Integer shard = assignments.get( getKey( a ) );
+        return shard != null && shard.intValue() == shardIndex;
+    }
+
+    /**
+     * The groupId:artifactId of the project that was sharded.
+     */
+    public String getProjectId()
+    {
+        return groupId + ":" + artifactId;
+    }
+
+    public int getShardIndex()
+    {
+        return shardIndex;
+    }
+
+    public int getShardCount()
+    {
+        return shardCount;
+    }
+
+    /**
+     * The complete (unsharded) direct-artifact set, mapped to the shard each key was assigned to.
+     */
+    public Map<String, Integer> getAssignments()
+    {
+        return assignments;
+    }
+
+    public File write( final File repositoryDirectory )
+        throws IOException
+    {
+        repositoryDirectory.mkdirs();
+        File file = new File( repositoryDirectory, getFileName( groupId, artifactId, shardIndex, shardCount ) );
+
+        Writer writer = null;
+        try
+        {
+            writer = new OutputStreamWriter( new FileOutputStream( file ), "UTF-8" );
+            writer.write( PROJECT_HEADER + getProjectId() + "\n" );
+            writer.write( INDEX_HEADER + shardIndex + "\n" );
+            writer.write( COUNT_HEADER + shardCount + "\n" );
+
+            for ( Map.Entry<String, Integer> entry : assignments.entrySet() )
+            {
+                writer.write( entry.getValue() + " " + entry.getKey() + "\n" );
+            }
+        }
+        finally
+        {
+            IOUtil.close( writer );
+        }
+
+        return file;
+    }
+
+    public static ShardManifest read( final File file )
+        throws IOException
+    {
+        String project = null;
+        int index = -1;
+        int count = -1;
+        Map<String, Integer> assignments = new TreeMap<String, Integer>();
+
+        BufferedReader reader = null;
+        try
+        {
+            reader = new BufferedReader( new InputStreamReader( new FileInputStream( file ), "UTF-8" ) );
+
+            String line;
+            while ( ( line = reader.readLine() ) != null )
+            {
+                if ( line.startsWith( PROJECT_HEADER ) )
+                {
+                    project = line.substring( PROJECT_HEADER.length() ).trim();
+                }
+                else if ( line.startsWith( INDEX_HEADER ) )
+                {
+                    index = Integer.parseInt( line.substring( INDEX_HEADER.length() ).trim() );
+                }
+                else if ( line.startsWith( COUNT_HEADER ) )
+                {
+                    count = Integer.parseInt( line.substring( COUNT_HEADER.length() ).trim() );
+                }
+                else if ( line.trim().length() > 0 && !line.startsWith( "#" ) )
+                {
+                    int sep = line.indexOf( ' ' );
+                    if ( sep < 0 )
+                    {
+                        throw new IOException( "Invalid shard manifest entry in: " + file + ": '" + line + "'" );
+                    }
+
+                    assignments.put( line.substring( sep + 1 ), Integer.valueOf( line.substring( 0, sep ) ) );
+                }
+            }
+        }
+        catch ( NumberFormatException e )
+        {
+            throw new IOException( "Invalid shard manifest: " + file + ": " + e.getMessage() );
+        }
+        finally
+        {
+            IOUtil.close( reader );
+        }
+
+        int colon = project == null ? -1 : project.indexOf( ':' );
+        if ( colon < 1 || index < 0 || count < 1 )
+        {
+            throw new IOException( "Shard manifest is missing its project/shardIndex/shardCount headers: " + file );
+        }
+
+        return new ShardManifest( project.substring( 0, colon ), project.substring( colon + 1 ), index, count,
+                                  assignments );
+    }
+
+}
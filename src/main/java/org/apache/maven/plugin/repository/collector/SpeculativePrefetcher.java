@@ -0,0 +1,311 @@
+/*
+ * Copyright (C) 2009 Sonatype, Inc.                                                                                                                          
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ */
+package org.apache.maven.plugin.repository.collector;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.factory.ArtifactFactory;
+import org.apache.maven.artifact.repository.ArtifactRepository;
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.util.IOUtil;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fetches the files a previous run resolved, in the background, while the current run is still assembling its
+ * model. The previous run's files are listed in a manifest ('groupId:artifactId:type:classifier:version' per line)
+ * kept in the target repository. Only files that were not there yet are fetched, and those are remembered so that
+ * any the current run turns out not to need can be reported and removed afterwards. As the repository may be shared,
+ * only files this run created, that have not been replaced since and that no other run manifest lists are removed.
+ */
+public class SpeculativePrefetcher
+{
+
+    public static final String FILE_PREFIX = ".collector-last-run-";
+
+    private static final String HEADER = "# maven-repository-collector run manifest, version 1";
+
+    private final ArtifactFetcher fetcher;
+
+    private final ArtifactFactory artifactFactory;
+
+    private final ArtifactRepository localRepository;
+
+    private final List<ArtifactRepository> remoteRepositories;
+
+    private final int threads;
+
+    private final Log log;
+
+    private final Map<String, File> fetched = Collections.synchronizedMap( new HashMap<String, File>() );
+
+    private final Map<File, Long> timestamps = Collections.synchronizedMap( new HashMap<File, Long>() );
+
+    private ExecutorService executor;
+
+    private int submitted;
+
+    public SpeculativePrefetcher( final ArtifactFetcher fetcher, final ArtifactFactory artifactFactory,
+                                  final ArtifactRepository localRepository,
+                                  final Collection<ArtifactRepository> remoteRepositories, final int threads,
+                                  final Log log )
+    {
+        this.fetcher = fetcher;
+        this.artifactFactory = artifactFactory;
+        this.localRepository = localRepository;
+        this.remoteRepositories = new ArrayList<ArtifactRepository>( remoteRepositories );
+        this.threads = Math.max( 1, threads );
+        this.log = log;
+    }
+
+    public static String getFileName( final String groupId, final String artifactId )
+    {
+        return FILE_PREFIX + groupId + "-" + artifactId + ".txt";
+    }
+
+    /**
+     * Start fetching the given coordinates on background threads, and return straight away.
+     */
+    public void start( final Collection<String> coordinates )
+    {
+        executor = Executors.newFixedThreadPool( threads, new ThreadFactory()
+        {
+            public Thread newThread( final Runnable r )
+            {
+                Thread t = new Thread( r, "collector-prefetch" );
+                t.setDaemon( true );
+                return t;
+            }
+        } );
+
+        for ( String coordinate : coordinates )
+        {
+            final Artifact artifact = toArtifact( coordinate );
+            if ( artifact == null || artifact.isSnapshot() )
+            {
+                continue;
+            }
+
+            final File file = new File( localRepository.getBasedir(), localRepository.pathOf( artifact ) );
+            if ( file.exists() )
+            {
+                continue;
+            }
+
+            final String key = coordinate;
+            executor.execute( new Runnable()
+            {
+                public void run()
+                {
+                    fetcher.fetch( artifact, remoteRepositories, localRepository );
+                    if ( fetcher.isCreated( file ) )
+                    {
+                        timestamps.put( file, Long.valueOf( file.lastModified() ) );
+                        fetched.put( key, file );
+                    }
+                }
+            } );
+            submitted++;
+        }
+
+        executor.shutdown();
+        log.info( "Prefetching " + submitted + " files listed by the previous run in the background." );
+    }
+
+    /**
+     * Stop prefetching: files not started yet are skipped, files in progress are finished.
+     *
+     * @return the coordinates fetched, mapped to their files.
+     */
+    public Map<String, File> finish()
+        throws InterruptedException
+    {
+        if ( executor != null )
+        {
+            int skipped = executor.shutdownNow().size();
+            executor.awaitTermination( 5, TimeUnit.MINUTES );
+
+            if ( skipped > 0 )
+            {
+                log.debug( skipped + " prefetches were not needed before resolution finished." );
+            }
+        }
+
+        synchronized ( fetched )
+        {
+            return new HashMap<String, File>( fetched );
+        }
+    }
+
+    /**
+     * Remove the prefetched files of the given coordinates, except those that were replaced since they were fetched
+     * or that another run manifest in the same directory as this run's lists.
+     *
+     * @return the coordinates whose files were removed.
+     */
+    public List<String> remove( final Collection<String> coordinates, final File manifest )
+    {
+        Set<String> referenced = new HashSet<String>();
+        File[] manifests = manifest.getAbsoluteFile().getParentFile().listFiles();
+        for ( int i = 0; manifests != null && i < manifests.length; i++ )
+        {
+            File other = manifests[i];
+            if ( other.getName().startsWith( FILE_PREFIX ) && other.getName().endsWith( ".txt" )
+                && !other.getName().equals( manifest.getName() ) )
+            {
+                try
+                {
+                    referenced.addAll( read( other ) );
+                }
+                catch ( IOException e )
+                {
+                    log.warn( "Failed to read run manifest: " + other + ": " + e.getMessage()
+                        + "; keeping all prefetched files." );
+                    return Collections.emptyList();
+                }
+            }
+        }
+
+        List<String> removed = new ArrayList<String>();
+        for ( String coordinate : coordinates )
+        {
+            File file = fetched.get( coordinate );
+            Long timestamp = file == null ? null : timestamps.get( file );
+            if ( timestamp == null || referenced.contains( coordinate )
+                || file.lastModified() != timestamp.longValue() )
+            {
+                continue;
+            }
+
+            log.debug( "Removing unneeded prefetched file: " + file );
+            if ( file.delete() )
+            {
+                new File( file.getPath() + ".sha1" ).delete();
+                removed.add( coordinate );
+            }
+        }
+
+        return removed;
+    }
+
+    public static Set<String> read( final File file )
+        throws IOException
+    {
+        Set<String> coordinates = new LinkedHashSet<String>();
+
+        BufferedReader reader = null;
+        try
+        {
+            reader = new BufferedReader( new InputStreamReader( new FileInputStream( file ), "UTF-8" ) );
+
+            String line;
+            while ( ( line = reader.readLine() ) != null )
+            {
+                line = line.trim();
+                if ( line.length() > 0 && !line.startsWith( "#" ) )
+                {
+                    coordinates.add( line );
+                }
+            }
+        }
+        finally
+        {
+            IOUtil.close( reader );
+        }
+
+        return coordinates;
+    }
+
+    /**
+     * Replace the run manifest, under its lock, so that concurrent builds of the same project never write it at the
+     * same time. The manifest lists the last run only, so it is not merged.
+     */
+    public static void write( final File file, final Collection<String> coordinates )
+        throws IOException
+    {
+        CacheFiles.Lock lock = CacheFiles.lock( file );
+        try
+        {
+            File temp = CacheFiles.createTempFile( file );
+            Writer writer = null;
+            boolean written = false;
+            try
+            {
+                writer = new OutputStreamWriter( new FileOutputStream( temp ), "UTF-8" );
+                writer.write( HEADER );
+                writer.write( '\n' );
+
+                for ( String coordinate : new TreeSet<String>( coordinates ) )
+                {
+                    writer.write( coordinate );
+                    writer.write( '\n' );
+                }
+                writer.close();
+                written = true;
+            }
+            finally
+            {
+                IOUtil.close( writer );
+                if ( !written )
+                {
+                    temp.delete();
+                }
+            }
+
+            CacheFiles.replace( temp, file );
+        }
+        finally
+        {
+            lock.release();
+        }
+    }
+
+    private Artifact toArtifact( final String coordinate )
+    {
+        String[] parts = coordinate.split( ":", -1 );
+        if ( parts.length != 5 )
+        {
+            log.debug( "Ignoring invalid run manifest entry: '" + coordinate + "'" );
+            return null;
+        }
+
+        return artifactFactory.createArtifactWithClassifier( parts[0], parts[1], parts[4], parts[2],
+                                                             parts[3].length() < 1 ? null : parts[3] );
+    }
+
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2009 Sonatype, Inc.                                                                                                                          
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ */
+package org.apache.maven.plugin.repository.collector;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.factory.ArtifactFactory;
+import org.apache.maven.artifact.resolver.ArtifactNotFoundException;
+import org.apache.maven.artifact.resolver.ArtifactResolver;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AncestryResolverTest
+{
+
+    private final ArtifactFactory artifactFactory = CollectorTestSupport.createArtifactFactory();
+
+    private File repository;
+
+    @Before
+    public void setUp()
+        throws IOException
+    {
+        repository = CollectorTestSupport.createTempDirectory( "ancestry" );
+    }
+
+    @After
+    public void tearDown()
+        throws IOException
+    {
+        FileUtils.deleteDirectory( repository );
+    }
+
+    @Test
+    public void interpolatesInheritedImportsInTheChildsContext()
+        throws Exception
+    {
+        writePom( "parent", "1.0", null, "<properties><bom.version>1.0</bom.version></properties>"
+            + "<dependencyManagement><dependencies><dependency><groupId>test</groupId><artifactId>bom</artifactId>"
+            + "<version>${bom.version}</version><type>pom</type><scope>import</scope></dependency></dependencies>"
+            + "</dependencyManagement>" );
+        writePom( "child", "1.0", "parent", "<properties><bom.version>2.0</bom.version></properties>" );
+        writePom( "bom", "2.0", null, "" );
+
+        AncestryResolver resolver = createResolver();
+        Set<Artifact> poms =
+            resolver.resolve( Collections.singleton( pom( "child", "1.0" ) ), Collections.<Artifact> emptySet(),
+                              Collections.<Artifact> emptySet() );
+
+        assertEquals( new TreeSet<String>( Arrays.asList( "test:bom:2.0", "test:child:1.0", "test:parent:1.0" ) ),
+                      keys( poms ) );
+        assertEquals( Collections.emptyList(), resolver.getFailures() );
+    }
+
+    @Test
+    public void reportsMissingArtifactPomsApartFromMissingAncestors()
+        throws Exception
+    {
+        writePom( "child", "1.0", "parent", "" );
+
+        AncestryResolver resolver = createResolver();
+        resolver.resolve( Arrays.asList( pom( "stub", "1.0" ), pom( "child", "1.0" ) ),
+                          Collections.<Artifact> emptySet(), Collections.<Artifact> emptySet() );
+
+        assertEquals( Collections.singletonList( "test:stub:1.0" ), resolver.getMissingPoms() );
+        assertEquals( 1, resolver.getFailures().size() );
+        assertTrue( resolver.getFailures().get( 0 ),
+                    resolver.getFailures().get( 0 ).startsWith( "POM not found: test:parent:1.0" ) );
+    }
+
+    private AncestryResolver createResolver()
+    {
+        return new AncestryResolver( artifactFactory, createArtifactResolver(), null, null,
+                                     Collections.EMPTY_LIST, 2, new SystemStreamLog() );
+    }
+
+    /**
+     * A resolver that finds POMs in the test repository directory.
+     */
+    private ArtifactResolver createArtifactResolver()
+    {
+        InvocationHandler handler = new InvocationHandler()
+        {
+            public Object invoke( final Object proxy, final Method method, final Object[] args )
+                throws ArtifactNotFoundException
+            {
+                Artifact pom = (Artifact) args[0];
+                File file = getFile( pom.getArtifactId(), pom.getVersion() );
+                if ( !file.isFile() )
+                {
+                    throw new ArtifactNotFoundException( "Not in the test repository.", pom );
+                }
+
+                pom.setFile( file );
+                return null;
+            }
+        };
+
+        return (ArtifactResolver) Proxy.newProxyInstance( ArtifactResolver.class.getClassLoader(),
+                                                          new Class[] { ArtifactResolver.class }, handler );
+    }
+
+    private void writePom( final String artifactId, final String version, final String parent, final String body )
+        throws IOException
+    {
+        StringBuilder sb = new StringBuilder( "<project><modelVersion>4.0.0</modelVersion>" );
+        if ( parent != null )
+        {
+            sb.append( "<parent><groupId>test</groupId><artifactId>" ).append( parent );
+            sb.append( "</artifactId><version>1.0</version></parent>" );
+        }
+        sb.append( "<groupId>test</groupId><artifactId>" ).append( artifactId ).append( "</artifactId>" );
+        sb.append( "<version>" ).append( version ).append( "</version>" ).append( body ).append( "</project>" );
+
+        File file = getFile( artifactId, version );
+        file.getParentFile().mkdirs();
+        FileUtils.fileWrite( file.getPath(), "UTF-8", sb.toString() );
+    }
+
+    private File getFile( final String artifactId, final String version )
+    {
+        return new File( repository, "test/" + artifactId + "/" + version + "/" + artifactId + "-" + version + ".pom" );
+    }
+
+    private Artifact pom( final String artifactId, final String version )
+    {
+        return artifactFactory.createProjectArtifact( "test", artifactId, version );
+    }
+
+    private static Set<String> keys( final Set<Artifact> poms )
+    {
+        Set<String> keys = new TreeSet<String>();
+        for ( Artifact pom : poms )
+        {
+            keys.add( AncestryResolver.getKey( pom ) );
+        }
+
+        return keys;
+    }
+
+}
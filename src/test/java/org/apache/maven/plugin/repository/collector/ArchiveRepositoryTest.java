@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2009 Sonatype, Inc.                                                                                                                          
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ */
+package org.apache.maven.plugin.repository.collector;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.IOUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ArchiveRepositoryTest
+{
+
+    private static final String JAR = "org/example/lib/1.0/lib-1.0.jar";
+
+    private File directory;
+
+    private ArchiveRepository archive;
+
+    @Before
+    public void setUp()
+        throws IOException
+    {
+        directory = CollectorTestSupport.createTempDirectory( "archive" );
+    }
+
+    @After
+    public void tearDown()
+        throws IOException
+    {
+        if ( archive != null )
+        {
+            archive.close();
+        }
+        FileUtils.deleteDirectory( directory );
+    }
+
+    @Test
+    public void indexesFilesAndExtractsOnlyWhatIsAskedFor()
+        throws IOException
+    {
+        Map<String, String> entries = new LinkedHashMap<String, String>();
+        entries.put( JAR, "jar" );
+        entries.put( JAR + ".sha1", sha1( "jar" ) + "  lib-1.0.jar" );
+        entries.put( "org/example/lib/1.0/lib-1.0.pom", "pom" );
+        archive = open( entries );
+
+        assertEquals( "0 of 3 files extracted from repository.zip", archive.getStatistics() );
+
+        File target = new File( directory, "local/" + JAR );
+        assertTrue( archive.extract( JAR, target ) );
+        assertEquals( "jar", FileUtils.fileRead( target ) );
+        assertEquals( sha1( "jar" ), Checksums.readChecksumFile( new File( target.getPath() + ".sha1" ) ) );
+
+        assertFalse( archive.extract( "org/example/missing/1.0/missing-1.0.jar", new File( directory, "missing" ) ) );
+        assertEquals( "1 of 3 files extracted from repository.zip", archive.getStatistics() );
+        assertFalse( new File( directory, "local/org/example/lib/1.0/lib-1.0.pom" ).exists() );
+    }
+
+    @Test
+    public void looksUpPathsUnderASingleTopLevelDirectory()
+        throws IOException
+    {
+        Map<String, String> entries = new LinkedHashMap<String, String>();
+        entries.put( "repository/" + JAR, "jar" );
+        entries.put( "repository/org/example/lib/1.0/lib-1.0.pom", "pom" );
+        archive = open( entries );
+
+        File target = new File( directory, "local/" + JAR );
+        assertTrue( archive.extract( JAR, target ) );
+        assertEquals( "jar", FileUtils.fileRead( target ) );
+    }
+
+    @Test
+    public void doesNotStripTheTopLevelWhenThereAreSeveral()
+        throws IOException
+    {
+        Map<String, String> entries = new LinkedHashMap<String, String>();
+        entries.put( JAR, "jar" );
+        entries.put( "com/example/other/1.0/other-1.0.jar", "other" );
+        archive = open( entries );
+
+        assertTrue( archive.extract( JAR, new File( directory, "local/" + JAR ) ) );
+        assertFalse( archive.extract( "example/lib/1.0/lib-1.0.jar", new File( directory, "stripped" ) ) );
+    }
+
+    @Test
+    public void rejectsAFileThatDoesNotMatchItsChecksum()
+        throws IOException
+    {
+        Map<String, String> entries = new LinkedHashMap<String, String>();
+        entries.put( JAR, "corrupted" );
+        entries.put( JAR + ".sha1", sha1( "jar" ) );
+        archive = open( entries );
+
+        File target = new File( directory, "local/" + JAR );
+        try
+        {
+            archive.extract( JAR, target );
+            fail( "A file that does not match its checksum should not be extracted" );
+        }
+        catch ( IOException e )
+        {
+            assertTrue( e.getMessage(), e.getMessage().startsWith( "SHA-1 mismatch for: " + JAR ) );
+        }
+
+        assertFalse( target.exists() );
+        assertFalse( new File( target.getPath() + ".sha1" ).exists() );
+        assertEquals( 0, target.getParentFile().list().length );
+    }
+
+    private ArchiveRepository open( final Map<String, String> entries )
+        throws IOException
+    {
+        File file = new File( directory, "repository.zip" );
+        ZipOutputStream out = null;
+        try
+        {
+            out = new ZipOutputStream( new FileOutputStream( file ) );
+            for ( Map.Entry<String, String> entry : entries.entrySet() )
+            {
+                out.putNextEntry( new ZipEntry( entry.getKey() ) );
+                out.write( entry.getValue().getBytes( "UTF-8" ) );
+                out.closeEntry();
+            }
+        }
+        finally
+        {
+            IOUtil.close( out );
+        }
+
+        ArchiveRepository repository = new ArchiveRepository( file, new SystemStreamLog() );
+        repository.open();
+
+        return repository;
+    }
+
+    private String sha1( final String content )
+        throws IOException
+    {
+        File file = File.createTempFile( "content", ".txt", directory );
+        FileUtils.fileWrite( file.getPath(), content );
+        try
+        {
+            return Checksums.sha1( file );
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) 2009 Sonatype, Inc.                                                                                                                          
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ */
+package org.apache.maven.plugin.repository.collector;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.repository.DefaultArtifactRepository;
+import org.apache.maven.artifact.repository.layout.DefaultRepositoryLayout;
+import org.apache.maven.artifact.resolver.ArtifactResolver;
+import org.apache.maven.artifact.resolver.DefaultArtifactCollector;
+import org.apache.maven.model.Model;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.apache.maven.project.MavenProject;
+import org.apache.maven.shared.repository.RepositoryAssembler;
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import static org.apache.maven.plugin.repository.collector.FixtureMetadataSource.create;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CollectRepositoryMojoTest
+{
+
+    private File directory;
+
+    private File output;
+
+    @Before
+    public void setUp()
+        throws IOException
+    {
+        directory = CollectorTestSupport.createTempDirectory( "collect" );
+        output = new File( directory, "collected" );
+    }
+
+    @After
+    public void tearDown()
+        throws IOException
+    {
+        FileUtils.deleteDirectory( directory );
+    }
+
+    @Test
+    public void generatesMetadataForWhatTheAssemblerWrote()
+        throws IOException, MojoExecutionException
+    {
+        createMojo().collect( createProject(), Collections.<String, Map<String, Artifact>> emptyMap() );
+
+        String metadata = FileUtils.fileRead( new File( output, "org/example/lib/maven-metadata.xml" ) );
+        assertTrue( metadata, metadata.indexOf( "<version>1.0</version>" ) > -1 );
+        metadata = FileUtils.fileRead( new File( output, "org/example/tool/maven-metadata.xml" ) );
+        assertTrue( metadata, metadata.indexOf( "<version>2.0-SNAPSHOT</version>" ) > -1 );
+
+        File index = new File( output, CollectedRepositoryIndex.FILE_NAME );
+        assertEquals( "org/example/lib/1.0/lib-1.0.jar",
+                      CollectedRepositoryIndex.find( index, "org.example:lib:jar::1.0" ) );
+        assertEquals( "org/example/lib/1.0/lib-1.0-sources.jar",
+                      CollectedRepositoryIndex.find( index, "org.example:lib:jar:sources:1.0" ) );
+        assertEquals( "org/example/lib/1.0/lib-1.0.pom",
+                      CollectedRepositoryIndex.find( index, "org.example:lib:pom::1.0" ) );
+        assertEquals( "org/example/tool/2.0-SNAPSHOT/tool-2.0-20090101.120000-3.jar",
+                      CollectedRepositoryIndex.find( index, "org.example:tool:jar::2.0-20090101.120000-3" ) );
+        assertNull( CollectedRepositoryIndex.find( index, "org.example:lib:sha1::1.0" ) );
+    }
+
+    @Test
+    public void recordsWhatTheAssemblerWroteForPrefetch()
+        throws MojoExecutionException
+    {
+        CollectRepositoryMojo mojo = createMojo();
+        mojo.setPrefetch( true );
+        mojo.collect( createProject(), Collections.<String, Map<String, Artifact>> emptyMap() );
+
+        assertEquals( new TreeSet<String>( Arrays.asList( "org.example:lib:jar::1.0", "org.example:lib:jar:sources:1.0",
+                                                          "org.example:lib:pom::1.0",
+                                                          "org.example:tool:jar::2.0-20090101.120000-3",
+                                                          "org.example:tool:pom::2.0-20090101.120000-3" ) ),
+                      new TreeSet<String>( mojo.getResolvedCoordinates() ) );
+    }
+
+    @Test
+    public void pomOnlyCollectsThePomsOfTheGraphWithoutAnyOtherFile()
+        throws IOException, MojoExecutionException
+    {
+        FixtureMetadataSource metadataSource = new FixtureMetadataSource();
+        metadataSource.add( "a:1.0", create( "b", "1.0" ) );
+
+        MavenProject project = createProject();
+        project.setArtifact( create( "project", "1.0" ) );
+        project.setDependencyArtifacts( Collections.singleton( create( "a", "1.0" ) ) );
+        project.setRemoteArtifactRepositories( Collections.emptyList() );
+
+        final List<String> requested = Collections.synchronizedList( new ArrayList<String>() );
+        final File local = new File( directory, "local" );
+        InvocationHandler handler = new InvocationHandler()
+        {
+            public Object invoke( final Object proxy, final Method method, final Object[] args )
+                throws IOException
+            {
+                Artifact a = (Artifact) args[0];
+                requested.add( a.getId() );
+
+                String parent = "a".equals( a.getArtifactId() ) ? "<parent><groupId>test</groupId>"
+                    + "<artifactId>parent</artifactId><version>1.0</version></parent>" : "";
+                File file = new File( local, new DefaultRepositoryLayout().pathOf( a ) );
+                file.getParentFile().mkdirs();
+                FileUtils.fileWrite( file.getPath(), "UTF-8", "<project><modelVersion>4.0.0</modelVersion>" + parent
+                    + "<groupId>test</groupId><artifactId>" + a.getArtifactId()
+                    + "</artifactId><version>1.0</version></project>" );
+                a.setFile( file );
+                return null;
+            }
+        };
+
+        CollectRepositoryMojo mojo = createMojo();
+        mojo.setProject( project );
+        mojo.setPomOnly( true );
+        mojo.setThreads( 2 );
+        mojo.setSnapshotUpdateInterval( -1 );
+        mojo.setMetadataSource( metadataSource );
+        mojo.setArtifactCollector( new DefaultArtifactCollector() );
+        mojo.setLocalRepository( new DefaultArtifactRepository( "local", local.toURI().toString(),
+                                                                new DefaultRepositoryLayout() ) );
+        mojo.setArtifactResolver( (ArtifactResolver) Proxy.newProxyInstance( ArtifactResolver.class.getClassLoader(),
+                                                                             new Class[] { ArtifactResolver.class },
+                                                                             handler ) );
+        mojo.collect( project, Collections.<String, Map<String, Artifact>> emptyMap() );
+
+        assertEquals( new TreeSet<String>( Arrays.asList( "test:a:pom:1.0", "test:b:pom:1.0", "test:parent:pom:1.0" ) ),
+                      new TreeSet<String>( requested ) );
+
+        List<String> files = new ArrayList<String>();
+        for ( Object name : FileUtils.getFileNames( output, "**/*", "**/*.sha1,**/*.md5,**/maven-metadata.xml,"
+            + CollectedRepositoryIndex.FILE_NAME, false ) )
+        {
+            files.add( ( (String) name ).replace( File.separatorChar, '/' ) );
+        }
+        Collections.sort( files );
+        assertEquals( Arrays.asList( "test/a/1.0/a-1.0.pom", "test/b/1.0/b-1.0.pom", "test/parent/1.0/parent-1.0.pom" ),
+                      files );
+    }
+
+    private CollectRepositoryMojo createMojo()
+    {
+        CollectRepositoryMojo mojo = new CollectRepositoryMojo();
+        mojo.setLog( new SystemStreamLog() );
+        mojo.setArtifactFactory( CollectorTestSupport.createArtifactFactory() );
+        mojo.setProject( createProject() );
+        mojo.setOutputDirectory( output );
+        mojo.setGenerateMetadata( true );
+        mojo.setRepoAssembler( createAssembler() );
+
+        return mojo;
+    }
+
+    private static MavenProject createProject()
+    {
+        Model model = new Model();
+        model.setGroupId( "org.example" );
+        model.setArtifactId( "project" );
+        model.setVersion( "1.0" );
+
+        return new MavenProject( model );
+    }
+
+    /**
+     * An assembler that writes a fixed repository, with checksums and its own metadata, as the real one would.
+     */
+    private static RepositoryAssembler createAssembler()
+    {
+        InvocationHandler handler = new InvocationHandler()
+        {
+            public Object invoke( final Object proxy, final Method method, final Object[] args )
+                throws IOException
+            {
+                File target = (File) args[0];
+                write( target, "org/example/lib/1.0/lib-1.0.jar" );
+                write( target, "org/example/lib/1.0/lib-1.0.jar.sha1" );
+                write( target, "org/example/lib/1.0/lib-1.0-sources.jar" );
+                write( target, "org/example/lib/1.0/lib-1.0.pom" );
+                write( target, "org/example/lib/maven-metadata-central.xml" );
+                write( target, "org/example/tool/2.0-SNAPSHOT/tool-2.0-20090101.120000-3.jar" );
+
+                return null;
+            }
+        };
+
+        return (RepositoryAssembler) Proxy.newProxyInstance( RepositoryAssembler.class.getClassLoader(),
+                                                             new Class[] { RepositoryAssembler.class }, handler );
+    }
+
+    private static void write( final File directory, final String path )
+        throws IOException
+    {
+        File file = new File( directory, path );
+        file.getParentFile().mkdirs();
+        FileUtils.fileWrite( file.getPath(), path );
+    }
+
+}
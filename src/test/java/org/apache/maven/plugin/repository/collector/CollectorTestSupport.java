@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2009 Sonatype, Inc.                                                                                                                          
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ */
+package org.apache.maven.plugin.repository.collector;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.DefaultArtifact;
+import org.apache.maven.artifact.factory.ArtifactFactory;
+import org.apache.maven.artifact.factory.DefaultArtifactFactory;
+import org.apache.maven.artifact.handler.DefaultArtifactHandler;
+import org.apache.maven.artifact.versioning.VersionRange;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Shared fixtures for the collector tests: scratch directories and an artifact factory that needs no container.
+ */
+final class CollectorTestSupport
+{
+
+    private CollectorTestSupport()
+    {
+    }
+
+    /**
+     * An empty, newly created directory under java.io.tmpdir. Callers delete it in their tearDown.
+     */
+    static File createTempDirectory( final String prefix )
+        throws IOException
+    {
+        File directory = File.createTempFile( prefix, "" );
+        directory.delete();
+        directory.mkdirs();
+
+        return directory;
+    }
+
+    /**
+     * An artifact factory that builds plain DefaultArtifacts, since the default one needs an ArtifactHandlerManager.
+     */
+    static ArtifactFactory createArtifactFactory()
+    {
+        return new TestArtifactFactory();
+    }
+
+    private static final class TestArtifactFactory
+        extends DefaultArtifactFactory
+    {
+        public Artifact createArtifactWithClassifier( final String groupId, final String artifactId,
+                                                      final String version, final String type,
+                                                      final String classifier )
+        {
+            return new DefaultArtifact( groupId, artifactId, VersionRange.createFromVersion( version ), null, type,
+                                        classifier, new DefaultArtifactHandler( type ) );
+        }
+
+        public Artifact createProjectArtifact( final String groupId, final String artifactId, final String version )
+        {
+            return createArtifactWithClassifier( groupId, artifactId, version, "pom", null );
+        }
+
+        public Artifact createDependencyArtifact( final String groupId, final String artifactId,
+                                                  final VersionRange versionRange, final String type,
+                                                  final String classifier, final String scope )
+        {
+            return new DefaultArtifact( groupId, artifactId, versionRange, scope, type, classifier,
+                                        new DefaultArtifactHandler( type ) );
+        }
+    }
+}
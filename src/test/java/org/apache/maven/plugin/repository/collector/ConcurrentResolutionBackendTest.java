@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2009 Sonatype, Inc.                                                                                                                          
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ */
+package org.apache.maven.plugin.repository.collector;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.resolver.ArtifactResolver;
+import org.apache.maven.artifact.resolver.DefaultArtifactCollector;
+import org.apache.maven.artifact.resolver.filter.ExcludesArtifactFilter;
+import org.apache.maven.model.Model;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.apache.maven.project.MavenProject;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.apache.maven.plugin.repository.collector.FixtureMetadataSource.create;
+import static org.junit.Assert.assertEquals;
+
+public class ConcurrentResolutionBackendTest
+{
+
+    private final FixtureMetadataSource metadataSource = new FixtureMetadataSource();
+
+    private final Set<String> resolved = Collections.synchronizedSet( new TreeSet<String>() );
+
+    private final Map<String, Artifact> managed = new HashMap<String, Artifact>();
+
+    /**
+     * <pre>
+     * a:1.0 -> e:2.0 -> j:1.0
+     *       -> g:1.0 (filtered out)
+     * e:1.5 -> k:1.0
+     * </pre>
+     * with e managed to 1.5.
+     */
+    public ConcurrentResolutionBackendTest()
+    {
+        metadataSource.add( "a:1.0", create( "e", "2.0" ), create( "g", "1.0" ) );
+        metadataSource.add( "e:1.5", create( "k", "1.0" ) );
+        metadataSource.add( "e:2.0", create( "j", "1.0" ) );
+
+        Artifact e = create( "e", "1.5" );
+        managed.put( e.getDependencyConflictId(), e );
+    }
+
+    @Test
+    public void walksAndCollectsWithTheProjectManagementAndFilter()
+        throws Exception
+    {
+        Set<String> result = resolve( managed, Collections.<String, Map<String, Artifact>> emptyMap(), false );
+
+        assertEquals( new TreeSet<String>( Arrays.asList( "test:a:jar:1.0", "test:e:jar:1.5", "test:k:jar:1.0" ) ),
+                      result );
+        assertEquals( new TreeSet<String>( Arrays.asList( "test:a:jar:1.0", "test:a:pom:1.0", "test:e:jar:1.5",
+                                                          "test:e:pom:1.5", "test:k:jar:1.0", "test:k:pom:1.0" ) ),
+                      resolved );
+    }
+
+    @Test
+    public void walksEachArtifactWithItsPluginManagement()
+        throws Exception
+    {
+        Map<String, Map<String, Artifact>> pluginManagedVersions = new HashMap<String, Map<String, Artifact>>();
+        pluginManagedVersions.put( create( "a", "1.0" ).getDependencyConflictId(), managed );
+
+        Set<String> result = resolve( Collections.<String, Artifact> emptyMap(), pluginManagedVersions, true );
+
+        assertEquals( new TreeSet<String>( Arrays.asList( "test:a:jar:1.0", "test:e:jar:1.5", "test:k:jar:1.0" ) ),
+                      result );
+        assertEquals( new TreeSet<String>( Arrays.asList( "test:a:jar:1.0", "test:a:pom:1.0", "test:e:jar:1.5",
+                                                          "test:e:pom:1.5", "test:k:jar:1.0", "test:k:pom:1.0" ) ),
+                      resolved );
+    }
+
+    private Set<String> resolve( final Map<String, Artifact> projectManaged,
+                                 final Map<String, Map<String, Artifact>> pluginManagedVersions,
+                                 final boolean separately )
+        throws Exception
+    {
+        MavenProject project = new MavenProject( new Model() );
+        project.setArtifact( create( "project", "1.0" ) );
+        project.setDependencyArtifacts( Collections.singleton( create( "a", "1.0" ) ) );
+        project.setRemoteArtifactRepositories( Collections.EMPTY_LIST );
+        project.setManagedVersionMap( projectManaged );
+
+        ConcurrentResolutionBackend backend =
+            new ConcurrentResolutionBackend( CollectorTestSupport.createArtifactFactory(),
+                                             new DefaultArtifactCollector(), createResolver(), metadataSource, null,
+                                             Collections.<String, Artifact> emptyMap(),
+                                             new ExcludesArtifactFilter( Collections.singletonList( "test:g" ) ), 2,
+                                             new SystemStreamLog() );
+
+        Set<String> ids = new TreeSet<String>();
+        for ( Artifact a : backend.resolve( project, pluginManagedVersions, null, separately ) )
+        {
+            ids.add( a.getId() );
+        }
+
+        return ids;
+    }
+
+    /**
+     * A resolver that records what it is asked to resolve.
+     */
+    private ArtifactResolver createResolver()
+    {
+        InvocationHandler handler = new InvocationHandler()
+        {
+            public Object invoke( final Object proxy, final Method method, final Object[] args )
+            {
+                if ( "resolve".equals( method.getName() ) && args.length == 3 )
+                {
+                    resolved.add( ( (Artifact) args[0] ).getId() );
+                }
+                return null;
+            }
+        };
+
+        return (ArtifactResolver) Proxy.newProxyInstance( ArtifactResolver.class.getClassLoader(),
+                                                          new Class[] { ArtifactResolver.class }, handler );
+    }
+
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2009 Sonatype, Inc.                                                                                                                          
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ */
+package org.apache.maven.plugin.repository.collector;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.DefaultArtifact;
+import org.apache.maven.artifact.handler.DefaultArtifactHandler;
+import org.apache.maven.artifact.versioning.VersionRange;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CoordinatePatternFilterTest
+{
+
+    private static final Artifact JAR = create( "org.example", "lib", "jar", null, "1.0" );
+
+    private static final Artifact SOURCES = create( "org.example", "lib", "jar", "sources", "1.0" );
+
+    private static final Artifact OTHER = create( "com.example.tools", "tool", "maven-plugin", null, "2.1" );
+
+    @Test
+    public void includesEverythingWithoutPatterns()
+    {
+        CoordinatePatternFilter filter = new CoordinatePatternFilter( null, Collections.<String> emptyList() );
+
+        assertTrue( filter.isEmpty() );
+        assertTrue( filter.include( JAR ) );
+        assertTrue( filter.include( OTHER ) );
+    }
+
+    @Test
+    public void matchesLiteralFieldsAndLeavesOmittedFieldsOpen()
+    {
+        CoordinatePatternFilter filter = filter( Arrays.asList( "org.example:lib" ), null );
+
+        assertTrue( filter.include( JAR ) );
+        assertTrue( filter.include( SOURCES ) );
+        assertFalse( filter.include( OTHER ) );
+    }
+
+    @Test
+    public void matchesWildcardsInAnyField()
+    {
+        assertTrue( filter( Arrays.asList( "com.*.tools" ), null ).include( OTHER ) );
+        assertTrue( filter( Arrays.asList( "*:t*l" ), null ).include( OTHER ) );
+        assertTrue( filter( Arrays.asList( "*:*:*:*:2.*" ), null ).include( OTHER ) );
+        assertFalse( filter( Arrays.asList( "*:*:*:*:1.*" ), null ).include( OTHER ) );
+        assertFalse( filter( Arrays.asList( "com.*.tools" ), null ).include( JAR ) );
+    }
+
+    @Test
+    public void treatsAnEmptyClassifierAsNoClassifier()
+    {
+        CoordinatePatternFilter filter = filter( Arrays.asList( "org.example:lib:jar::1.0" ), null );
+
+        assertTrue( filter.include( JAR ) );
+        assertFalse( filter.include( SOURCES ) );
+
+        assertTrue( filter( Arrays.asList( "org.example:lib:jar:sources" ), null ).include( SOURCES ) );
+    }
+
+    @Test
+    public void appliesExcludesAfterIncludes()
+    {
+        CoordinatePatternFilter filter =
+            filter( Arrays.asList( "org.example", "com.example.tools" ), Arrays.asList( "*:*:*:sources" ) );
+
+        assertTrue( filter.include( JAR ) );
+        assertFalse( filter.include( SOURCES ) );
+        assertTrue( filter.include( OTHER ) );
+
+        assertFalse( filter( null, Arrays.asList( "*" ) ).include( JAR ) );
+    }
+
+    @Test
+    public void matchesUnresolvedVersionRanges()
+        throws Exception
+    {
+        Artifact ranged =
+            new DefaultArtifact( "org.example", "lib", VersionRange.createFromVersionSpec( "[1.0,2.0)" ), null, "jar",
+                                 null, new DefaultArtifactHandler( "jar" ) );
+
+        assertTrue( filter( Arrays.asList( "org.example:lib:jar::[1.0,2.0)" ), null ).include( ranged ) );
+        assertFalse( filter( Arrays.asList( "org.example:lib:jar::1.0" ), null ).include( ranged ) );
+    }
+
+    private static CoordinatePatternFilter filter( final List<String> includes, final List<String> excludes )
+    {
+        return new CoordinatePatternFilter( includes, excludes );
+    }
+
+    private static Artifact create( final String groupId, final String artifactId, final String type,
+                                    final String classifier, final String version )
+    {
+        return new DefaultArtifact( groupId, artifactId, VersionRange.createFromVersion( version ), null, type,
+                                    classifier, new DefaultArtifactHandler( type ) );
+    }
+
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2009 Sonatype, Inc.                                                                                                                          
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ */
+package org.apache.maven.plugin.repository.collector;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.DefaultArtifact;
+import org.apache.maven.artifact.handler.DefaultArtifactHandler;
+import org.apache.maven.artifact.metadata.ArtifactMetadataSource;
+import org.apache.maven.artifact.metadata.ResolutionGroup;
+import org.apache.maven.artifact.repository.ArtifactRepository;
+import org.apache.maven.artifact.versioning.DefaultArtifactVersion;
+import org.apache.maven.artifact.versioning.InvalidVersionSpecificationException;
+import org.apache.maven.artifact.versioning.VersionRange;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Serves a fixed dependency graph of jars in the 'test' group, keyed by artifactId:version, for tests of the
+ * mediation and resolution code.
+ */
+final class FixtureMetadataSource
+    implements ArtifactMetadataSource
+{
+
+    private final Map<String, List<Artifact>> children = new HashMap<String, List<Artifact>>();
+
+    private final Map<String, List<String>> versions = new HashMap<String, List<String>>();
+
+    /**
+     * A compile-scoped test:artifactId jar with the given version or version range.
+     */
+    static Artifact create( final String artifactId, final String versionSpec )
+    {
+        VersionRange range;
+        try
+        {
+            range = VersionRange.createFromVersionSpec( versionSpec );
+        }
+        catch ( InvalidVersionSpecificationException e )
+        {
+            throw new IllegalArgumentException( e.getMessage() );
+        }
+
+        return new DefaultArtifact( "test", artifactId, range, Artifact.SCOPE_COMPILE, "jar", null,
+                                    new DefaultArtifactHandler( "jar" ) );
+    }
+
+    void add( final String node, final Artifact... dependencies )
+    {
+        children.put( node, Arrays.asList( dependencies ) );
+    }
+
+    void addVersions( final String artifactId, final String... available )
+    {
+        versions.put( artifactId, Arrays.asList( available ) );
+    }
+
+    public ResolutionGroup retrieve( final Artifact artifact, final ArtifactRepository localRepository,
+                                     final List remoteRepositories )
+    {
+        Set<Artifact> dependencies = new LinkedHashSet<Artifact>();
+        List<Artifact> list = children.get( artifact.getArtifactId() + ":" + artifact.getVersion() );
+        if ( list != null )
+        {
+            for ( Artifact dependency : list )
+            {
+                Artifact copy = create( dependency.getArtifactId(), dependency.getVersionRange().toString() );
+                copy.setOptional( dependency.isOptional() );
+                dependencies.add( copy );
+            }
+        }
+
+        return new ResolutionGroup( artifact, dependencies, remoteRepositories );
+    }
+
+    public Artifact retrieveRelocatedArtifact( final Artifact artifact, final ArtifactRepository localRepository,
+                                               final List remoteRepositories )
+    {
+        return artifact;
+    }
+
+    public List retrieveAvailableVersions( final Artifact artifact, final ArtifactRepository localRepository,
+                                           final List remoteRepositories )
+    {
+        List<DefaultArtifactVersion> available = new ArrayList<DefaultArtifactVersion>();
+        List<String> list = versions.get( artifact.getArtifactId() );
+        for ( int i = 0; list != null && i < list.size(); i++ )
+        {
+            available.add( new DefaultArtifactVersion( list.get( i ) ) );
+        }
+
+        return available;
+    }
+
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2009 Sonatype, Inc.                                                                                                                          
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ */
+package org.apache.maven.plugin.repository.collector;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.factory.ArtifactFactory;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MergeShardsMojoTest
+{
+
+    private final ArtifactFactory artifactFactory = CollectorTestSupport.createArtifactFactory();
+
+    private File directory;
+
+    private List<Artifact> artifacts;
+
+    @Before
+    public void setUp()
+        throws IOException
+    {
+        directory = CollectorTestSupport.createTempDirectory( "merge" );
+
+        // 1.0 and 1.0.0 are equal in Maven's version order, but are different versions in the repository.
+        artifacts = new ArrayList<Artifact>();
+        artifacts.add( artifactFactory.createArtifactWithClassifier( "org.example", "lib", "1.0", "jar", null ) );
+        artifacts.add( artifactFactory.createArtifactWithClassifier( "org.example", "lib", "1.0.0", "jar", null ) );
+    }
+
+    @After
+    public void tearDown()
+        throws IOException
+    {
+        FileUtils.deleteDirectory( directory );
+    }
+
+    @Test
+    public void regeneratesMetadataAndIndexFromAllShards()
+        throws IOException, MojoExecutionException, MojoFailureException
+    {
+        File shard0 = createShard( 0, 2 );
+        File shard1 = createShard( 1, 2 );
+        File merged = new File( directory, "merged" );
+
+        merge( merged, shard0, shard1 );
+
+        String metadata = FileUtils.fileRead( new File( merged, "org/example/lib/maven-metadata.xml" ) );
+        assertTrue( metadata, metadata.indexOf( "<version>1.0</version>" ) > -1 );
+        assertTrue( metadata, metadata.indexOf( "<version>1.0.0</version>" ) > -1 );
+        assertEquals( Checksums.sha1( new File( merged, "org/example/lib/maven-metadata.xml" ) ),
+                      FileUtils.fileRead( new File( merged, "org/example/lib/maven-metadata.xml.sha1" ) ) );
+
+        File index = new File( merged, CollectedRepositoryIndex.FILE_NAME );
+        assertEquals( "org/example/lib/1.0/lib-1.0.jar",
+                      CollectedRepositoryIndex.find( index, "org.example:lib:jar::1.0" ) );
+        assertEquals( "org/example/lib/1.0.0/lib-1.0.0.jar",
+                      CollectedRepositoryIndex.find( index, "org.example:lib:jar::1.0.0" ) );
+    }
+
+    @Test
+    public void failsWhenAShardIsMissing()
+        throws IOException, MojoExecutionException
+    {
+        File shard0 = createShard( 0, 2 );
+
+        try
+        {
+            merge( new File( directory, "merged" ), shard0 );
+            fail( "Merged an incomplete set of shards." );
+        }
+        catch ( MojoFailureException e )
+        {
+            assertTrue( e.getMessage(), e.getMessage().startsWith( "Missing shards of: org.example:project: [1]" ) );
+        }
+    }
+
+    /**
+     * Write one artifact into a shard, with the shard's metadata, index and manifest, as a sharded collect run would.
+     */
+    private File createShard( final int shardIndex, final int shardCount )
+        throws IOException
+    {
+        File shardDir = new File( directory, "shard" + shardIndex );
+        Artifact a = artifacts.get( shardIndex );
+
+        File file = new File( shardDir, "org/example/lib/" + a.getVersion() + "/lib-" + a.getVersion() + ".jar" );
+        file.getParentFile().mkdirs();
+        FileUtils.fileWrite( file.getPath(), a.getVersion() );
+
+        RepositoryMetadataGenerator generator = new RepositoryMetadataGenerator( shardDir, artifactFactory );
+        generator.generate( Collections.singleton( a ) );
+        ShardManifest.create( "org.example", "project", shardIndex, shardCount, artifacts ).write( shardDir );
+
+        return shardDir;
+    }
+
+    private void merge( final File merged, final File... shards )
+        throws MojoExecutionException, MojoFailureException
+    {
+        MergeShardsMojo mojo = new MergeShardsMojo();
+        mojo.setLog( new SystemStreamLog() );
+        mojo.setArtifactFactory( artifactFactory );
+        mojo.setShardDirectories( Arrays.asList( shards ) );
+        mojo.setOutputDirectory( merged );
+        mojo.execute();
+    }
+
+}
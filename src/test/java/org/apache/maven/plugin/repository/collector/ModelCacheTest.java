@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2009 Sonatype, Inc.                                                                                                                          
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ */
+package org.apache.maven.plugin.repository.collector;
+
+import org.apache.maven.model.Dependency;
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class ModelCacheTest
+{
+
+    private static final String POM = "g/plugin/1.0/plugin-1.0.pom";
+
+    private File directory;
+
+    @Before
+    public void setUp()
+        throws IOException
+    {
+        directory = CollectorTestSupport.createTempDirectory( "model-cache" );
+
+        writePom( POM, "<project/>" );
+        writePom( "g/other/1.0/other-1.0.pom", "<project/>" );
+    }
+
+    @After
+    public void tearDown()
+        throws IOException
+    {
+        FileUtils.deleteDirectory( directory );
+    }
+
+    @Test
+    public void keepsSystemPaths()
+        throws IOException
+    {
+        Dependency tools = new Dependency();
+        tools.setGroupId( "com.sun" );
+        tools.setArtifactId( "tools" );
+        tools.setVersion( "1.5" );
+        tools.setType( "jar" );
+        tools.setScope( "system" );
+        tools.setSystemPath( "/opt/jdk/lib/tools.jar" );
+
+        ModelCache cache = load();
+        cache.put( "g:plugin:1.0", Collections.singletonList( POM ), Collections.singletonList( tools ) );
+        cache.store();
+
+        List<Dependency> managed = load().getManagedDependencies( "g:plugin:1.0" );
+        assertEquals( 1, managed.size() );
+        assertEquals( "/opt/jdk/lib/tools.jar", managed.get( 0 ).getSystemPath() );
+    }
+
+    @Test
+    public void dropsEntriesWhosePomsChanged()
+        throws IOException
+    {
+        ModelCache cache = load();
+        cache.put( "g:plugin:1.0", Collections.singletonList( POM ), Collections.<Dependency> emptyList() );
+        cache.store();
+
+        writePom( POM, "<project><!-- changed --></project>" );
+        assertNull( load().getManagedDependencies( "g:plugin:1.0" ) );
+    }
+
+    @Test
+    public void mergesEntriesAddedByConcurrentBuilds()
+        throws IOException
+    {
+        ModelCache first = load();
+        ModelCache second = load();
+        first.put( "g:plugin:1.0", Collections.singletonList( POM ), Collections.<Dependency> emptyList() );
+        second.put( "g:other:1.0", Collections.singletonList( "g/other/1.0/other-1.0.pom" ),
+                    Collections.<Dependency> emptyList() );
+        first.store();
+        second.store();
+
+        ModelCache reloaded = load();
+        assertNotNull( reloaded.getManagedDependencies( "g:plugin:1.0" ) );
+        assertNotNull( reloaded.getManagedDependencies( "g:other:1.0" ) );
+    }
+
+    private ModelCache load()
+        throws IOException
+    {
+        ModelCache cache = new ModelCache( directory );
+        cache.load();
+        return cache;
+    }
+
+    private void writePom( final String path, final String content )
+        throws IOException
+    {
+        File pom = new File( directory, path );
+        pom.getParentFile().mkdirs();
+        FileUtils.fileWrite( pom.getPath(), content );
+    }
+
+}
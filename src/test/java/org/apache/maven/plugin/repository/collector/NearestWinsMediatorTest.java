@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2009 Sonatype, Inc.                                                                                                                          
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ */
+package org.apache.maven.plugin.repository.collector;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.repository.ArtifactRepository;
+import org.apache.maven.artifact.resolver.ArtifactResolutionResult;
+import org.apache.maven.artifact.resolver.DefaultArtifactCollector;
+import org.apache.maven.artifact.resolver.filter.ExcludesArtifactFilter;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.apache.maven.plugin.repository.collector.FixtureMetadataSource.create;
+import static org.junit.Assert.assertEquals;
+
+public class NearestWinsMediatorTest
+{
+
+    private final FixtureMetadataSource metadataSource = new FixtureMetadataSource();
+
+    /**
+     * <pre>
+     * a:1.0 -> c:1.0 -> f:1.0 (optional)
+     *       -> d:1.0 -> e:2.0
+     *       -> g:1.0 (excluded by the project)
+     * b:1.0 -> c:2.0
+     *       -> e:1.0
+     *       -> h:[1.0,2.0)
+     * </pre>
+     */
+    public NearestWinsMediatorTest()
+    {
+        metadataSource.add( "a:1.0", create( "c", "1.0" ), create( "d", "1.0" ), create( "g", "1.0" ) );
+        metadataSource.add( "b:1.0", create( "c", "2.0" ), create( "e", "1.0" ), create( "h", "[1.0,2.0)" ) );
+        metadataSource.add( "c:1.0", optional( create( "f", "1.0" ) ) );
+        metadataSource.add( "d:1.0", create( "e", "2.0" ) );
+        metadataSource.addVersions( "h", "1.0", "1.5", "2.0" );
+    }
+
+    @Test
+    public void selectsTheSameArtifactsAsMaven()
+        throws Exception
+    {
+        Set<String> expected =
+            new TreeSet<String>( Arrays.asList( "test:a:jar:1.0", "test:b:jar:1.0", "test:c:jar:1.0",
+                                                "test:d:jar:1.0", "test:e:jar:1.0", "test:h:jar:1.5" ) );
+
+        Map<String, Artifact> managed = Collections.emptyMap();
+        assertEquals( expected, mediate( managed ) );
+        assertEquals( expected, collect( managed ) );
+    }
+
+    @Test
+    public void appliesManagedVersionsLikeMaven()
+        throws Exception
+    {
+        Map<String, Artifact> managed = new HashMap<String, Artifact>();
+        Artifact e = create( "e", "1.5" );
+        managed.put( e.getDependencyConflictId(), e );
+
+        Set<String> expected =
+            new TreeSet<String>( Arrays.asList( "test:a:jar:1.0", "test:b:jar:1.0", "test:c:jar:1.0",
+                                                "test:d:jar:1.0", "test:e:jar:1.5", "test:h:jar:1.5" ) );
+
+        assertEquals( expected, mediate( managed ) );
+        assertEquals( expected, collect( managed ) );
+    }
+
+    @Test
+    public void tracesEachWinnerBackToItsRoot()
+        throws Exception
+    {
+        NearestWinsMediator engine =
+            new NearestWinsMediator( metadataSource, null, Collections.<ArtifactRepository> emptyList(),
+                                     new SystemStreamLog() );
+        Map<String, Artifact> managed = Collections.emptyMap();
+        Set<Artifact> result =
+            engine.mediate( roots(), Collections.<String, Map<String, Artifact>> emptyMap(), managed );
+
+        Artifact e = null;
+        for ( Artifact a : result )
+        {
+            if ( "e".equals( a.getArtifactId() ) )
+            {
+                e = a;
+            }
+        }
+
+        assertEquals( Arrays.asList( "test:b:jar:1.0", "test:e:jar:1.0" ), engine.getTrail( e ) );
+        assertEquals( Collections.emptyList(), engine.getTrail( create( "e", "1.0" ) ) );
+    }
+
+    private Set<String> mediate( final Map<String, Artifact> managed )
+        throws Exception
+    {
+        NearestWinsMediator engine =
+            new NearestWinsMediator( metadataSource, null, Collections.<ArtifactRepository> emptyList(),
+                                     new SystemStreamLog() );
+
+        return ids( engine.mediate( roots(), Collections.<String, Map<String, Artifact>> emptyMap(), managed ) );
+    }
+
+    @SuppressWarnings( "unchecked" )
+    private Set<String> collect( final Map<String, Artifact> managed )
+        throws Exception
+    {
+        ArtifactResolutionResult result =
+            new DefaultArtifactCollector().collect( roots(), create( "project", "1.0" ), managed, null,
+                                                    Collections.emptyList(), metadataSource, null,
+                                                    Collections.emptyList() );
+
+        return ids( (Set<Artifact>) result.getArtifacts() );
+    }
+
+    private static Set<Artifact> roots()
+    {
+        Set<Artifact> roots = new LinkedHashSet<Artifact>();
+        Artifact a = create( "a", "1.0" );
+        a.setDependencyFilter( new ExcludesArtifactFilter( Collections.singletonList( "test:g" ) ) );
+        roots.add( a );
+        roots.add( create( "b", "1.0" ) );
+
+        return roots;
+    }
+
+    private static Set<String> ids( final Set<Artifact> artifacts )
+    {
+        Set<String> ids = new TreeSet<String>();
+        for ( Artifact a : artifacts )
+        {
+            ids.add( a.getId() );
+        }
+
+        return ids;
+    }
+
+    private static Artifact optional( final Artifact artifact )
+    {
+        artifact.setOptional( true );
+        return artifact;
+    }
+
+}
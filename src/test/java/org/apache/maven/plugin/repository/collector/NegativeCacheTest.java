@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2009 Sonatype, Inc.                                                                                                                          
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ */
+package org.apache.maven.plugin.repository.collector;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class NegativeCacheTest
+{
+
+    private File directory;
+
+    private File file;
+
+    @Before
+    public void setUp()
+        throws IOException
+    {
+        directory = CollectorTestSupport.createTempDirectory( "negative-cache" );
+        file = new File( directory, NegativeCache.FILE_NAME );
+    }
+
+    @After
+    public void tearDown()
+        throws IOException
+    {
+        FileUtils.deleteDirectory( directory );
+    }
+
+    @Test
+    public void mergesMissesRecordedByConcurrentBuilds()
+        throws IOException
+    {
+        NegativeCache first = load();
+        NegativeCache second = load();
+
+        first.markMissing( "central", "a/a/1.0/a-1.0.jar" );
+        second.markMissing( "central", "b/b/1.0/b-1.0.jar" );
+        first.store();
+        second.store();
+
+        NegativeCache reloaded = load();
+        assertTrue( reloaded.isMissing( "central", "a/a/1.0/a-1.0.jar" ) );
+        assertTrue( reloaded.isMissing( "central", "b/b/1.0/b-1.0.jar" ) );
+    }
+
+    @Test
+    public void keepsFilesFoundByAnotherBuildOutOfTheFile()
+        throws IOException
+    {
+        NegativeCache first = load();
+        first.markMissing( "central", "a/a/1.0/a-1.0.jar" );
+        first.store();
+
+        NegativeCache second = load();
+        NegativeCache third = load();
+        second.markPresent( "central", "a/a/1.0/a-1.0.jar" );
+        third.markMissing( "central", "b/b/1.0/b-1.0.jar" );
+        second.store();
+        third.store();
+
+        NegativeCache reloaded = load();
+        assertFalse( reloaded.isMissing( "central", "a/a/1.0/a-1.0.jar" ) );
+        assertTrue( reloaded.isMissing( "central", "b/b/1.0/b-1.0.jar" ) );
+    }
+
+    @Test
+    public void leavesNoTemporaryFilesBehind()
+        throws IOException
+    {
+        NegativeCache cache = load();
+        cache.markMissing( "central", "a/a/1.0/a-1.0.jar" );
+        cache.store();
+
+        assertEquals( 2, directory.list().length );
+    }
+
+    private NegativeCache load()
+        throws IOException
+    {
+        NegativeCache cache = new NegativeCache( file, 60000, false );
+        cache.load();
+        return cache;
+    }
+
+}
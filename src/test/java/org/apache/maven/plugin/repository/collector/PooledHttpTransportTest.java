@@ -0,0 +1,371 @@
+/*
+ * Copyright (C) 2009 Sonatype, Inc.                                                                                                                          
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ */
+package org.apache.maven.plugin.repository.collector;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManagerFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+public class PooledHttpTransportTest
+{
+
+    private static final String AUTHORIZATION = "Basic dXNlcjpzZWNyZXQ=";
+
+    private HttpServer server;
+
+    private HttpServer otherServer;
+
+    private final List<String> authorizations = Collections.synchronizedList( new ArrayList<String>() );
+
+    private final List<String> otherAuthorizations = Collections.synchronizedList( new ArrayList<String>() );
+
+    /**
+     * The client port of each request to the first server; a reused connection keeps its port.
+     */
+    private final Set<Integer> clientPorts = Collections.synchronizedSet( new HashSet<Integer>() );
+
+    private PooledHttpTransport transport;
+
+    private File directory;
+
+    @Before
+    public void setUp()
+        throws IOException
+    {
+        server = start( authorizations, clientPorts );
+        otherServer = start( otherAuthorizations, new HashSet<Integer>() );
+
+        transport = new PooledHttpTransport( 2, 5000, new SystemStreamLog() );
+
+        directory = CollectorTestSupport.createTempDirectory( "transport" );
+    }
+
+    @After
+    public void tearDown()
+        throws IOException
+    {
+        transport.close();
+        server.stop( 0 );
+        otherServer.stop( 0 );
+        FileUtils.deleteDirectory( directory );
+    }
+
+    @Test
+    public void writesTheBodyOfASuccessfulResponse()
+        throws IOException
+    {
+        File target = new File( directory, "a.jar" );
+
+        assertEquals( 200, transport.get( url( server, "/content" ), null, target ) );
+        assertEquals( "content", FileUtils.fileRead( target ) );
+        assertEquals( 1, directory.list().length );
+    }
+
+    @Test
+    public void readsChunkedBodies()
+        throws IOException
+    {
+        File target = new File( directory, "a.jar" );
+
+        assertEquals( 200, transport.get( url( server, "/chunked" ), null, target ) );
+        assertEquals( "chunked", FileUtils.fileRead( target ) );
+    }
+
+    @Test
+    public void leavesTheTargetAloneWhenMissing()
+        throws IOException
+    {
+        File target = new File( directory, "a.jar" );
+
+        assertEquals( 404, transport.get( url( server, "/missing" ), null, target ) );
+        assertFalse( target.exists() );
+        assertEquals( 0, directory.list().length );
+    }
+
+    @Test
+    public void reusesConnectionsAcrossRequests()
+        throws IOException
+    {
+        File target = new File( directory, "a.jar" );
+
+        assertEquals( 200, transport.get( url( server, "/content" ), null, target ) );
+        assertEquals( 404, transport.get( url( server, "/missing" ), null, target ) );
+        assertEquals( 200, transport.get( url( server, "/redirect?/chunked" ), null, target ) );
+        assertEquals( 200, transport.get( url( server, "/content" ), null, target ) );
+
+        assertEquals( 5, authorizations.size() );
+        assertEquals( clientPorts.toString(), 1, clientPorts.size() );
+    }
+
+    @Test
+    public void countsReusedHttpsConnections()
+        throws IOException, GeneralSecurityException, InterruptedException
+    {
+        File keyStoreFile = new File( directory, "server.jks" );
+        assumeTrue( createKeyStore( keyStoreFile ) );
+
+        KeyStore keyStore = KeyStore.getInstance( "JKS" );
+        InputStream in = new FileInputStream( keyStoreFile );
+        try
+        {
+            keyStore.load( in, "changeit".toCharArray() );
+        }
+        finally
+        {
+            in.close();
+        }
+
+        KeyManagerFactory keyManagers = KeyManagerFactory.getInstance( KeyManagerFactory.getDefaultAlgorithm() );
+        keyManagers.init( keyStore, "changeit".toCharArray() );
+        SSLContext serverContext = SSLContext.getInstance( "TLS" );
+        serverContext.init( keyManagers.getKeyManagers(), null, null );
+
+        TrustManagerFactory trustManagers =
+            TrustManagerFactory.getInstance( TrustManagerFactory.getDefaultAlgorithm() );
+        trustManagers.init( keyStore );
+        SSLContext clientContext = SSLContext.getInstance( "TLS" );
+        clientContext.init( null, trustManagers.getTrustManagers(), null );
+
+        HttpsServer httpsServer = HttpsServer.create( new InetSocketAddress( "localhost", 0 ), 0 );
+        httpsServer.setHttpsConfigurator( new HttpsConfigurator( serverContext ) );
+        httpsServer.createContext( "/", createHandler( new ArrayList<String>(), new HashSet<Integer>() ) );
+        httpsServer.start();
+        try
+        {
+            PooledHttpTransport https =
+                new PooledHttpTransport( 2, 5000, clientContext.getSocketFactory(), new SystemStreamLog() );
+            URL url = new URL( "https://localhost:" + httpsServer.getAddress().getPort() + "/content" );
+            for ( int i = 0; i < 3; i++ )
+            {
+                assertEquals( 200, https.get( url, null, new File( directory, "a.jar" ) ) );
+            }
+
+            assertEquals( 1, https.getHttpsConnectionCount() );
+            assertEquals( 66, https.getHttpsReusePercentage() );
+            String statistics = https.getStatistics();
+            assertTrue( statistics,
+                        statistics.endsWith( "1 https connections opened for 3 https requests (66% reused)" ) );
+        }
+        finally
+        {
+            httpsServer.stop( 0 );
+        }
+    }
+
+    @Test
+    public void sendsCredentialsAcrossSameOriginRedirects()
+        throws IOException
+    {
+        File target = new File( directory, "a.jar" );
+
+        assertEquals( 200, transport.get( url( server, "/redirect?/content" ), AUTHORIZATION, target ) );
+        assertEquals( "content", FileUtils.fileRead( target ) );
+        assertEquals( 2, authorizations.size() );
+        assertEquals( AUTHORIZATION, authorizations.get( 0 ) );
+        assertEquals( AUTHORIZATION, authorizations.get( 1 ) );
+    }
+
+    @Test
+    public void dropsCredentialsOnRedirectsToAnotherOrigin()
+        throws IOException
+    {
+        File target = new File( directory, "a.jar" );
+        String location = url( otherServer, "/content" ).toExternalForm();
+
+        assertEquals( 200, transport.get( url( server, "/redirect?" + location ), AUTHORIZATION, target ) );
+        assertEquals( "content", FileUtils.fileRead( target ) );
+        assertEquals( AUTHORIZATION, authorizations.get( 0 ) );
+        assertEquals( 1, otherAuthorizations.size() );
+        assertNull( otherAuthorizations.get( 0 ) );
+    }
+
+    @Test
+    public void refusesRedirectsToOtherProtocols()
+        throws IOException
+    {
+        try
+        {
+            transport.get( url( server, "/redirect?file:/etc/passwd" ), AUTHORIZATION, new File( directory, "a" ) );
+            fail( "Redirect to file: was followed." );
+        }
+        catch ( IOException e )
+        {
+            // expected.
+        }
+    }
+
+    @Test
+    public void refusesRedirectsThatLeaveHttps()
+        throws IOException
+    {
+        URL from = new URL( "https://repo.example.org/releases/a.jar" );
+
+        assertEquals( new URL( "https://cdn.example.org/a.jar" ),
+                      PooledHttpTransport.getRedirectTarget( from, "https://cdn.example.org/a.jar" ) );
+        assertEquals( new URL( "https://repo.example.org/b.jar" ),
+                      PooledHttpTransport.getRedirectTarget( from, "/b.jar" ) );
+
+        try
+        {
+            PooledHttpTransport.getRedirectTarget( from, "http://repo.example.org/releases/a.jar" );
+            fail( "https to http redirect was allowed." );
+        }
+        catch ( IOException e )
+        {
+            // expected.
+        }
+    }
+
+    @Test
+    public void comparesOriginsByProtocolHostAndPort()
+        throws IOException
+    {
+        assertTrue( PooledHttpTransport.isSameOrigin( new URL( "https://Repo.example.org/a" ),
+                                                      new URL( "https://repo.example.org:443/b" ) ) );
+        assertFalse( PooledHttpTransport.isSameOrigin( new URL( "http://repo.example.org/a" ),
+                                                       new URL( "http://repo.example.org:8080/a" ) ) );
+        assertFalse( PooledHttpTransport.isSameOrigin( new URL( "http://repo.example.org/a" ),
+                                                       new URL( "https://repo.example.org/a" ) ) );
+        assertFalse( PooledHttpTransport.isSameOrigin( new URL( "https://repo.example.org/a" ),
+                                                       new URL( "https://cdn.example.org/a" ) ) );
+    }
+
+    private static URL url( final HttpServer server, final String path )
+        throws IOException
+    {
+        return new URL( "http://localhost:" + server.getAddress().getPort() + path );
+    }
+
+    private static HttpServer start( final List<String> authorizations, final Set<Integer> clientPorts )
+        throws IOException
+    {
+        HttpServer server = HttpServer.create( new InetSocketAddress( "localhost", 0 ), 0 );
+        server.createContext( "/", createHandler( authorizations, clientPorts ) );
+        server.start();
+
+        return server;
+    }
+
+    private static HttpHandler createHandler( final List<String> authorizations, final Set<Integer> clientPorts )
+    {
+        return new HttpHandler()
+        {
+            public void handle( final HttpExchange exchange )
+                throws IOException
+            {
+                authorizations.add( exchange.getRequestHeaders().getFirst( "Authorization" ) );
+                clientPorts.add( exchange.getRemoteAddress().getPort() );
+
+                String path = exchange.getRequestURI().getPath();
+                if ( "/content".equals( path ) )
+                {
+                    respond( exchange, 200, "content".getBytes( "UTF-8" ).length, "content" );
+                }
+                else if ( "/chunked".equals( path ) )
+                {
+                    respond( exchange, 200, 0, "chunked" );
+                }
+                else if ( "/redirect".equals( path ) )
+                {
+                    exchange.getResponseHeaders().add( "Location", exchange.getRequestURI().getQuery() );
+                    respond( exchange, 302, -1, null );
+                }
+                else
+                {
+                    respond( exchange, 404, "missing".getBytes( "UTF-8" ).length, "missing" );
+                }
+            }
+        };
+    }
+
+    /**
+     * Generate a self-signed key for localhost with the JDK's keytool.
+     * 
+     * @return false if keytool is not available.
+     */
+    private static boolean createKeyStore( final File file )
+        throws IOException, InterruptedException
+    {
+        File keytool = new File( System.getProperty( "java.home" ), "bin/keytool" );
+        if ( !keytool.isFile() )
+        {
+            return false;
+        }
+
+        Process process =
+            new ProcessBuilder( keytool.getPath(), "-genkeypair", "-alias", "localhost", "-keyalg", "RSA", "-keysize",
+                                "2048", "-validity", "1", "-dname", "CN=localhost", "-ext", "SAN=dns:localhost",
+                                "-storetype", "JKS", "-keystore", file.getPath(), "-storepass", "changeit",
+                                "-keypass", "changeit" ).redirectErrorStream( true ).start();
+        process.getOutputStream().close();
+        InputStream output = process.getInputStream();
+        while ( output.read() > -1 )
+        {
+            // drain.
+        }
+
+        return process.waitFor() == 0;
+    }
+
+    private static void respond( final HttpExchange exchange, final int status, final long length,
+                                 final String body )
+        throws IOException
+    {
+        exchange.sendResponseHeaders( status, length );
+        OutputStream out = exchange.getResponseBody();
+        if ( body != null )
+        {
+            out.write( body.getBytes( "UTF-8" ) );
+        }
+        out.close();
+    }
+
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2009 Sonatype, Inc.                                                                                                                          
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ */
+package org.apache.maven.plugin.repository.collector;
+
+import org.apache.maven.artifact.repository.ArtifactRepository;
+import org.apache.maven.artifact.repository.ArtifactRepositoryPolicy;
+import org.apache.maven.artifact.repository.DefaultArtifactRepository;
+import org.apache.maven.artifact.repository.layout.DefaultRepositoryLayout;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.IOUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ResolutionDaemonTest
+{
+
+    private static final String TOKEN = ResolutionDaemon.createToken();
+
+    private static final String CENTRAL = "http://repo.example.org/maven2";
+
+    private File directory;
+
+    private File local;
+
+    private ServerSocket server;
+
+    @Before
+    public void setUp()
+        throws IOException
+    {
+        directory = CollectorTestSupport.createTempDirectory( "daemon" );
+        local = new File( directory, "repository" );
+        local.mkdirs();
+
+        ArtifactRepository localRepository =
+            new DefaultArtifactRepository( "local", local.toURI().toString(), new DefaultRepositoryLayout() );
+        MavenSession session =
+            new MavenSession( null, null, localRepository, null, null, Collections.EMPTY_LIST, null,
+                              new Properties(), new Date() );
+
+        ArtifactRepositoryPolicy policy = new ArtifactRepositoryPolicy( true, "daily", "warn" );
+        List<ArtifactRepository> repositories = new ArrayList<ArtifactRepository>();
+        repositories.add( new DefaultArtifactRepository( "central", CENTRAL, new DefaultRepositoryLayout(), policy,
+                                                         policy ) );
+
+        final ResolutionDaemon daemon =
+            new ResolutionDaemon( null, null, null, null, session, repositories, TOKEN, 60000, 1024 * 1024,
+                                  new SystemStreamLog() );
+
+        server = new ServerSocket( 0, 50, InetAddress.getByName( "127.0.0.1" ) );
+        new Thread()
+        {
+            public void run()
+            {
+                try
+                {
+                    daemon.serve( server, 2, 0 );
+                }
+                catch ( IOException e )
+                {
+                    // the server socket was closed.
+                }
+            }
+        }.start();
+    }
+
+    @After
+    public void tearDown()
+        throws IOException
+    {
+        server.close();
+        FileUtils.deleteDirectory( directory );
+    }
+
+    @Test
+    public void refusesRequestsSignedWithAnotherToken()
+        throws IOException
+    {
+        String nonce = ResolutionDaemon.createNonce( 16 );
+        List<String> response =
+            send( ResolutionDaemon.PROTOCOL,
+                  "auth " + nonce + " " + ResolutionDaemon.sign( ResolutionDaemon.createToken(), "client " + nonce ),
+                  "local " + local.getAbsolutePath() );
+
+        assertEquals( Arrays.asList( ResolutionDaemon.PROTOCOL, "error Not authorized" ), response );
+    }
+
+    @Test
+    public void refusesRequestsWithoutAuthentication()
+        throws IOException
+    {
+        List<String> response = send( ResolutionDaemon.PROTOCOL, "local " + local.getAbsolutePath() );
+
+        assertEquals( Arrays.asList( ResolutionDaemon.PROTOCOL, "error Not authorized" ), response );
+    }
+
+    @Test
+    public void provesItHoldsTheTokenAndRefusesAnotherLocalRepository()
+        throws IOException
+    {
+        String nonce = ResolutionDaemon.createNonce( 16 );
+        List<String> response =
+            send( ResolutionDaemon.PROTOCOL, auth( nonce ), "local " + new File( directory, "other" ) );
+
+        assertEquals( 3, response.size() );
+        assertEquals( "proof " + ResolutionDaemon.sign( TOKEN, "daemon " + nonce ), response.get( 1 ) );
+        assertTrue( response.get( 2 ), response.get( 2 ).startsWith( "error Local repository: " ) );
+    }
+
+    @Test
+    public void refusesRepositoriesItIsNotConfiguredWith()
+        throws IOException
+    {
+        String policy = "true/daily/warn";
+        List<String> response =
+            send( ResolutionDaemon.PROTOCOL, auth( ResolutionDaemon.createNonce( 16 ) ),
+                  "local " + local.getAbsolutePath(),
+                  "remote central " + policy + " " + policy + " http://attacker.example.org/maven2" );
+
+        assertEquals( 3, response.size() );
+        assertEquals( "error Repository: central (http://attacker.example.org/maven2)"
+            + " is not configured in the daemon.", response.get( 2 ) );
+    }
+
+    @Test
+    public void readsRequestsUpToTheEndLine()
+        throws IOException
+    {
+        List<String> request = ResolutionDaemon.readRequest( new StringReader( "a\r\nb\nend\nc\n" ) );
+
+        assertEquals( Arrays.asList( "a", "b" ), request );
+    }
+
+    @Test
+    public void refusesOversizedRequests()
+    {
+        StringBuilder sb = new StringBuilder();
+        while ( sb.length() <= 4 * 1024 * 1024 )
+        {
+            sb.append( "artifact g:a:jar::1.0:compile:false\n" );
+        }
+
+        try
+        {
+            ResolutionDaemon.readRequest( new StringReader( sb.toString() ) );
+            fail( "Oversized request accepted." );
+        }
+        catch ( IOException e )
+        {
+            assertTrue( e.getMessage(), e.getMessage().startsWith( "Request exceeds" ) );
+        }
+    }
+
+    @Test
+    public void writesAndReadsTheToken()
+        throws IOException
+    {
+        File tokenFile = new File( directory, "daemon/token" );
+        ResolutionDaemon.writeToken( tokenFile, TOKEN );
+
+        assertEquals( TOKEN, ResolutionDaemon.readToken( tokenFile ) );
+        assertEquals( null, ResolutionDaemon.readToken( new File( directory, "missing" ) ) );
+    }
+
+    private static String auth( final String nonce )
+    {
+        return "auth " + nonce + " " + ResolutionDaemon.sign( TOKEN, "client " + nonce );
+    }
+
+    private List<String> send( final String... request )
+        throws IOException
+    {
+        Socket socket = new Socket( server.getInetAddress(), server.getLocalPort() );
+        Writer writer = null;
+        BufferedReader reader = null;
+        try
+        {
+            writer = new OutputStreamWriter( socket.getOutputStream(), "UTF-8" );
+            for ( String line : request )
+            {
+                writer.write( line + "\n" );
+            }
+            writer.write( "end\n" );
+            writer.flush();
+
+            reader = new BufferedReader( new InputStreamReader( socket.getInputStream(), "UTF-8" ) );
+            List<String> response = new ArrayList<String>();
+            String line;
+            while ( ( line = reader.readLine() ) != null )
+            {
+                response.add( line );
+            }
+
+            return response;
+        }
+        finally
+        {
+            IOUtil.close( writer );
+            IOUtil.close( reader );
+            socket.close();
+        }
+    }
+
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2009 Sonatype, Inc.                                                                                                                          
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ */
+package org.apache.maven.plugin.repository.collector;
+
+import org.apache.maven.artifact.repository.ArtifactRepository;
+import org.apache.maven.artifact.repository.DefaultArtifactRepository;
+import org.apache.maven.artifact.repository.layout.DefaultRepositoryLayout;
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ResolutionLockFileTest
+{
+
+    private File directory;
+
+    @Before
+    public void setUp()
+        throws IOException
+    {
+        directory = CollectorTestSupport.createTempDirectory( "lockfile" );
+    }
+
+    @After
+    public void tearDown()
+        throws IOException
+    {
+        FileUtils.deleteDirectory( directory );
+    }
+
+    @Test
+    public void writesSortedEntriesAndReadsThemBack()
+        throws IOException
+    {
+        File lockFile = new File( directory, "collector.lock" );
+        List<ResolutionLockFile.Entry> entries = new ArrayList<ResolutionLockFile.Entry>();
+        entries.add( new ResolutionLockFile.Entry( "org.example", "lib", "jar", "sources", "1.0", "central", "bb" ) );
+        entries.add( new ResolutionLockFile.Entry( "org.example", "lib", "jar", null, "1.0", null, "aa" ) );
+        ResolutionLockFile.write( lockFile, entries );
+
+        String content = FileUtils.fileRead( lockFile, "UTF-8" );
+        assertEquals( "# maven-repository-collector lockfile, version 1\n"
+            + "org.example:lib:jar::1.0 - aa\n" + "org.example:lib:jar:sources:1.0 central bb\n", content );
+
+        List<ResolutionLockFile.Entry> read = ResolutionLockFile.read( lockFile );
+        assertEquals( 2, read.size() );
+        assertNull( read.get( 0 ).getClassifier() );
+        assertEquals( ResolutionLockFile.UNKNOWN_REPOSITORY, read.get( 0 ).getRepositoryId() );
+        assertEquals( "sources", read.get( 1 ).getClassifier() );
+        assertEquals( "central", read.get( 1 ).getRepositoryId() );
+        assertEquals( "bb", read.get( 1 ).getSha1() );
+
+        // an unchanged graph gives a byte-for-byte identical lockfile.
+        ResolutionLockFile.write( lockFile, read );
+        assertEquals( content, FileUtils.fileRead( lockFile, "UTF-8" ) );
+    }
+
+    @Test
+    public void refusesInvalidEntries()
+        throws IOException
+    {
+        File lockFile = new File( directory, "collector.lock" );
+        FileUtils.fileWrite( lockFile.getPath(), "UTF-8", "# comment\n\norg.example:lib:jar:1.0 central aa\n" );
+
+        try
+        {
+            ResolutionLockFile.read( lockFile );
+            fail( "Invalid entry accepted." );
+        }
+        catch ( IOException e )
+        {
+            assertTrue( e.getMessage(), e.getMessage().startsWith( "Invalid lockfile entry at " + lockFile + ":3" ) );
+        }
+    }
+
+    @Test
+    public void replaysFromTheRecordedRepositoryFirst()
+    {
+        ArtifactRepository central = createRepository( "central" );
+        ArtifactRepository mirror = createRepository( "mirror" );
+        ArtifactRepository snapshots = createRepository( "snapshots" );
+        List<ArtifactRepository> repositories = Arrays.asList( central, mirror, snapshots );
+
+        ResolutionLockFile.Entry recorded =
+            new ResolutionLockFile.Entry( "org.example", "lib", "jar", null, "1.0", "mirror", "aa" );
+        assertEquals( Arrays.asList( mirror, central, snapshots ),
+                      ResolutionLockFile.getReplayRepositories( recorded, repositories ) );
+
+        ResolutionLockFile.Entry unknown =
+            new ResolutionLockFile.Entry( "org.example", "lib", "jar", null, "1.0", null, "aa" );
+        assertEquals( repositories, ResolutionLockFile.getReplayRepositories( unknown, repositories ) );
+    }
+
+    @Test
+    public void verifiesReplayedFilesAgainstTheRecordedChecksum()
+        throws IOException
+    {
+        File file = new File( directory, "lib-1.0.jar" );
+        FileUtils.fileWrite( file.getPath(), "UTF-8", "content" );
+
+        ResolutionLockFile.Entry entry =
+            new ResolutionLockFile.Entry( "org.example", "lib", "jar", null, "1.0", "central", Checksums.sha1( file ) );
+        ResolutionLockFile.verify( entry, file );
+
+        FileUtils.fileWrite( file.getPath(), "UTF-8", "tampered" );
+        try
+        {
+            ResolutionLockFile.verify( entry, file );
+            fail( "Tampered file accepted." );
+        }
+        catch ( IOException e )
+        {
+            assertTrue( e.getMessage(),
+                        e.getMessage().startsWith( "Checksum mismatch for: org.example:lib:jar::1.0" ) );
+        }
+    }
+
+    private ArtifactRepository createRepository( final String id )
+    {
+        return new DefaultArtifactRepository( id, "http://repo.example.org/" + id, new DefaultRepositoryLayout() );
+    }
+
+}
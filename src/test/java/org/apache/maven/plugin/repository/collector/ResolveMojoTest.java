@@ -0,0 +1,431 @@
+/*
+ * Copyright (C) 2009 Sonatype, Inc.                                                                                                                          
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ */
+package org.apache.maven.plugin.repository.collector;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.repository.ArtifactRepository;
+import org.apache.maven.artifact.repository.ArtifactRepositoryPolicy;
+import org.apache.maven.artifact.repository.DefaultArtifactRepository;
+import org.apache.maven.artifact.repository.layout.DefaultRepositoryLayout;
+import org.apache.maven.artifact.resolver.ArtifactResolutionResult;
+import org.apache.maven.artifact.resolver.ArtifactResolver;
+import org.apache.maven.artifact.resolver.ResolutionNode;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.model.Dependency;
+import org.apache.maven.model.DependencyManagement;
+import org.apache.maven.model.Model;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.apache.maven.plugin.repository.collector.FixtureMetadataSource.create;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ResolveMojoTest
+{
+
+    private File directory;
+
+    private ArtifactRepository localRepository;
+
+    /**
+     * The calls made to the artifact resolver, in order.
+     */
+    private final List<String> calls = Collections.synchronizedList( new ArrayList<String>() );
+
+    @Before
+    public void setUp()
+        throws IOException
+    {
+        directory = CollectorTestSupport.createTempDirectory( "resolve" );
+
+        File local = new File( directory, "local" );
+        localRepository =
+            new DefaultArtifactRepository( "local", local.toURI().toString(), new DefaultRepositoryLayout() );
+    }
+
+    @After
+    public void tearDown()
+        throws IOException
+    {
+        FileUtils.deleteDirectory( directory );
+    }
+
+    @Test
+    public void streamingFetchesEachGraphsPomsBeforeTheNextGraph()
+        throws IOException, MojoExecutionException
+    {
+        Map<String, List<String>> graphs = new HashMap<String, List<String>>();
+        graphs.put( "a", Arrays.asList( "a", "b" ) );
+        graphs.put( "c", Arrays.asList( "c", "b" ) );
+        Map<String, String> parents = new HashMap<String, String>();
+        parents.put( "a", "parent" );
+        parents.put( "c", "parent" );
+
+        ResolveMojo mojo = new ResolveMojo();
+        mojo.setLog( new SystemStreamLog() );
+        mojo.setArtifactFactory( CollectorTestSupport.createArtifactFactory() );
+        mojo.setProject( createProject() );
+        mojo.setThreads( 2 );
+        mojo.setSession( new MavenSession( null, null, localRepository, null, null, null, null, null, null ) );
+        mojo.setArtifactResolver( createArtifactResolver( graphs, parents ) );
+        mojo.setLockMode( "write" );
+        mojo.setLockFile( new File( directory, "collector.lock" ) );
+
+        Set<Artifact> artifacts =
+            new LinkedHashSet<Artifact>( Arrays.asList( create( "a", "1.0" ), create( "c", "1.0" ) ) );
+        mojo.collectStreaming( artifacts, new HashMap<String, Map<String, Artifact>>() );
+
+        assertTrue( artifacts.isEmpty() );
+        assertEquals( Arrays.asList( "graph test:a", "graph test:c" ), filter( calls, "graph" ) );
+        int next = calls.indexOf( "graph test:c" );
+        assertTrue( calls.toString(), calls.indexOf( "pom test:a" ) < next );
+        assertTrue( calls.toString(), calls.indexOf( "pom test:b" ) < next );
+        assertTrue( calls.toString(), calls.indexOf( "pom test:parent" ) < next );
+        assertTrue( calls.toString(), calls.lastIndexOf( "pom test:c" ) > next );
+
+        List<String> locked = new ArrayList<String>();
+        for ( ResolutionLockFile.Entry entry : ResolutionLockFile.read( mojo.getLockFile() ) )
+        {
+            locked.add( entry.getCoordinate() );
+        }
+        assertEquals( Arrays.asList( "test:a:jar::1.0", "test:a:pom::1.0", "test:b:jar::1.0", "test:b:pom::1.0",
+                                     "test:c:jar::1.0", "test:c:pom::1.0", "test:parent:pom::1.0" ), locked );
+    }
+
+    @Test
+    public void shardingRequiresIndependentResolution()
+        throws MojoExecutionException
+    {
+        ResolveMojo mojo = new ResolveMojo();
+        mojo.setLog( new SystemStreamLog() );
+        mojo.setMediator( "maven" );
+        mojo.setLockMode( "none" );
+        mojo.setBackend( "maven" );
+        mojo.setDedupe( true );
+        mojo.setShardCount( 2 );
+
+        try
+        {
+            mojo.execute();
+            fail( "Sharding a deduplicated run should be rejected" );
+        }
+        catch ( MojoFailureException e )
+        {
+            assertTrue( e.getMessage(), e.getMessage().startsWith( "shardCount > 1 requires" ) );
+        }
+    }
+
+    @Test
+    public void replayDeletesFilesThatDoNotMatchTheLockfile()
+        throws IOException, MojoFailureException
+    {
+        ResolutionLockFile.Entry entry =
+            new ResolutionLockFile.Entry( "test", "a", "jar", null, "1.0", null,
+                                          "0000000000000000000000000000000000000000" );
+        File lock = new File( directory, "collector.lock" );
+        ResolutionLockFile.write( lock, Collections.singletonList( entry ) );
+
+        ResolveMojo mojo = new ResolveMojo();
+        mojo.setLog( new SystemStreamLog() );
+        mojo.setArtifactFactory( CollectorTestSupport.createArtifactFactory() );
+        mojo.setProject( createProject() );
+        mojo.setThreads( 2 );
+        mojo.setSession( new MavenSession( null, null, localRepository, null, null, null, null, null, null ) );
+        mojo.setArtifactResolver( createArtifactResolver( Collections.<String, List<String>> emptyMap(),
+                                                          Collections.<String, String> emptyMap() ) );
+        mojo.setMediator( "maven" );
+        mojo.setLockMode( "replay" );
+        mojo.setLockFile( lock );
+
+        try
+        {
+            mojo.execute();
+            fail( "A file that does not match the lockfile should fail the replay" );
+        }
+        catch ( MojoExecutionException e )
+        {
+            assertTrue( e.getMessage(), e.getMessage().contains( "Checksum mismatch for: test:a:jar::1.0" ) );
+        }
+
+        assertEquals( Arrays.asList( "pom test:a" ), calls );
+        assertFalse( new File( localRepository.getBasedir(), "test/a/1.0/a-1.0.jar" ).exists() );
+    }
+
+    @Test
+    public void interpolatesTheCoordinatesOfTheProjectsBoms()
+        throws MojoExecutionException
+    {
+        Model model = new Model();
+        model.setGroupId( "test" );
+        model.setArtifactId( "project" );
+        model.setVersion( "1.0" );
+        model.addProperty( "bom.major", "2" );
+        model.addProperty( "bom.version", "${bom.major}.${project.version}" );
+
+        Dependency bom = new Dependency();
+        bom.setGroupId( "${project.groupId}" );
+        bom.setArtifactId( "bom" );
+        bom.setVersion( "${bom.version}-final" );
+        bom.setType( "pom" );
+        bom.setScope( "import" );
+        DependencyManagement dm = new DependencyManagement();
+        dm.addDependency( bom );
+        model.setDependencyManagement( dm );
+
+        MavenProject project = new MavenProject( model );
+        project.setOriginalModel( model );
+
+        ResolveMojo mojo = new ResolveMojo();
+        mojo.setLog( new SystemStreamLog() );
+        mojo.setArtifactFactory( CollectorTestSupport.createArtifactFactory() );
+        mojo.setProject( project );
+        mojo.setThreads( 2 );
+
+        Set<Artifact> poms =
+            mojo.resolveProjectAncestry( createArtifactResolver( Collections.<String, List<String>> emptyMap(),
+                                                                 Collections.<String, String> emptyMap() ),
+                                         localRepository, Collections.<ArtifactRepository> emptyList() );
+
+        assertEquals( Arrays.asList( "pom test:bom" ), calls );
+        assertEquals( 1, poms.size() );
+        assertEquals( "test:bom:pom:2.1.0-final", poms.iterator().next().getId() );
+    }
+
+    /**
+     * Maven's project builder may serve resolved artifacts' POMs from its container-wide cache, without writing them
+     * to the target repository. Rather than invalidating that cache, the POMs are fetched again afterwards.
+     */
+    @Test
+    public void fetchesThePomsOfResolvedArtifactsIntoTheTargetRepository()
+        throws MojoExecutionException
+    {
+        Map<String, String> parents = new HashMap<String, String>();
+        parents.put( "a", "parent" );
+
+        ResolveMojo mojo = new ResolveMojo();
+        mojo.setLog( new SystemStreamLog() );
+        mojo.setArtifactFactory( CollectorTestSupport.createArtifactFactory() );
+        mojo.setProject( createProject() );
+        mojo.setThreads( 2 );
+
+        Set<Artifact> poms =
+            mojo.resolveProjectAncestry( createArtifactResolver( Collections.<String, List<String>> emptyMap(),
+                                                                 parents ), localRepository,
+                                         Collections.<ArtifactRepository> emptyList(),
+                                         Arrays.asList( create( "a", "1.0" ), create( "b", "1.0" ) ) );
+
+        assertEquals( new TreeSet<String>( Arrays.asList( "pom test:a", "pom test:b", "pom test:parent" ) ),
+                      new TreeSet<String>( calls ) );
+        assertEquals( 3, poms.size() );
+        for ( Artifact pom : poms )
+        {
+            assertEquals( new File( localRepository.getBasedir(), localRepository.pathOf( pom ) ), pom.getFile() );
+            assertTrue( pom.getFile().getPath(), pom.getFile().isFile() );
+        }
+    }
+
+    @Test
+    public void copiesTheSnapshotUpdateIntervalToEverySnapshotRepository()
+    {
+        ArtifactRepository central = createRepository( "central", true );
+        ArtifactRepository releases = createRepository( "releases", false );
+        ResolveMojo mojo = createPolicyMojo( central, releases );
+        mojo.setSnapshotUpdateInterval( 30 );
+
+        List<ArtifactRepository> repositories = mojo.getResolutionRepositories();
+        assertEquals( 3, repositories.size() );
+
+        ArtifactRepository mainLocal = repositories.get( 0 );
+        assertEquals( "main-local", mainLocal.getId() );
+        assertEquals( "interval:30", mainLocal.getSnapshots().getUpdatePolicy() );
+        assertEquals( ArtifactRepositoryPolicy.UPDATE_POLICY_ALWAYS, mainLocal.getReleases().getUpdatePolicy() );
+
+        ArtifactRepository copy = repositories.get( 1 );
+        assertEquals( "central", copy.getId() );
+        assertEquals( central.getUrl(), copy.getUrl() );
+        assertEquals( "interval:30", copy.getSnapshots().getUpdatePolicy() );
+        assertEquals( ArtifactRepositoryPolicy.CHECKSUM_POLICY_FAIL, copy.getSnapshots().getChecksumPolicy() );
+        assertSame( central.getReleases(), copy.getReleases() );
+        assertEquals( ArtifactRepositoryPolicy.UPDATE_POLICY_DAILY, central.getSnapshots().getUpdatePolicy() );
+
+        assertSame( releases, repositories.get( 2 ) );
+    }
+
+    @Test
+    public void forcedSnapshotUpdatesCheckEverySnapshotRepository()
+    {
+        ResolveMojo mojo = createPolicyMojo( createRepository( "central", true ) );
+        mojo.setSnapshotUpdateInterval( 30 );
+        mojo.setForceSnapshotUpdate( true );
+
+        for ( ArtifactRepository repository : mojo.getResolutionRepositories() )
+        {
+            assertEquals( repository.getId(), ArtifactRepositoryPolicy.UPDATE_POLICY_ALWAYS,
+                          repository.getSnapshots().getUpdatePolicy() );
+        }
+    }
+
+    @Test
+    public void keepsEachRepositorysOwnSnapshotPolicyByDefault()
+    {
+        ArtifactRepository central = createRepository( "central", true );
+        ResolveMojo mojo = createPolicyMojo( central );
+        mojo.setSnapshotUpdateInterval( -1 );
+
+        List<ArtifactRepository> repositories = mojo.getResolutionRepositories();
+        assertEquals( ArtifactRepositoryPolicy.UPDATE_POLICY_ALWAYS,
+                      repositories.get( 0 ).getSnapshots().getUpdatePolicy() );
+        assertSame( central, repositories.get( 1 ) );
+    }
+
+    /**
+     * A mojo resolving into an alternative local repository, with the main one injected as the 'main-local' remote.
+     */
+    private ResolveMojo createPolicyMojo( final ArtifactRepository... remotes )
+    {
+        MavenProject project = createProject();
+        project.setRemoteArtifactRepositories( Arrays.asList( remotes ) );
+
+        ResolveMojo mojo = new ResolveMojo();
+        mojo.setLog( new SystemStreamLog() );
+        mojo.setProject( project );
+        mojo.setSession( new MavenSession( null, null, localRepository, null, null, null, null, null, null ) );
+        mojo.setLocalRepositoryDirectory( new File( directory, "alternative" ) );
+        mojo.setResolveFromExistingLocalRepo( true );
+
+        return mojo;
+    }
+
+    private static ArtifactRepository createRepository( final String id, final boolean snapshots )
+    {
+        ArtifactRepositoryPolicy releasePolicy =
+            new ArtifactRepositoryPolicy( true, ArtifactRepositoryPolicy.UPDATE_POLICY_DAILY,
+                                          ArtifactRepositoryPolicy.CHECKSUM_POLICY_WARN );
+        ArtifactRepositoryPolicy snapshotPolicy =
+            new ArtifactRepositoryPolicy( snapshots, ArtifactRepositoryPolicy.UPDATE_POLICY_DAILY,
+                                          ArtifactRepositoryPolicy.CHECKSUM_POLICY_FAIL );
+
+        return new DefaultArtifactRepository( id, "http://repo.example.org/" + id, new DefaultRepositoryLayout(),
+                                              snapshotPolicy, releasePolicy );
+    }
+
+    private static List<String> filter( final List<String> calls, final String kind )
+    {
+        List<String> result = new ArrayList<String>();
+        for ( String call : calls )
+        {
+            if ( call.startsWith( kind + " " ) )
+            {
+                result.add( call );
+            }
+        }
+
+        return result;
+    }
+
+    private static MavenProject createProject()
+    {
+        Model model = new Model();
+        model.setGroupId( "org.example" );
+        model.setArtifactId( "project" );
+        model.setVersion( "1.0" );
+
+        return new MavenProject( model );
+    }
+
+    /**
+     * A resolver that resolves each direct artifact to the given graph, and writes every file it is asked for (POMs
+     * with the given parents) into the local repository.
+     */
+    private ArtifactResolver createArtifactResolver( final Map<String, List<String>> graphs,
+                                                     final Map<String, String> parents )
+    {
+        InvocationHandler handler = new InvocationHandler()
+        {
+            public Object invoke( final Object proxy, final Method method, final Object[] args )
+                throws IOException
+            {
+                if ( "resolveTransitively".equals( method.getName() ) )
+                {
+                    Artifact direct = (Artifact) ( (Set<?>) args[0] ).iterator().next();
+                    calls.add( "graph " + direct.getGroupId() + ":" + direct.getArtifactId() );
+
+                    Set<ResolutionNode> nodes = new LinkedHashSet<ResolutionNode>();
+                    for ( String artifactId : graphs.get( direct.getArtifactId() ) )
+                    {
+                        Artifact a = create( artifactId, "1.0" );
+                        write( a, "jar" );
+                        nodes.add( new ResolutionNode( a, Collections.EMPTY_LIST ) );
+                    }
+
+                    ArtifactResolutionResult result = new ArtifactResolutionResult();
+                    result.setArtifactResolutionNodes( nodes );
+                    return result;
+                }
+
+                Artifact pom = (Artifact) args[0];
+                calls.add( "pom " + pom.getGroupId() + ":" + pom.getArtifactId() );
+
+                String parent = parents.get( pom.getArtifactId() );
+                write( pom, "<project><modelVersion>4.0.0</modelVersion>"
+                    + ( parent == null ? "" : "<parent><groupId>test</groupId><artifactId>" + parent
+                        + "</artifactId><version>1.0</version></parent>" ) + "<groupId>test</groupId><artifactId>"
+                    + pom.getArtifactId() + "</artifactId><version>1.0</version></project>" );
+                return null;
+            }
+        };
+
+        return (ArtifactResolver) Proxy.newProxyInstance( ArtifactResolver.class.getClassLoader(),
+                                                          new Class[] { ArtifactResolver.class }, handler );
+    }
+
+    private void write( final Artifact a, final String content )
+        throws IOException
+    {
+        File file = new File( localRepository.getBasedir(), localRepository.pathOf( a ) );
+        file.getParentFile().mkdirs();
+        FileUtils.fileWrite( file.getPath(), "UTF-8", content );
+        a.setFile( file );
+    }
+
+}
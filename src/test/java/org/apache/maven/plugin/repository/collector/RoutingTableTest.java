@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2009 Sonatype, Inc.                                                                                                                          
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ */
+package org.apache.maven.plugin.repository.collector;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+
+public class RoutingTableTest
+{
+
+    private File directory;
+
+    private File file;
+
+    @Before
+    public void setUp()
+        throws IOException
+    {
+        directory = CollectorTestSupport.createTempDirectory( "routes" );
+        file = new File( directory, RoutingTable.FILE_NAME );
+    }
+
+    @After
+    public void tearDown()
+        throws IOException
+    {
+        FileUtils.deleteDirectory( directory );
+    }
+
+    @Test
+    public void mergesRoutesLearnedByConcurrentBuilds()
+        throws IOException
+    {
+        RoutingTable first = load();
+        RoutingTable second = load();
+
+        first.recordServed( "org.codehaus.plexus", "central" );
+        second.recordServed( "org.sonatype.nexus", "sonatype" );
+        first.store();
+        second.store();
+
+        RoutingTable reloaded = load();
+        assertEquals( "central", reloaded.getRoute( "org.codehaus.plexus" ) );
+        assertEquals( "sonatype", reloaded.getRoute( "org.sonatype.nexus.plugins" ) );
+        assertEquals( 2, directory.list().length );
+    }
+
+    private RoutingTable load()
+        throws IOException
+    {
+        RoutingTable table = new RoutingTable( file );
+        table.loadLearned();
+        return table;
+    }
+
+}
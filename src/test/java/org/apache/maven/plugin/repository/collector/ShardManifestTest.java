@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2009 Sonatype, Inc.                                                                                                                          
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ */
+package org.apache.maven.plugin.repository.collector;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.DefaultArtifact;
+import org.apache.maven.artifact.handler.DefaultArtifactHandler;
+import org.apache.maven.artifact.versioning.VersionRange;
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ShardManifestTest
+{
+
+    private File directory;
+
+    @Before
+    public void setUp()
+        throws IOException
+    {
+        directory = CollectorTestSupport.createTempDirectory( "shards" );
+    }
+
+    @After
+    public void tearDown()
+        throws IOException
+    {
+        FileUtils.deleteDirectory( directory );
+    }
+
+    @Test
+    public void assignsKeysStablyAndOnlyMovesThemToNewShards()
+    {
+        assertEquals( 0, ShardManifest.shardOf( "org.example:a:jar", 1 ) );
+
+        int[] counts = new int[4];
+        for ( int i = 0; i < 1000; i++ )
+        {
+            String key = "org.example:artifact" + i + ":jar";
+            int four = ShardManifest.shardOf( key, 4 );
+            int five = ShardManifest.shardOf( key, 5 );
+            counts[four]++;
+
+            // growing the shard count only moves keys into the new shard.
+            assertTrue( five == four || five == 4 );
+        }
+
+        for ( int count : counts )
+        {
+            assertTrue( "Unbalanced shard: " + count, count > 150 && count < 350 );
+        }
+    }
+
+    @Test
+    public void writesAManifestNamedAfterTheProjectAndReadsItBack()
+        throws IOException
+    {
+        List<Artifact> artifacts = new ArrayList<Artifact>();
+        artifacts.add( createArtifact( "a" ) );
+        artifacts.add( createArtifact( "b" ) );
+        artifacts.add( createArtifact( "c" ) );
+
+        ShardManifest manifest = ShardManifest.create( "org.example", "project", 1, 3, artifacts );
+        File file = manifest.write( directory );
+
+        assertEquals( ".collector-shard-org.example-project-1-of-3.txt", file.getName() );
+        assertTrue( ShardManifest.isManifestFile( file ) );
+        assertFalse( ShardManifest.isManifestFile( new File( directory, ".collector-index.txt" ) ) );
+
+        ShardManifest read = ShardManifest.read( file );
+        assertEquals( "org.example:project", read.getProjectId() );
+        assertEquals( 1, read.getShardIndex() );
+        assertEquals( 3, read.getShardCount() );
+        assertEquals( manifest.getAssignments(), read.getAssignments() );
+        for ( Artifact a : artifacts )
+        {
+            assertEquals( ShardManifest.shardOf( ShardManifest.getKey( a ), 3 ) == 1, read.isAssigned( a ) );
+        }
+    }
+
+    private static Artifact createArtifact( final String artifactId )
+    {
+        return new DefaultArtifact( "org.example", artifactId, VersionRange.createFromVersion( "1.0" ), "compile",
+                                    "jar", null, new DefaultArtifactHandler( "jar" ) );
+    }
+
+}
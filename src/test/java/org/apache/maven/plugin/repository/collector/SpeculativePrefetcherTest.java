@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2009 Sonatype, Inc.                                                                                                                          
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ */
+package org.apache.maven.plugin.repository.collector;
+
+import org.apache.maven.artifact.manager.WagonManager;
+import org.apache.maven.artifact.repository.ArtifactRepository;
+import org.apache.maven.artifact.repository.DefaultArtifactRepository;
+import org.apache.maven.artifact.repository.layout.DefaultRepositoryLayout;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SpeculativePrefetcherTest
+{
+
+    private File directory;
+
+    private ArtifactRepository localRepository;
+
+    private ArtifactRepository remoteRepository;
+
+    @Before
+    public void setUp()
+        throws IOException
+    {
+        directory = CollectorTestSupport.createTempDirectory( "prefetch" );
+
+        File local = new File( directory, "local" );
+        File remote = new File( directory, "remote" );
+        localRepository =
+            new DefaultArtifactRepository( "local", local.toURI().toString(), new DefaultRepositoryLayout() );
+        remoteRepository =
+            new DefaultArtifactRepository( "remote", remote.toURI().toString(), new DefaultRepositoryLayout() );
+
+        for ( String name : Arrays.asList( "a", "b", "c" ) )
+        {
+            File file = new File( remote, "g/" + name + "/1.0/" + name + "-1.0.jar" );
+            file.getParentFile().mkdirs();
+            FileUtils.fileWrite( file.getPath(), name );
+        }
+        File existing = new File( local, "g/c/1.0/c-1.0.jar" );
+        existing.getParentFile().mkdirs();
+        FileUtils.fileWrite( existing.getPath(), "c" );
+    }
+
+    @After
+    public void tearDown()
+        throws IOException
+    {
+        FileUtils.deleteDirectory( directory );
+    }
+
+    @Test
+    public void removesOnlyUnreferencedFilesItCreated()
+        throws Exception
+    {
+        File manifest = new File( localRepository.getBasedir(), SpeculativePrefetcher.getFileName( "g", "project" ) );
+        SpeculativePrefetcher.write( new File( localRepository.getBasedir(),
+                                               SpeculativePrefetcher.getFileName( "g", "other" ) ),
+                                     Collections.singleton( "g:b:jar::1.0" ) );
+
+        SpeculativePrefetcher prefetcher =
+            new SpeculativePrefetcher( new ArtifactFetcher( createWagonManager(), null, null, null, null,
+                                                            new SystemStreamLog() ),
+                                       CollectorTestSupport.createArtifactFactory(), localRepository,
+                                       Collections.singleton( remoteRepository ), 2,
+                                       new SystemStreamLog() );
+        prefetcher.start( Arrays.asList( "g:a:jar::1.0", "g:b:jar::1.0", "g:c:jar::1.0" ) );
+        Map<String, File> fetched = prefetcher.finish();
+
+        assertEquals( 2, fetched.size() );
+        List<String> removed =
+            prefetcher.remove( Arrays.asList( "g:a:jar::1.0", "g:b:jar::1.0", "g:c:jar::1.0" ), manifest );
+
+        assertEquals( Collections.singletonList( "g:a:jar::1.0" ), removed );
+        assertFalse( fetched.get( "g:a:jar::1.0" ).exists() );
+        assertTrue( fetched.get( "g:b:jar::1.0" ).exists() );
+        assertTrue( new File( localRepository.getBasedir(), "g/c/1.0/c-1.0.jar" ).exists() );
+    }
+
+    /**
+     * A WagonManager without mirrors; the fetcher only copies from file: repositories without one.
+     */
+    private static WagonManager createWagonManager()
+    {
+        InvocationHandler handler = new InvocationHandler()
+        {
+            public Object invoke( final Object proxy, final Method method, final Object[] args )
+            {
+                return "getMirrorRepository".equals( method.getName() ) ? args[0] : null;
+            }
+        };
+
+        return (WagonManager) Proxy.newProxyInstance( WagonManager.class.getClassLoader(),
+                                                      new Class[] { WagonManager.class }, handler );
+    }
+
+}